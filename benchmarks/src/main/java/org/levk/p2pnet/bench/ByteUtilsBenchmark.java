@@ -0,0 +1,52 @@
+package org.levk.p2pnet.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.levk.p2pnet.util.ByteUtils;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * ByteUtils.merge for the peer signature preimage and for
+ * gluing many chunks together, and the integer encoders.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ByteUtilsBenchmark {
+    private byte[] version = new byte[2];
+    private byte[] address = new byte[16];
+    private byte[] port = new byte[2];
+    private byte[] pubkey = new byte[33];
+
+    private byte[][] chunks;
+    private byte[] field = new byte[8];
+
+    @Setup
+    public void setup() {
+        chunks = new byte[64][256];
+    }
+
+    @Benchmark
+    public byte[] mergePeerFields() {
+        return ByteUtils.merge(version, address, port, pubkey);
+    }
+
+    @Benchmark
+    public byte[] mergeChunks() {
+        return ByteUtils.merge(chunks);
+    }
+
+    @Benchmark
+    public byte[] longToBytes() {
+        return ByteUtils.longToBytes(0x1234567890L, 6);
+    }
+
+    @Benchmark
+    public byte[] putLongInPlace() {
+        ByteUtils.putLong(field, 0, 0x1234567890L, 6);
+        return field;
+    }
+}
@@ -0,0 +1,77 @@
+package org.levk.p2pnet.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.levk.p2pnet.network.wire.FrameDecoder;
+import org.levk.p2pnet.network.wire.FrameEncoder;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Chunked framing, the replacement for blobify/deblobify,
+ * semiblobify and partition.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameCodecBenchmark {
+    @Param({"64", "1024", "65536", "1048576"})
+    public int size;
+
+    private byte[] payload;
+    private ByteBuffer payloadBuffer;
+    private ByteBuffer encodedBuffer;
+    private byte[] encoded;
+    private FrameDecoder decoder;
+
+    @Setup
+    public void setup() {
+        payload = new byte[size];
+        new Random(size).nextBytes(payload);
+
+        payloadBuffer = ByteBuffer.wrap(payload);
+        encoded = FrameEncoder.encode(payload);
+        encodedBuffer = ByteBuffer.allocate(encoded.length);
+        decoder = new FrameDecoder();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return FrameEncoder.encode(payload);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeInto() {
+        payloadBuffer.clear();
+        encodedBuffer.clear();
+        FrameEncoder.encode(payloadBuffer, encodedBuffer);
+        return encodedBuffer;
+    }
+
+    @Benchmark
+    public int decode() throws IOException {
+        ByteBuffer out = decoder.decode(ByteBuffer.wrap(encoded));
+        int length = out.remaining();
+        decoder.release();
+        return length;
+    }
+
+    /* Bytes delivered in socket-read sized pieces */
+    @Benchmark
+    public int decodeIncremental() throws IOException {
+        int length = 0;
+
+        for (int off = 0; off < encoded.length; off += 1460) {
+            ByteBuffer out = decoder.decode(ByteBuffer.wrap(encoded, off, Math.min(1460, encoded.length - off)));
+            if (out != null) length = out.remaining();
+        }
+
+        decoder.release();
+        return length;
+    }
+}
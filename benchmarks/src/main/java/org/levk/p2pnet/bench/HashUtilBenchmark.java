@@ -0,0 +1,48 @@
+package org.levk.p2pnet.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.levk.p2pnet.util.HashUtil;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Blake2b-256 as used for record hashes, bucket addresses
+ * and message IDs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HashUtilBenchmark {
+    @Param({"33", "1024", "65536"})
+    public int size;
+
+    private byte[] input;
+    private byte[] out;
+
+    @Setup
+    public void setup() {
+        input = new byte[size];
+        new Random(size).nextBytes(input);
+        out = new byte[HashUtil.HASH_LENGTH];
+    }
+
+    @Benchmark
+    public byte[] blake2() {
+        return HashUtil.blake2(input);
+    }
+
+    @Benchmark
+    public byte[] blake2Into() {
+        HashUtil.blake2(out, 0, input);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] blake2omit12() {
+        return HashUtil.blake2omit12(input);
+    }
+}
@@ -0,0 +1,125 @@
+package org.levk.p2pnet.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.levk.CrispyRotaryPhone.CRPENC;
+import org.levk.SchnorrCode.crypto.SchnorrKey;
+import org.levk.p2pnet.network.peerStorage.Peer;
+import org.levk.p2pnet.network.peerStorage.PeerExchange;
+import org.levk.p2pnet.network.peerStorage.PeerVerifier;
+import org.levk.p2pnet.util.HashUtil;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Decoding and verifying signed peer records, one at a time and in
+ * peer exchange batches. Records are correctly signed, so every
+ * check runs to the end and accepts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PeerParseBenchmark {
+    private final static int BATCH = 256;
+
+    private byte[] record;
+    private byte[] address;
+    private List<byte[]> batch;
+    private List<Peer> peers;
+    private byte[] exchange;
+    private PeerVerifier uncached;
+    private PeerVerifier cached;
+
+    @Setup
+    public void setup() {
+        SecureRandom rand = new SecureRandom();
+        batch = new ArrayList<>();
+        peers = new ArrayList<>();
+
+        for (int i = 0; i < BATCH; i++) {
+            byte[] privkey = new byte[HashUtil.PRIVKEY_LENGTH];
+            byte[] version = new byte[Peer.VERSION_LENGTH];
+            byte[] ip = new byte[Peer.ADDRESS_LENGTH];
+            byte[] port = new byte[Peer.PORT_LENGTH];
+            rand.nextBytes(privkey);
+            rand.nextBytes(ip);
+
+            SchnorrKey key = new SchnorrKey(privkey);
+            byte[] pubkey = key.getPubkey();
+
+            byte[] hash = new byte[HashUtil.HASH_LENGTH];
+            HashUtil.blake2(hash, 0, version, ip, port, pubkey);
+
+            byte[] encoded = CRPENC.encode(version, ip, port, pubkey, key.sign(hash));
+            batch.add(encoded);
+            peers.add(new Peer(encoded, ip));
+
+            if (i == 0) address = ip;
+        }
+
+        record = batch.get(0);
+
+        exchange = PeerExchange.encode(peers);
+        uncached = new PeerVerifier(Runtime.getRuntime().availableProcessors(), 0);
+        cached = new PeerVerifier();
+        cached.verifyAll(batch);
+    }
+
+    @TearDown
+    public void tearDown() {
+        uncached.shutdown();
+        cached.shutdown();
+    }
+
+    /* Decoding plus a hit in the default verifier's cache,
+     * the cost of a record seen before */
+    @Benchmark
+    public Peer parse() {
+        return new Peer(record, address);
+    }
+
+    @Benchmark
+    public List<Peer> verifyOne() {
+        return uncached.verifyAll(Collections.singletonList(record));
+    }
+
+    /* Per record cost of reading a peer exchange batch,
+     * against parse() above */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<Peer> decodeExchange() throws IOException {
+        return PeerExchange.decode(ByteBuffer.wrap(exchange));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public byte[] encodeExchange() {
+        return PeerExchange.encode(peers);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<Peer> verifyBatch() {
+        return uncached.verifyAll(batch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<Peer> verifyBatchCached() {
+        return cached.verifyAll(batch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<Peer> verifyExchange() throws IOException {
+        return uncached.verifyDecoded(PeerExchange.decode(ByteBuffer.wrap(exchange))).join();
+    }
+}
@@ -0,0 +1,56 @@
+package org.levk.p2pnet.bench;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.xerial.snappy.Snappy;
+
+/**
+ * Snappy at message sizes seen on the wire, for both
+ * compressible and already-compressed payloads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SnappyBenchmark {
+    @Param({"64", "1024", "16384", "262144"})
+    public int size;
+
+    @Param({"text", "random"})
+    public String content;
+
+    private byte[] payload;
+    private byte[] compressed;
+
+    @Setup
+    public void setup() throws IOException {
+        payload = new byte[size];
+        Random rand = new Random(size);
+
+        if (content.equals("random")) {
+            rand.nextBytes(payload);
+        } else {
+            /* Small alphabet with repeats, roughly like encoded records */
+            for (int i = 0; i < size; i++) {
+                payload[i] = (byte)('a' + rand.nextInt(8));
+            }
+        }
+
+        compressed = Snappy.compress(payload);
+    }
+
+    @Benchmark
+    public byte[] compress() throws IOException {
+        return Snappy.compress(payload);
+    }
+
+    @Benchmark
+    public byte[] uncompress() throws IOException {
+        return Snappy.uncompress(compressed);
+    }
+}
@@ -0,0 +1,31 @@
+package org.levk.p2pnet;
+
+import org.bouncycastle.util.encoders.Hex;
+import org.levk.SchnorrCode.crypto.SchnorrKey;
+import org.levk.p2pnet.network.wire.FrameDecoder;
+import org.levk.p2pnet.network.wire.FrameEncoder;
+import static org.levk.p2pnet.util.HashUtil.blake2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+
+import static org.levk.p2pnet.util.ByteUtils.*;
+
+/**
+ * Hello world!
+ *
+ */
+public class App 
+{
+    public static void main( String[] args ) throws IOException
+    {
+        SecureRandom rand = new SecureRandom();
+        byte[] randDat = new byte[1024 * 1024];
+
+        byte[] encoded = FrameEncoder.encode(randDat);
+        ByteBuffer decoded = new FrameDecoder(randDat.length).decode(ByteBuffer.wrap(encoded));
+
+        System.out.println(decoded != null && decoded.equals(ByteBuffer.wrap(randDat)));
+    }
+}
@@ -0,0 +1,106 @@
+package org.levk.p2pnet.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram in the style of HdrHistogram. Each power of
+ * two is split into 64 linear sub-buckets, so recorded values keep
+ * about two significant digits over the whole long range. Recording
+ * is one array increment, lock-free and allocation-free.
+ */
+public final class Histogram {
+    private final static int SUB_BITS = 7;
+    private final static int HALF = 1 << (SUB_BITS - 1);
+    private final static int BUCKETS = (63 - SUB_BITS + 2) * HALF;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong total;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    public Histogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.total = new AtomicLong();
+        this.sum = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * @param value - negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+
+        counts.incrementAndGet(index(value));
+        total.incrementAndGet();
+        sum.addAndGet(value);
+
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) { }
+    }
+
+    public long getCount() {
+        return total.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = total.get();
+        return (n == 0) ? 0 : (double)sum.get() / n;
+    }
+
+    /**
+     * @param percentile - between 0 and 100
+     * @return the lower bound of the bucket holding the percentile
+     */
+    public long getPercentile(double percentile) {
+        long n = total.get();
+        if (n == 0) return 0;
+
+        long rank = (long)Math.ceil(percentile / 100 * n);
+        if (rank < 1) rank = 1;
+
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return lowerBound(i);
+        }
+
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+
+        total.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " mean=" + String.format("%.1f", getMean()) + " p50=" + getPercentile(50)
+                + " p99=" + getPercentile(99) + " p999=" + getPercentile(99.9) + " max=" + getMax();
+    }
+
+    static int index(long value) {
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        if (msb < SUB_BITS) return (int)value;
+
+        int bucket = msb - SUB_BITS + 1;
+        return bucket * HALF + (int)(value >>> bucket);
+    }
+
+    static long lowerBound(int index) {
+        if (index < 2 * HALF) return index;
+
+        int bucket = index / HALF - 1;
+        return (long)(index - bucket * HALF) << bucket;
+    }
+}
@@ -0,0 +1,209 @@
+package org.levk.p2pnet.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.bouncycastle.util.encoders.Hex;
+import org.levk.p2pnet.network.peerStorage.Peer;
+import org.levk.p2pnet.util.BufferPool;
+
+/**
+ * Process-wide metrics for peers and the wire path. Hot paths only
+ * record into histograms and counters, per-peer values are read
+ * from the connected peers when a snapshot is taken. Counters of
+ * peers that disconnect are folded into retired totals, so process
+ * totals never go backwards.
+ */
+public final class Metrics implements MetricsMXBean {
+    public final static String OBJECT_NAME = "org.levk.p2pnet:type=Metrics";
+
+    private final static Metrics INSTANCE = new Metrics();
+
+    /* Compressed size per mille of the original */
+    private final Histogram compressionRatio = new Histogram();
+    private final Histogram snappyNanos = new Histogram();
+    private final Histogram frameDecodeNanos = new Histogram();
+    private final Histogram verifyNanos = new Histogram();
+
+    private final LongAdder invalidPeers = new LongAdder();
+
+    /* Peers with a live connection */
+    private final Set<Peer> peers = ConcurrentHashMap.newKeySet();
+
+    /* Counters of peers no longer connected. Guards registration
+     * changes against sums, so a peer is never counted twice or
+     * missed while it moves between the two. */
+    private final long[] retired = new long[PeerCounters.NAMES.length];
+
+    private Metrics() { }
+
+    public static Metrics get() {
+        return INSTANCE;
+    }
+
+    public Histogram getCompressionRatio() {
+        return compressionRatio;
+    }
+
+    public Histogram getSnappyNanos() {
+        return snappyNanos;
+    }
+
+    public Histogram getFrameDecodeNanos() {
+        return frameDecodeNanos;
+    }
+
+    public Histogram getVerifyNanos() {
+        return verifyNanos;
+    }
+
+    public void invalidPeer() {
+        invalidPeers.increment();
+    }
+
+    public void register(Peer peer) {
+        synchronized (retired) {
+            if (!peers.add(peer)) return;
+
+            /* A peer connecting again keeps its counters, which
+             * were already retired when it disconnected */
+            PeerCounters counters = peer.getCounters();
+            for (int i = 0; i < retired.length; i++) {
+                retired[i] -= counters.get(i);
+            }
+        }
+    }
+
+    public void unregister(Peer peer) {
+        synchronized (retired) {
+            if (!peers.remove(peer)) return;
+
+            PeerCounters counters = peer.getCounters();
+            for (int i = 0; i < retired.length; i++) {
+                retired[i] += counters.get(i);
+            }
+        }
+    }
+
+    /**
+     * Registers the JMX bean under {@link #OBJECT_NAME}, once.
+     */
+    public void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+
+        if (!server.isRegistered(name)) server.registerMBean(this, name);
+    }
+
+    @Override
+    public int getPeerCount() {
+        return peers.size();
+    }
+
+    @Override
+    public long getInvalidPeerCount() {
+        return invalidPeers.sum();
+    }
+
+    @Override
+    public int getSpammyPeerCount() {
+        int count = 0;
+        for (Peer peer : peers) {
+            if (peer.isSpammy()) count++;
+        }
+        return count;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return sum(PeerCounters.BYTES_IN);
+    }
+
+    @Override
+    public long getBytesOut() {
+        return sum(PeerCounters.BYTES_OUT);
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return sum(PeerCounters.MESSAGES_IN);
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return sum(PeerCounters.MESSAGES_OUT);
+    }
+
+    @Override
+    public long getSnappyNanosP99() {
+        return snappyNanos.getPercentile(99);
+    }
+
+    @Override
+    public long getFrameDecodeNanosP99() {
+        return frameDecodeNanos.getPercentile(99);
+    }
+
+    @Override
+    public long getVerifyNanosP99() {
+        return verifyNanos.getPercentile(99);
+    }
+
+    @Override
+    public long getCompressionRatioP50() {
+        return compressionRatio.getPercentile(50);
+    }
+
+    /**
+     * @return a plain text dump of every metric, one peer per line
+     */
+    @Override
+    public String getSnapshot() {
+        StringBuilder out = new StringBuilder();
+
+        out.append("peers ").append(getPeerCount())
+                .append(" invalid ").append(getInvalidPeerCount())
+                .append(" spammy ").append(getSpammyPeerCount()).append('\n');
+        out.append("compressionRatio ").append(compressionRatio).append('\n');
+        out.append("snappyNanos ").append(snappyNanos).append('\n');
+        out.append("frameDecodeNanos ").append(frameDecodeNanos).append('\n');
+        out.append("verifyNanos ").append(verifyNanos).append('\n');
+        out.append(BufferPool.getDefault()).append('\n');
+
+        for (Peer peer : peers) {
+            PeerCounters counters = peer.getCounters();
+
+            out.append("peer ").append(Hex.toHexString(peer.getAddress()));
+            for (int i = 0; i < PeerCounters.NAMES.length; i++) {
+                out.append(' ').append(PeerCounters.NAMES[i]).append('=').append(counters.get(i));
+            }
+            out.append(" rate=").append(peer.getRate())
+                    .append(" sendQueue=").append(peer.getSendQueueDepth())
+                    .append(" receiveQueue=").append(peer.getReceiveQueueDepth()).append('\n');
+        }
+
+        return out.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getSnapshot();
+    }
+
+    /* Connected and disconnected peers together */
+    private long sum(int counter) {
+        synchronized (retired) {
+            long total = retired[counter];
+            for (Peer peer : peers) {
+                total += peer.getCounters().get(counter);
+            }
+            return total;
+        }
+    }
+}
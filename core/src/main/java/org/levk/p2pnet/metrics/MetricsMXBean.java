@@ -0,0 +1,31 @@
+package org.levk.p2pnet.metrics;
+
+/**
+ * JMX view of {@link Metrics}.
+ */
+public interface MetricsMXBean {
+    int getPeerCount();
+
+    long getInvalidPeerCount();
+
+    int getSpammyPeerCount();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getMessagesIn();
+
+    long getMessagesOut();
+
+    long getSnappyNanosP99();
+
+    long getFrameDecodeNanosP99();
+
+    long getVerifyNanosP99();
+
+    /* Per mille of the original size */
+    long getCompressionRatioP50();
+
+    String getSnapshot();
+}
@@ -0,0 +1,35 @@
+package org.levk.p2pnet.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Traffic counters for one peer, kept in a single array so each
+ * peer pays for one small object.
+ */
+public final class PeerCounters {
+    public final static int BYTES_IN = 0;
+    public final static int BYTES_OUT = 1;
+    public final static int FRAMES_IN = 2;
+    public final static int FRAMES_OUT = 3;
+    public final static int MESSAGES_IN = 4;
+    public final static int MESSAGES_OUT = 5;
+    public final static int DROPPED_IN = 6;
+    public final static int DROPPED_OUT = 7;
+    public final static int DUPLICATES_IN = 8;
+
+    final static String[] NAMES = { "bytesIn", "bytesOut", "framesIn", "framesOut", "messagesIn", "messagesOut", "droppedIn", "droppedOut", "duplicatesIn" };
+
+    private final AtomicLongArray counts = new AtomicLongArray(NAMES.length);
+
+    public void add(int counter, long n) {
+        counts.addAndGet(counter, n);
+    }
+
+    public void increment(int counter) {
+        counts.incrementAndGet(counter);
+    }
+
+    public long get(int counter) {
+        return counts.get(counter);
+    }
+}
@@ -0,0 +1,263 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.util.Arrays;
+
+/**
+ * Counts addresses by subnet in a binary trie over the 16 byte
+ * address, IPv4 addresses taken as IPv4-mapped. Every node counts
+ * the admitted addresses below it, so the number sharing any prefix
+ * is one walk from the root, and limits on several prefix lengths
+ * are checked in the same walk.
+ *
+ * Nodes live in parallel int arrays and are recycled through a free
+ * list once their count drops to zero, so admitting, releasing and
+ * counting allocate nothing beyond the occasional array growth.
+ *
+ * Limits are kept separately for IPv4 and IPv6, with prefix lengths
+ * relative to the address family, so an IPv4 /16 is the mapped /112.
+ */
+public final class AdmissionTable {
+    public final static int ADDRESS_BITS = Peer.ADDRESS_LENGTH * 8;
+
+    /* Bits of the IPv4-mapped prefix */
+    private final static int MAPPED_BITS = 96;
+
+    private final static int INITIAL_NODES = 1024;
+
+    /* Children by bit, 0 for none since the root is never a child.
+     * Free nodes are chained through zero. */
+    private int[] zero;
+    private int[] one;
+    private int[] count;
+
+    private int used;
+    private int free;
+
+    /* Most addresses allowed under a prefix, by absolute
+     * prefix length, 0 for no limit */
+    private final int[] limits4;
+    private final int[] limits6;
+
+    /* Deepest prefix any limit or count is asked about */
+    private final int depth;
+
+    /**
+     * Limits IPv4 to 16 addresses per /16 and 2 per address, and
+     * IPv6 to 16 per /32 and 2 per /64.
+     */
+    public AdmissionTable() {
+        this(ADDRESS_BITS);
+
+        setLimit(true, 16, 16);
+        setLimit(true, 32, 2);
+        setLimit(false, 32, 16);
+        setLimit(false, 64, 2);
+    }
+
+    /**
+     * Without limits.
+     *
+     * @param depth - deepest absolute prefix length tracked, counts
+     *      for longer prefixes are those of this one
+     */
+    public AdmissionTable(int depth) {
+        if (depth < 1 || depth > ADDRESS_BITS) throw new RuntimeException("Invalid admission table depth.");
+
+        this.depth = depth;
+        this.limits4 = new int[ADDRESS_BITS + 1];
+        this.limits6 = new int[ADDRESS_BITS + 1];
+
+        this.zero = new int[INITIAL_NODES];
+        this.one = new int[INITIAL_NODES];
+        this.count = new int[INITIAL_NODES];
+        this.used = 1;
+    }
+
+    /**
+     * @param ipv4 - whether the limit is for IPv4 addresses
+     * @param prefix - prefix length within the family's address
+     * @param max - most addresses allowed under one such prefix, 0 for none
+     */
+    public synchronized void setLimit(boolean ipv4, int prefix, int max) {
+        int bits = ipv4 ? ADDRESS_BITS - MAPPED_BITS : ADDRESS_BITS;
+        if (prefix < 1 || prefix > bits) throw new RuntimeException("Invalid prefix length " + prefix + ".");
+        if (max < 0) throw new RuntimeException("A subnet limit cannot be negative.");
+
+        int absolute = ipv4 ? MAPPED_BITS + prefix : prefix;
+        if (absolute > depth) throw new RuntimeException("The prefix is deeper than the table.");
+
+        (ipv4 ? limits4 : limits6)[absolute] = max;
+    }
+
+    /**
+     * Counts the address in if no limit on its subnets is reached.
+     *
+     * @param address - 4 byte IPv4 or 16 byte IPv6 address
+     * @return whether it was admitted
+     */
+    public synchronized boolean tryAdmit(byte[] address) {
+        int[] limits = isIPv4(address) ? limits4 : limits6;
+
+        /* Check the path before changing anything. Past
+         * its end every count is zero, under any limit. */
+        int node = 0;
+        for (int d = 1; d <= depth; d++) {
+            node = child(node, bit(address, d - 1));
+            if (node == 0) break;
+
+            if (limits[d] > 0 && count[node] >= limits[d]) return false;
+        }
+
+        add(address);
+        return true;
+    }
+
+    /**
+     * Swaps an admitted address for another in one step, so no other
+     * caller sees the table holding neither. The new address is
+     * checked against the limits with the old one counted out.
+     *
+     * @return whether newAddress was admitted, otherwise oldAddress
+     *      is still counted
+     */
+    public synchronized boolean replace(byte[] oldAddress, byte[] newAddress) {
+        boolean held = release(oldAddress);
+        if (tryAdmit(newAddress)) return true;
+
+        /* Back in the slot it just left, so within every limit */
+        if (held) add(oldAddress);
+        return false;
+    }
+
+    /**
+     * Counts out an address admitted earlier.
+     *
+     * @return false if it was not in the table
+     */
+    public synchronized boolean release(byte[] address) {
+        if (countAt(address, depth) == 0) return false;
+
+        count[0]--;
+        int node = 0;
+        for (int d = 1; d <= depth; d++) {
+            int b = bit(address, d - 1);
+            int next = child(node, b);
+
+            /* Everything below drops to zero with it */
+            if (--count[next] == 0) {
+                if (b == 0) zero[node] = 0; else one[node] = 0;
+                freePath(next, address, d);
+                return true;
+            }
+
+            node = next;
+        }
+
+        return true;
+    }
+
+    /**
+     * @param prefix - prefix length within the address's family
+     * @return number of admitted addresses sharing that prefix with address
+     */
+    public synchronized int count(byte[] address, int prefix) {
+        int absolute = isIPv4(address) ? MAPPED_BITS + prefix : prefix;
+        if (prefix < 0 || absolute > ADDRESS_BITS) throw new RuntimeException("Invalid prefix length " + prefix + ".");
+
+        return countAt(address, Math.min(absolute, depth));
+    }
+
+    /**
+     * @return number of addresses admitted
+     */
+    public synchronized int size() {
+        return count[0];
+    }
+
+    private int countAt(byte[] address, int absolute) {
+        int node = 0;
+        for (int d = 1; d <= absolute; d++) {
+            node = child(node, bit(address, d - 1));
+            if (node == 0) return 0;
+        }
+
+        return count[node];
+    }
+
+    /* Counts the address in along its whole path */
+    private void add(byte[] address) {
+        count[0]++;
+        int node = 0;
+        for (int d = 1; d <= depth; d++) {
+            int b = bit(address, d - 1);
+            int next = child(node, b);
+
+            if (next == 0) {
+                next = allocate();
+                if (b == 0) zero[node] = next; else one[node] = next;
+            }
+
+            count[next]++;
+            node = next;
+        }
+    }
+
+    /* Frees node and the rest of the path below it */
+    private void freePath(int node, byte[] address, int d) {
+        while (node != 0) {
+            int next = (d < depth) ? child(node, bit(address, d)) : 0;
+
+            zero[node] = free;
+            one[node] = 0;
+            count[node] = 0;
+            free = node;
+
+            node = next;
+            d++;
+        }
+    }
+
+    private int child(int node, int bit) {
+        return (bit == 0) ? zero[node] : one[node];
+    }
+
+    private int allocate() {
+        if (free != 0) {
+            int node = free;
+            free = zero[node];
+            zero[node] = 0;
+            return node;
+        }
+
+        if (used == zero.length) {
+            int size = zero.length * 2;
+            zero = Arrays.copyOf(zero, size);
+            one = Arrays.copyOf(one, size);
+            count = Arrays.copyOf(count, size);
+        }
+
+        return used++;
+    }
+
+    /* Bit i of the address, from the most significant,
+     * reading 4 byte addresses as IPv4-mapped */
+    private static int bit(byte[] address, int i) {
+        int b;
+
+        if (address.length == 4) {
+            if (i < 80) return 0;
+            if (i < MAPPED_BITS) return 1;
+            b = address[(i - MAPPED_BITS) >>> 3];
+        } else if (address.length == Peer.ADDRESS_LENGTH) {
+            b = address[i >>> 3];
+        } else {
+            throw new RuntimeException("Addresses must be 4 or 16 bytes.");
+        }
+
+        return (b >>> (7 - (i & 7))) & 1;
+    }
+
+    private static boolean isIPv4(byte[] address) {
+        return address.length == 4 || Peer.isIPv4(address);
+    }
+}
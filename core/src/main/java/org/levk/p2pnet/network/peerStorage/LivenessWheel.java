@@ -0,0 +1,256 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timer wheel tracking when peers go inactive and dead.
+ *
+ * Each scheduled peer sits in the slot of its next deadline. When
+ * the slot comes due the peer's last seen time is read again: if
+ * {@link Peer#witness()} moved it on, the peer is simply moved to
+ * its new slot, otherwise the listener is told about the transition.
+ * Witnessing an active peer therefore costs nothing here, only an
+ * inactive peer coming back is moved straight away. Each deadline
+ * costs O(1) no matter how many peers are tracked.
+ *
+ * One thread, or the caller of {@link #advance(long)}, drives every
+ * peer. Listeners are called outside the wheel's lock.
+ */
+public class LivenessWheel {
+    public final static long DEFAULT_TICK = 1000;
+    public final static int DEFAULT_SLOTS = 256;
+
+    public interface Listener {
+        /* The peer has not been seen for INACTIVE_AFTER */
+        void inactive(Peer peer);
+
+        /* The peer has not been seen for DEAD_AFTER. It is no
+         * longer tracked once this fires. */
+        void dead(Peer peer);
+    }
+
+    private final long tick;
+    private final int mask;
+    private final Timeout[] slots;
+    private final Listener listener;
+
+    /* The next slot to process and the time it comes due */
+    private int cursor;
+    private long wheelTime;
+
+    private int size;
+
+    private Thread thread;
+
+    public LivenessWheel(Listener listener) {
+        this(DEFAULT_TICK, DEFAULT_SLOTS, listener, System.currentTimeMillis());
+    }
+
+    /**
+     * @param tick - milliseconds per slot, the precision of transitions
+     * @param slots - rounded up to a power of two
+     * @param start - the wheel's current time
+     */
+    public LivenessWheel(long tick, int slots, Listener listener, long start) {
+        if (tick <= 0 || slots <= 0) throw new RuntimeException("Invalid timer wheel dimensions.");
+
+        int n = Integer.highestOneBit(slots * 2 - 1);
+
+        this.tick = tick;
+        this.mask = n - 1;
+        this.slots = new Timeout[n];
+        this.listener = listener;
+        this.wheelTime = start + tick;
+    }
+
+    /**
+     * Starts tracking a peer from its last seen time. Does nothing
+     * if it is already tracked.
+     */
+    public synchronized void schedule(Peer peer) {
+        if (peer.timeout != null) return;
+
+        Timeout t = new Timeout(this, peer);
+        peer.timeout = t;
+        size++;
+
+        long lastSeen = peer.getLastSeen();
+        t.inactive = (wheelTime - tick - lastSeen) > Peer.INACTIVE_AFTER;
+        place(t, lastSeen + (t.inactive ? Peer.DEAD_AFTER : Peer.INACTIVE_AFTER));
+    }
+
+    public synchronized void cancel(Peer peer) {
+        Timeout t = peer.timeout;
+        if (t == null) return;
+
+        unlink(t);
+        peer.timeout = null;
+        size--;
+    }
+
+    /* Called when an inactive peer is seen again,
+     * so it can go inactive a second time */
+    synchronized void reactivate(Peer peer) {
+        Timeout t = peer.timeout;
+        if (t == null || t.wheel != this || !t.inactive) return;
+
+        t.inactive = false;
+        unlink(t);
+        place(t, peer.getLastSeen() + Peer.INACTIVE_AFTER);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Processes every slot due by now and notifies the listener.
+     *
+     * @return number of transitions fired
+     */
+    public int advance(long now) {
+        List<Peer> inactive = new ArrayList<>();
+        List<Peer> dead = new ArrayList<>();
+
+        synchronized (this) {
+            while (wheelTime <= now) {
+                int slot = cursor;
+                cursor = (cursor + 1) & mask;
+                wheelTime += tick;
+
+                expire(slot, inactive, dead);
+            }
+        }
+
+        for (Peer peer : inactive) {
+            listener.inactive(peer);
+        }
+        for (Peer peer : dead) {
+            listener.dead(peer);
+        }
+
+        return inactive.size() + dead.size();
+    }
+
+    /**
+     * Drives the wheel from a daemon thread until {@link #stop()}.
+     */
+    public synchronized void start() {
+        if (thread != null) return;
+
+        thread = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(tick);
+                    advance(System.currentTimeMillis());
+                }
+            } catch (InterruptedException e) {
+                /* Stopped */
+            }
+        }, "p2pnet-liveness");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (thread != null) thread.interrupt();
+        thread = null;
+    }
+
+    /* Runs a slot that just came due. Its timeouts are detached
+     * first so ones placed back into it are not seen twice. */
+    private void expire(int slot, List<Peer> inactive, List<Peer> dead) {
+        Timeout t = slots[slot];
+        slots[slot] = null;
+
+        long now = wheelTime - tick;
+
+        while (t != null) {
+            Timeout next = t.next;
+
+            if (t.rounds > 0) {
+                t.rounds--;
+                link(t, slot);
+            } else {
+                check(t, now, inactive, dead);
+            }
+
+            t = next;
+        }
+    }
+
+    private void check(Timeout t, long now, List<Peer> inactive, List<Peer> dead) {
+        long idle = now - t.peer.getLastSeen();
+
+        if (idle > Peer.DEAD_AFTER) {
+            t.peer.timeout = null;
+            size--;
+
+            dead.add(t.peer);
+            return;
+        }
+
+        if (idle > Peer.INACTIVE_AFTER) {
+            if (!t.inactive) {
+                t.inactive = true;
+                inactive.add(t.peer);
+            }
+
+            place(t, t.peer.getLastSeen() + Peer.DEAD_AFTER);
+            return;
+        }
+
+        /* Seen again since the deadline was set */
+        t.inactive = false;
+        place(t, t.peer.getLastSeen() + Peer.INACTIVE_AFTER);
+    }
+
+    /* Places a timeout in the first slot due strictly after
+     * its deadline, counting the laps it has to wait out */
+    private void place(Timeout t, long deadline) {
+        long ticks = (deadline < wheelTime) ? 0 : (deadline - wheelTime) / tick + 1;
+
+        t.rounds = (int)Math.min(Integer.MAX_VALUE, ticks / slots.length);
+        link(t, (int)((cursor + ticks) & mask));
+    }
+
+    private void link(Timeout t, int slot) {
+        t.slot = slot;
+        t.prev = null;
+        t.next = slots[slot];
+        if (t.next != null) t.next.prev = t;
+        slots[slot] = t;
+    }
+
+    private void unlink(Timeout t) {
+        if (t.prev != null) {
+            t.prev.next = t.next;
+        } else if (slots[t.slot] == t) {
+            slots[t.slot] = t.next;
+        }
+
+        if (t.next != null) t.next.prev = t.prev;
+
+        t.prev = null;
+        t.next = null;
+    }
+
+    static final class Timeout {
+        final LivenessWheel wheel;
+        final Peer peer;
+
+        /* Read by Peer.witness without the wheel's lock */
+        volatile boolean inactive;
+
+        int rounds;
+        int slot;
+        Timeout prev;
+        Timeout next;
+
+        Timeout(LivenessWheel wheel, Peer peer) {
+            this.wheel = wheel;
+            this.peer = peer;
+        }
+    }
+}
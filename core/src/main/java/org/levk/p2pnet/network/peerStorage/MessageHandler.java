@@ -0,0 +1,20 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Handles one type of message, see {@link MessageRegistry}.
+ */
+public interface MessageHandler {
+    /**
+     * Reads the message's fields straight from body. The buffer is
+     * only valid during the call and may be shared, so anything kept
+     * must be copied out.
+     *
+     * @param body - the message after its type id
+     * @throws IOException if the message is malformed, which closes
+     *      the peer's connection
+     */
+    void handle(Peer peer, ByteBuffer body) throws IOException;
+}
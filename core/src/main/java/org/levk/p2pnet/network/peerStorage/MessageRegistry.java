@@ -0,0 +1,90 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.levk.p2pnet.network.wire.MessageCodec;
+
+/**
+ * Routes typed messages to handlers by type id. Handlers sit in an
+ * array sized up front, so dispatch is one read of the type id and
+ * one array load, with nothing allocated.
+ *
+ * Peers given a registry dispatch on the thread that decodes their
+ * frames, straight from the decode buffer. Only frames flagged as
+ * typed are dispatched. Messages of a type with no handler are
+ * queued for {@link Peer#pollReceived()} without their type id.
+ */
+public final class MessageRegistry {
+    public final static int DEFAULT_CAPACITY = 1024;
+
+    private final AtomicReferenceArray<MessageHandler> handlers;
+
+    public MessageRegistry() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity - type ids run from 0 to capacity - 1
+     */
+    public MessageRegistry(int capacity) {
+        if (capacity < 1 || capacity > MessageCodec.MAX_TYPE + 1) throw new RuntimeException("Invalid message registry capacity.");
+
+        this.handlers = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * @throws RuntimeException if the type is out of range or taken
+     */
+    public void register(int type, MessageHandler handler) {
+        checkType(type);
+        if (handler == null) throw new NullPointerException();
+
+        if (!handlers.compareAndSet(type, null, handler)) throw new RuntimeException("A handler is already registered for message type " + type + ".");
+    }
+
+    public void unregister(int type) {
+        checkType(type);
+        handlers.set(type, null);
+    }
+
+    public MessageHandler get(int type) {
+        return (type >= 0 && type < handlers.length()) ? handlers.get(type) : null;
+    }
+
+    /**
+     * Hands a typed message to its handler. On success the buffer is
+     * consumed, otherwise its position is left unchanged.
+     *
+     * @param message - a message starting with its type id
+     * @return false if the message is too short or has no handler
+     */
+    public boolean dispatch(Peer peer, ByteBuffer message) throws IOException {
+        if (message.remaining() < MessageCodec.TYPE_LENGTH) return false;
+
+        MessageHandler handler = get(message.getShort(message.position()) & 0xFFFF);
+        if (handler == null) return false;
+
+        message.position(message.position() + MessageCodec.TYPE_LENGTH);
+        handler.handle(peer, message);
+        return true;
+    }
+
+    /**
+     * @return the type id of a typed message
+     */
+    public static int typeOf(byte[] message) {
+        if (message.length < MessageCodec.TYPE_LENGTH) throw new RuntimeException("Message is too short to carry a type.");
+
+        return ((message[0] & 0xFF) << 8) | (message[1] & 0xFF);
+    }
+
+    public int capacity() {
+        return handlers.length();
+    }
+
+    private void checkType(int type) {
+        if (type < 0 || type >= handlers.length()) throw new RuntimeException("Message type " + type + " is outside the registry.");
+    }
+}
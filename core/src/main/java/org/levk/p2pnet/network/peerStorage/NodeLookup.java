@@ -0,0 +1,204 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterative Kademlia node lookup over a {@link PeerStorage}.
+ *
+ * The shortlist starts with the closest peers in the local table.
+ * Up to alpha FIND_NODE queries are kept in flight, and each answer
+ * is merged into the shortlist by XOR distance as soon as it
+ * arrives. The lookup ends once every one of the k closest peers
+ * not known to have failed has answered. Queries that time out or
+ * fail drop out of the shortlist, peers that answer are inserted
+ * into the table.
+ */
+public class NodeLookup {
+    public final static int DEFAULT_ALPHA = 3;
+    public final static long DEFAULT_TIMEOUT = 2000;
+
+    /**
+     * Sends FIND_NODE to a remote peer.
+     */
+    public interface Querier {
+        /**
+         * @return the peers the remote node knows closest to target
+         */
+        CompletableFuture<List<Peer>> findNode(Peer peer, byte[] target);
+    }
+
+    private final static int PENDING = 0;
+    private final static int IN_FLIGHT = 1;
+    private final static int ANSWERED = 2;
+    private final static int FAILED = 3;
+
+    private final PeerStorage storage;
+    private final Querier querier;
+    private final int alpha;
+    private final long timeout;
+
+    public NodeLookup(PeerStorage storage, Querier querier) {
+        this(storage, querier, DEFAULT_ALPHA, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param alpha - queries kept in flight at once
+     * @param timeout - milliseconds each query is given to answer
+     */
+    public NodeLookup(PeerStorage storage, Querier querier, int alpha, long timeout) {
+        if (alpha <= 0 || timeout <= 0) throw new RuntimeException("Invalid lookup parameters.");
+
+        this.storage = storage;
+        this.querier = querier;
+        this.alpha = alpha;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return up to k peers closest to target that answered, closest first
+     */
+    public CompletableFuture<List<Peer>> lookup(byte[] target) {
+        if (target.length != storage.getNodeAddress().length) throw new RuntimeException("Lookup target length does not match the node address length.");
+
+        Lookup lookup = new Lookup(target);
+        lookup.start();
+        return lookup.result;
+    }
+
+    private final class Candidate {
+        final Peer peer;
+        int state;
+
+        Candidate(Peer peer) {
+            this.peer = peer;
+        }
+    }
+
+    private final class Lookup {
+        private final byte[] target;
+        private final CompletableFuture<List<Peer>> result;
+        private final int k;
+
+        /* Every peer heard of, closest first */
+        private final List<Candidate> shortlist;
+        private final Set<ByteBuffer> known;
+
+        private int inFlight;
+
+        Lookup(byte[] target) {
+            this.target = target;
+            this.result = new CompletableFuture<>();
+            this.k = storage.getK();
+            this.shortlist = new ArrayList<>();
+            this.known = new HashSet<>();
+        }
+
+        void start() {
+            synchronized (this) {
+                known.add(ByteBuffer.wrap(storage.getNodeAddress()));
+
+                for (Peer p : storage.findClosest(target, k)) {
+                    add(p);
+                }
+            }
+
+            next();
+        }
+
+        /* Merges a peer into the shortlist by distance */
+        private void add(Peer peer) {
+            if (!known.add(ByteBuffer.wrap(peer.getAddress()))) return;
+
+            int lo = 0, hi = shortlist.size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (PeerStorage.compareDistance(shortlist.get(mid).peer.getAddress(), peer.getAddress(), target) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+
+            shortlist.add(lo, new Candidate(peer));
+        }
+
+        /* Sends queries to the closest unqueried peers, or
+         * completes the lookup once there are none left */
+        private void next() {
+            List<Candidate> toQuery = new ArrayList<>();
+            List<Peer> closest = null;
+
+            synchronized (this) {
+                if (result.isDone()) return;
+
+                int considered = 0;
+                for (Candidate c : shortlist) {
+                    if (c.state == FAILED) continue;
+                    if (considered++ >= k || inFlight >= alpha) break;
+
+                    if (c.state == PENDING) {
+                        c.state = IN_FLIGHT;
+                        inFlight++;
+                        toQuery.add(c);
+                    }
+                }
+
+                if (inFlight == 0) {
+                    closest = new ArrayList<>(k);
+                    for (Candidate c : shortlist) {
+                        if (c.state == ANSWERED) closest.add(c.peer);
+                        if (closest.size() == k) break;
+                    }
+                }
+            }
+
+            if (closest != null) {
+                result.complete(closest);
+                return;
+            }
+
+            for (Candidate c : toQuery) {
+                query(c);
+            }
+        }
+
+        private void query(Candidate c) {
+            CompletableFuture<List<Peer>> answer;
+
+            try {
+                answer = querier.findNode(c.peer, target);
+            } catch (RuntimeException e) {
+                answer = new CompletableFuture<>();
+                answer.completeExceptionally(e);
+            }
+
+            answer.orTimeout(timeout, TimeUnit.MILLISECONDS).whenComplete((peers, err) -> {
+                boolean ok = (err == null && peers != null);
+
+                synchronized (this) {
+                    inFlight--;
+                    c.state = ok ? ANSWERED : FAILED;
+
+                    if (ok) {
+                        for (Peer p : peers) {
+                            add(p);
+                        }
+                    }
+                }
+
+                if (ok) {
+                    c.peer.witness();
+                    storage.insert(c.peer);
+                }
+
+                next();
+            });
+        }
+    }
+}
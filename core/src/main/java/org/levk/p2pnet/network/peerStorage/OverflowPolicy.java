@@ -0,0 +1,12 @@
+package org.levk.p2pnet.network.peerStorage;
+
+/**
+ * What a peer does when one of its queues is full.
+ */
+public enum OverflowPolicy {
+    /* Refuse the message, the peer stays connected */
+    DROP,
+
+    /* Refuse the message and ask the transport to close the connection */
+    DISCONNECT
+}
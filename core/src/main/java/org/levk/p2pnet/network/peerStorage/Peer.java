@@ -0,0 +1,1108 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.bouncycastle.crypto.RuntimeCryptoException;
+import org.bouncycastle.util.encoders.Hex;
+import org.levk.CrispyRotaryPhone.CRPENC;
+import org.levk.CrispyRotaryPhone.ENCItem;
+import org.levk.CrispyRotaryPhone.ENCList;
+import org.levk.SchnorrCode.crypto.SchnorrKey;
+import org.levk.p2pnet.metrics.Metrics;
+import org.levk.p2pnet.metrics.PeerCounters;
+import org.levk.p2pnet.network.wire.CompressionPolicy;
+import org.levk.p2pnet.network.wire.Frame;
+import org.levk.p2pnet.network.wire.FrameDecoder;
+import org.levk.p2pnet.network.wire.MessageClass;
+import org.levk.p2pnet.network.wire.MessageCodec;
+import org.levk.p2pnet.network.wire.SeenCache;
+import org.levk.p2pnet.network.wire.StreamDecoder;
+import org.levk.p2pnet.network.wire.StreamEncoder;
+import org.levk.p2pnet.util.BufferPool;
+import org.levk.p2pnet.util.RateCounter;
+
+import static org.levk.p2pnet.util.ByteUtils.*;
+import static org.levk.p2pnet.util.HashUtil.*;
+
+public class Peer {
+    public final static byte[] IPv4inIPv6Prefix = Hex.decode("00000000000000000000FFFF");
+
+    public final static int VERSION_LENGTH = 2;
+    public final static int ADDRESS_LENGTH = 16;
+    public final static int PORT_LENGTH = 2;
+
+    /* The size of the input and output buffers for each peer */
+    public final static int BUFFER_SIZE = 63792;
+
+    /* Hard limits on each of a peer's queues */
+    public final static int QUEUE_CAPACITY = 1024;
+    public final static long QUEUE_BYTES = 4 * 1024 * 1024;
+
+    /* Queued bytes an open stream waits to drain below */
+    public final static long STREAM_WINDOW = 1024 * 1024;
+
+    /* Number of milliseconds to observe the number of 
+     * messages during. Currently an hour. */
+    public final static int RATE_REF = 1 * 60 * 60 * 1000;
+
+    /* Milliseconds without a valid message before a
+     * peer counts as inactive, and then as dead */
+    public final static long INACTIVE_AFTER = 5 * 60 * 1000;
+    public final static long DEAD_AFTER = 30 * 60 * 1000;
+
+    /* When this peer last sent a valid message.
+     * more "active" peers are prioritized. */
+    private volatile long time;
+
+    /* The client version that this peer is running */
+    private byte[] version;
+
+    /* The network address of this node. If IPv4,
+     * it's an IPv4-mapped IPv6 address. Otherwise,
+     * it's a plain IPv6 one */
+    private byte[] address;
+
+    /* The port upon which this node listens for
+     * new connections */
+    private byte[] port;
+
+    /* The pubkey associated with this node */
+    private byte[] pubkey;
+
+    /* The address for putting this node into a bucket */
+    private byte[] bucketAddr;
+
+    /* The signature over the peer data, if this
+     * peer was decoded from a signed record */
+    private byte[] sig;
+
+    /* The unsigned record, encoded on first use */
+    private volatile byte[] encoded;
+
+    /* Whether the signature signing the peer
+     * data is valid AND the InetAddress this
+     * node is connected to matches the 
+     * encoded information. */
+    private boolean valid;
+
+    /* Counts the messages witnessed from this
+     * peer over the last RATE_REF, in one minute slots. */
+    private final RateCounter rate = new RateCounter(RATE_REF, 60);
+
+    /* The input list for this peer */
+    private final PeerQueue<byte[]> received = new PeerQueue<>(QUEUE_CAPACITY, QUEUE_BYTES, m -> m.length);
+
+    /* The output buffer for this peer. Frames may be
+     * shared with other peers, each releases its own
+     * reference once written. */
+    private final PeerQueue<Frame> toSend = new PeerQueue<>(QUEUE_CAPACITY, QUEUE_BYTES, Frame::length);
+
+    /* Serializes sends against an open stream, whose
+     * chunks must reach the wire back to back. Sends
+     * with no stream open skip the lock, counting
+     * themselves in sending so a stream being opened
+     * can wait them out. */
+    private final Object sendLock = new Object();
+    private volatile boolean streaming;
+    private final AtomicInteger sending = new AtomicInteger();
+
+    /* Frames sent while a stream is open, and their
+     * bytes. Guarded by sendLock. */
+    private final ArrayDeque<Frame> held = new ArrayDeque<>();
+    private long heldBytes;
+
+    /* The thread writing a stream while it waits for
+     * the send queue to drain below STREAM_WINDOW */
+    private volatile Thread streamWriter;
+
+    /* Streams waiting for the next streamed frame, the
+     * one receiving now, and the chunk header and mode
+     * byte of a frame not yet routed to either decoder.
+     * Guarded by the decoder. */
+    private final ArrayDeque<InboundStream> expected = new ArrayDeque<>();
+    private InboundStream inbound;
+    private final ByteBuffer lead = ByteBuffer.allocate(2);
+
+    /* Backpressure handling for both queues */
+    private volatile QueueListener queueListener;
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+
+    /* Asks the transport to close this peer's connection */
+    private volatile Runnable disconnectListener;
+
+    /* Traffic through this peer's queues and connection */
+    private final PeerCounters counters = new PeerCounters();
+
+    /* This peer's entry in a LivenessWheel, written under the wheel's lock */
+    volatile LivenessWheel.Timeout timeout;
+
+    /* Reassembles frames from incoming bytes */
+    private final FrameDecoder decoder = new FrameDecoder();
+
+    /* Drops frames already received from another
+     * peer, shared by every peer in a PeerStorage */
+    private volatile SeenCache seen;
+
+    /* Handles typed messages instead of queueing them */
+    private volatile MessageRegistry registry;
+
+    /* Decides how outgoing messages are compressed */
+    private volatile CompressionPolicy compression = CompressionPolicy.DEFAULT;
+
+    /* Notified whenever a message is queued for
+     * sending, so the transport can flush it. */
+    private volatile Runnable sendListener;
+
+    /* Notified when a ReceivePipeline queues messages */
+    private volatile Runnable receiveListener;
+
+    /* This peer's lane through a ReceivePipeline, if
+     * received bytes are handed off to one */
+    volatile ReceivePipeline.Lane lane;
+
+    /* Queues frames decoded on the caller's thread */
+    private final FrameSink direct = this::deliver;
+
+    public Peer(byte[] encoded, byte[] ip) {
+        parse(encoded, ip);
+    }
+
+    private Peer() { }
+
+    /* Decodes a signed peer record without checking
+     * its signature. See PeerVerifier. */
+    static Peer decode(byte[] encoded) {
+        Peer peer = new Peer();
+        peer.decodeFields(encoded);
+        return peer;
+    }
+
+    public Peer(byte[] version, byte[] address, byte[] port, byte[] privkey) {
+        /* If input is IPv4 address, convert to IPv6 mapping */
+        if (address.length == 4) address = merge(IPv4inIPv6Prefix, address);
+
+        if (!checkLengths(version, address, port, privkey)) throw new RuntimeException("Invalid input lengths.");
+
+        this.version = version;
+        this.address = address;
+        this.port = port;
+        
+        SchnorrKey key = new SchnorrKey(privkey);
+        
+        this.pubkey = key.getPubkey();
+        this.bucketAddr = blake2omit12(pubkey);
+    }
+
+    public byte[] getEncoded() {
+        byte[] out = encoded;
+        if (out == null) encoded = out = CRPENC.encode(version, address, port, pubkey);
+        return out;
+    }
+
+    public boolean checkLengths(byte[] version, byte[] address, byte[] port, byte[] privkey) {
+        if (version.length != VERSION_LENGTH) return false;
+        if (address.length != ADDRESS_LENGTH) return false;
+        if (port.length != PORT_LENGTH) return false;
+        if (privkey.length != PRIVKEY_LENGTH) return false;
+
+        return true;
+    }
+
+    public synchronized void parse(byte[] encoded, byte[] ip) {
+        try {
+            decodeFields(encoded);
+
+            valid = PeerVerifier.getDefault().check(this);
+
+            if (valid == false) throw new RuntimeException("The signature on the peer is invalid.");
+        } catch (Exception e) {
+            Metrics.get().invalidPeer();
+            e.printStackTrace();
+        }
+    }
+
+    private void decodeFields(byte[] encoded) {
+        ENCList decPeer = CRPENC.decode(encoded);
+
+        if (decPeer.size() != 5) throw new RuntimeException("A serialized peer item should have 5 elements.");
+
+        for (ENCItem e : decPeer) {
+            if (e.isList()) throw new RuntimeCryptoException("Serialized peer elements should not be lists.");
+        }
+
+        if (!checkSer(decPeer)) throw new RuntimeException("Serialized elements are of an incorrect length.");
+
+        this.version = decPeer.get(0).getEncData();
+        this.address = decPeer.get(1).getEncData();
+        this.port = decPeer.get(2).getEncData();
+        this.pubkey = decPeer.get(3).getEncData();
+        this.sig = decPeer.get(4).getEncData();
+
+        this.bucketAddr = blake2omit12(pubkey);
+        this.encoded = null;
+    }
+
+    /* Reads a fixed width record, as written by
+     * writeRecord, without checking its signature */
+    static Peer readRecord(ByteBuffer src) {
+        Peer peer = new Peer();
+
+        peer.version = new byte[VERSION_LENGTH];
+        peer.address = new byte[ADDRESS_LENGTH];
+        peer.port = new byte[PORT_LENGTH];
+        peer.pubkey = new byte[PUBKEY_LENGTH];
+        peer.sig = new byte[SIG_LENGTH];
+
+        src.get(peer.version).get(peer.address).get(peer.port).get(peer.pubkey).get(peer.sig);
+
+        peer.bucketAddr = blake2omit12(peer.pubkey);
+        return peer;
+    }
+
+    /* Writes the signed record at a fixed width,
+     * see PeerExchange. Only for signed peers. */
+    void writeRecord(byte[] dst, int off) {
+        System.arraycopy(version, 0, dst, off, VERSION_LENGTH);
+        off += VERSION_LENGTH;
+        System.arraycopy(address, 0, dst, off, ADDRESS_LENGTH);
+        off += ADDRESS_LENGTH;
+        System.arraycopy(port, 0, dst, off, PORT_LENGTH);
+        off += PORT_LENGTH;
+        System.arraycopy(pubkey, 0, dst, off, PUBKEY_LENGTH);
+        off += PUBKEY_LENGTH;
+        System.arraycopy(sig, 0, dst, off, SIG_LENGTH);
+    }
+
+    /* Identifies the signed record however it was
+     * encoded, see PeerVerifier */
+    byte[] recordKey() {
+        byte[] key = new byte[HASH_LENGTH];
+        blake2(key, 0, version, address, port, pubkey, sig);
+        return key;
+    }
+
+    /* Checks the signature over the decoded fields.
+     * This is the expensive part of parsing a peer. */
+    boolean verifySignature() {
+        byte[] hash = new byte[HASH_LENGTH];
+        blake2(hash, 0, version, address, port, pubkey);
+
+        long start = System.nanoTime();
+        boolean ok = SchnorrKey.verify(sig, pubkey, hash);
+        Metrics.get().getVerifyNanos().record(System.nanoTime() - start);
+
+        return ok;
+    }
+
+    void setValid(boolean valid) {
+        this.valid = valid;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public boolean checkSer(ENCList decPeer) {
+        if (decPeer.get(0).getEncData().length != VERSION_LENGTH) return false;
+        if (decPeer.get(1).getEncData().length != ADDRESS_LENGTH) return false;
+        if (decPeer.get(2).getEncData().length != PORT_LENGTH) return false;
+        if (decPeer.get(3).getEncData().length != PUBKEY_LENGTH) return false;
+        if (decPeer.get(4).getEncData().length != SIG_LENGTH) return false;
+
+        return true;
+    }
+
+    public byte[] getVersion() {
+        return version;
+    }
+
+    public boolean isIPv4() {
+        return isIPv4(address);
+    }
+
+    /* Whether a 16 byte address is IPv4-mapped */
+    public static boolean isIPv4(byte[] address) {
+        if (address.length != ADDRESS_LENGTH) return false;
+
+        for (int i = 0; i < IPv4inIPv6Prefix.length; i++) {
+            if (address[i] != IPv4inIPv6Prefix[i]) return false;
+        }
+
+        return true;
+    }
+
+    public byte[] getIP() {
+        if (isIPv4()) {
+            return Arrays.copyOfRange(address, 12, address.length);
+        } else {
+            return address;
+        }
+    }
+
+    /* The full 16 byte address, IPv4 addresses mapped */
+    byte[] getNetworkAddress() {
+        return address;
+    }
+
+    byte[] getSig() {
+        return sig;
+    }
+
+    public byte[] getPort() {
+        return port;
+    }
+
+    public byte[] getPubkey() {
+        return pubkey;
+    }
+
+    public byte[] getAddress() {
+        return bucketAddr;
+    }
+
+    /* Only records the time. A LivenessWheel picks the
+     * new deadline up when the old one comes due, unless
+     * the peer had already gone inactive. */
+    public void witness() {
+        long now = System.currentTimeMillis();
+        this.time = now;
+        this.rate.increment(now);
+        reactivate();
+    }
+
+    public int getRate() {
+        /* Return messages per RATE_REF */
+        return rate.count(System.currentTimeMillis());
+    }
+
+    public boolean isSpammy() {
+        /* If over 1000 messages per minute */
+        return (this.getRate() > RATE_REF / 60);
+    }
+
+    public boolean isInactive() {
+        /* If the peer hasn't been seen in 5 minutes */
+        return ((System.currentTimeMillis() - time) > INACTIVE_AFTER);
+    }
+
+    public boolean isDead() {
+        /* If the peer hasn't been seen in 30 minutes */
+        return ((System.currentTimeMillis() - time) > DEAD_AFTER);
+    }
+
+    public long getLastSeen() {
+        return time;
+    }
+
+    /* Restores the last seen time of a stored peer */
+    void setLastSeen(long time) {
+        this.time = time;
+        reactivate();
+    }
+
+    private void reactivate() {
+        LivenessWheel.Timeout t = timeout;
+        if (t != null && t.inactive) t.wheel.reactivate(this);
+    }
+
+    /* Throws if the send queue is full */
+    public void send(byte[] message) throws IOException {
+        if (!trySend(message)) throw new IOException("The send queue for this peer is full.");
+    }
+
+    /* Returns false if the send queue is full */
+    public boolean trySend(byte[] message) throws IOException {
+        return trySend(message, MessageClass.NORMAL);
+    }
+
+    /* As above, weighted by class against other
+     * peers' traffic when the transport sends */
+    public boolean trySend(byte[] message, MessageClass messageClass) throws IOException {
+        return trySend(MessageCodec.UNTYPED, message, messageClass);
+    }
+
+    /* Sends a message with a type id in front,
+     * for the receiver's MessageRegistry */
+    public boolean trySend(int type, byte[] message, MessageClass messageClass) throws IOException {
+        BufferPool pool = BufferPool.getDefault();
+        Frame frame = Frame.ofPayload(MessageCodec.encodePayload(type, message, compression, pool, null), pool, messageClass);
+
+        try {
+            return send(frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /* Queues an already encoded frame. The peer takes
+     * its own reference, so the same frame can be
+     * handed to many peers. Returns false if the send
+     * queue is full. */
+    public boolean send(Frame frame) {
+        frame.retain();
+
+        if (!enqueue(frame)) {
+            frame.release();
+            counters.increment(PeerCounters.DROPPED_OUT);
+            overflow(true);
+            return false;
+        }
+
+        counters.increment(PeerCounters.MESSAGES_OUT);
+
+        QueueListener queues = queueListener;
+        if (queues != null && toSend.crossedHigh()) queues.highWater(this, true, toSend.size());
+
+        Runnable listener = sendListener;
+        if (listener != null) listener.run();
+
+        return true;
+    }
+
+    private boolean enqueue(Frame frame) {
+        if (!streaming) {
+            sending.incrementAndGet();
+            try {
+                /* Checked again once counted, see openStream */
+                if (!streaming) return toSend.offer(frame);
+            } finally {
+                if (sending.decrementAndGet() == 0 && streaming) {
+                    synchronized (sendLock) {
+                        sendLock.notifyAll();
+                    }
+                }
+            }
+        }
+
+        synchronized (sendLock) {
+            if (!streaming) return toSend.offer(frame);
+
+            /* Held frames count against the same limits as the queue */
+            if (held.size() >= QUEUE_CAPACITY || heldBytes + frame.length() > QUEUE_BYTES) return false;
+
+            held.add(frame);
+            heldBytes += frame.length();
+            return true;
+        }
+    }
+
+    public byte[] grabForSend() {
+        Frame frame = pollForSend();
+        if (frame == null) throw new NoSuchElementException();
+
+        byte[] out = new byte[frame.length()];
+        frame.copyTo(ByteBuffer.wrap(out));
+
+        frame.release();
+        return out;
+    }
+
+    /* Returns null rather than throwing when
+     * there is nothing left to send. The caller
+     * releases the frame once written. */
+    public Frame pollForSend() {
+        Frame frame = toSend.poll();
+
+        QueueListener queues = queueListener;
+        if (frame != null && queues != null && toSend.crossedLow()) queues.lowWater(this, true, toSend.size());
+
+        Thread writer = streamWriter;
+        if (writer != null && toSend.bytes() < STREAM_WINDOW) LockSupport.unpark(writer);
+
+        return frame;
+    }
+
+    /* Releases every frame still waiting to be sent,
+     * for a transport closing the connection. They
+     * count as dropped. Returns how many there were. */
+    public int discardSendQueue() {
+        int count = 0;
+        Frame frame;
+
+        while ((frame = toSend.poll()) != null) {
+            frame.release();
+            count++;
+        }
+
+        synchronized (sendLock) {
+            while ((frame = held.poll()) != null) {
+                frame.release();
+                count++;
+            }
+            heldBytes = 0;
+        }
+
+        Thread writer = streamWriter;
+        if (writer != null) LockSupport.unpark(writer);
+
+        counters.add(PeerCounters.DROPPED_OUT, count);
+        return count;
+    }
+
+    public int getSendQueueDepth() {
+        return toSend.size();
+    }
+
+    public long getSendQueueBytes() {
+        return toSend.bytes();
+    }
+
+    public int getReceiveQueueDepth() {
+        return received.size();
+    }
+
+    public long getReceiveQueueBytes() {
+        return received.bytes();
+    }
+
+    public PeerCounters getCounters() {
+        return counters;
+    }
+
+    public void setQueueListener(QueueListener listener) {
+        this.queueListener = listener;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy policy) {
+        this.overflowPolicy = policy;
+    }
+
+    public void setDisconnectListener(Runnable listener) {
+        this.disconnectListener = listener;
+    }
+
+    /* Asks the transport to close the connection */
+    void disconnect() {
+        Runnable listener = disconnectListener;
+        if (listener != null) listener.run();
+    }
+
+    private void overflow(boolean outbound) {
+        QueueListener queues = queueListener;
+        if (queues != null) queues.overflow(this, outbound);
+
+        if (outbound && overflowPolicy == OverflowPolicy.DISCONNECT) {
+            Runnable listener = disconnectListener;
+            if (listener != null) listener.run();
+        }
+    }
+
+    public void setCompressionPolicy(CompressionPolicy compression) {
+        this.compression = compression;
+    }
+
+    /* Typed messages with a handler in the registry
+     * are dispatched as they are decoded */
+    public void setMessageRegistry(MessageRegistry registry) {
+        this.registry = registry;
+    }
+
+    MessageRegistry getMessageRegistry() {
+        return registry;
+    }
+
+    public void setSeenCache(SeenCache seen) {
+        this.seen = seen;
+    }
+
+    public void setSendListener(Runnable listener) {
+        this.sendListener = listener;
+    }
+
+    /* Called from a pipeline worker once messages
+     * received through a ReceivePipeline are queued */
+    public void setReceiveListener(Runnable listener) {
+        this.receiveListener = listener;
+    }
+
+    /* Hands received bytes to the pipeline from now on,
+     * or decodes them on the caller's thread if null */
+    public void setReceivePipeline(ReceivePipeline pipeline) {
+        this.lane = (pipeline != null) ? pipeline.lane(this) : null;
+    }
+
+    Runnable getReceiveListener() {
+        return receiveListener;
+    }
+
+    SeenCache getSeenCache() {
+        return seen;
+    }
+
+    public void receive(byte[] message) throws IOException {
+        receive(ByteBuffer.wrap(message));
+    }
+
+    /* Accepts bytes as they arrive, frames may be
+     * split across calls. Returns the number of
+     * messages queued. Relayed frames already in the
+     * seen cache are dropped before decompression. Messages that don't fit
+     * into the receive queue are dropped, or fail
+     * the call under the DISCONNECT policy.
+     *
+     * With a ReceivePipeline the bytes are copied off
+     * and 0 is returned, the receive listener hears
+     * about messages once they are queued. */
+    public int receive(ByteBuffer in) throws IOException {
+        ReceivePipeline.Lane l = lane;
+
+        if (l != null) {
+            counters.add(PeerCounters.BYTES_IN, in.remaining());
+            l.submit(in);
+            return 0;
+        }
+
+        counters.add(PeerCounters.BYTES_IN, in.remaining());
+        return deframe(in, direct);
+    }
+
+    /* Takes each frame payload reassembled by deframe,
+     * the buffer is only valid during the call */
+    interface FrameSink {
+        /* Returns the number of messages queued */
+        int frame(ByteBuffer payload) throws IOException;
+    }
+
+    /* Reassembles frames from in and passes each to
+     * sink, feeding inbound streams along the way */
+    int deframe(ByteBuffer in, FrameSink sink) throws IOException {
+        synchronized (decoder) {
+            return deframeLocked(in, sink);
+        }
+    }
+
+    private int deframeLocked(ByteBuffer in, FrameSink sink) throws IOException {
+        int count = 0;
+        ByteBuffer frame;
+
+        Metrics metrics = Metrics.get();
+
+        try {
+            while (in.hasRemaining()) {
+                ByteBuffer from = in;
+
+                /* Streams start on a frame boundary, with STREAM
+                 * in the mode byte after the first chunk header */
+                if (inbound == null && !decoder.isPartial() && !expected.isEmpty()) {
+                    while (lead.hasRemaining() && in.hasRemaining()) lead.put(in.get());
+                    if (lead.hasRemaining()) break;
+
+                    lead.flip();
+                    if ((lead.get(1) & MessageCodec.STREAM) != 0) inbound = expected.poll();
+                    from = lead;
+                }
+
+                try {
+                    if (inbound != null) {
+                        receiveStream(from);
+                        continue;
+                    }
+
+                    long start = System.nanoTime();
+                    if ((frame = decoder.decode(from)) == null) continue;
+
+                    metrics.getFrameDecodeNanos().record(System.nanoTime() - start);
+                    counters.increment(PeerCounters.FRAMES_IN);
+
+                    count += sink.frame(frame);
+                } finally {
+                    if (from == lead) lead.clear();
+                }
+            }
+        } finally {
+            /* Idle peers hold no reassembly buffer */
+            decoder.release();
+        }
+
+        return count;
+    }
+
+    private int deliver(ByteBuffer frame) throws IOException {
+        SeenCache dedup = seen;
+
+        if (dedup != null && MessageCodec.isRelayed(frame) && !dedup.add(frame)) {
+            counters.increment(PeerCounters.DUPLICATES_IN);
+            return 0;
+        }
+
+        BufferPool pool = BufferPool.getDefault();
+        boolean typed = MessageCodec.isTyped(frame);
+        ByteBuffer body = MessageCodec.decodeBody(frame, pool, FrameDecoder.DEFAULT_MAX_LENGTH);
+
+        try {
+            return offerReceived(body, typed) ? 1 : 0;
+        } finally {
+            if (body != frame) pool.release(body);
+        }
+    }
+
+    /* Dispatches a typed message if the registry has
+     * a handler for it, otherwise copies the message
+     * out, without any type id, and queues it.
+     * Returns whether it was queued. */
+    boolean offerReceived(ByteBuffer body, boolean typed) throws IOException {
+        if (typed) {
+            if (body.remaining() < MessageCodec.TYPE_LENGTH) throw new IOException("Typed message is too short for its type id.");
+
+            MessageRegistry handlers = registry;
+            if (handlers != null && handlers.dispatch(this, body)) {
+                counters.increment(PeerCounters.MESSAGES_IN);
+                return false;
+            }
+
+            body.position(body.position() + MessageCodec.TYPE_LENGTH);
+        }
+
+        byte[] message = new byte[body.remaining()];
+        body.get(message);
+        return offerReceived(message);
+    }
+
+    /* Queues a decoded message for pollReceived.
+     * Returns false if it was dropped, throws
+     * under the DISCONNECT policy instead. */
+    boolean offerReceived(byte[] message) throws IOException {
+        if (!received.offer(message)) {
+            counters.increment(PeerCounters.DROPPED_IN);
+            overflow(false);
+            if (overflowPolicy == OverflowPolicy.DISCONNECT) throw new IOException("The receive queue for this peer is full.");
+            return false;
+        }
+
+        QueueListener queues = queueListener;
+        if (queues != null && received.crossedHigh()) queues.highWater(this, false, received.size());
+
+        counters.increment(PeerCounters.MESSAGES_IN);
+        return true;
+    }
+
+    /* Feeds the current inbound stream until its frame ends */
+    private void receiveStream(ByteBuffer in) throws IOException {
+        InboundStream stream = inbound;
+
+        try {
+            if (!stream.decoder.decode(in)) return;
+        } catch (IOException | RuntimeException e) {
+            inbound = null;
+            stream.fail(e);
+            throw e;
+        }
+
+        inbound = null;
+        counters.increment(PeerCounters.FRAMES_IN);
+        counters.increment(PeerCounters.MESSAGES_IN);
+        stream.finish();
+    }
+
+    /**
+     * Same as {@link #receiveStream(WritableByteChannel, Executor)},
+     * writing to sink from the common pool.
+     */
+    public CompletableFuture<Long> receiveStream(WritableByteChannel sink) {
+        return receiveStream(sink, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Has the next streamed message, one sent through
+     * {@link #openStream(boolean)}, written to sink as it arrives
+     * instead of being queued. Other messages are queued as usual
+     * meanwhile. Calls queue up, each takes the next streamed
+     * message after the one before it.
+     *
+     * Writes to sink run on executor, never on the thread receiving,
+     * so a slow sink does not hold up the connection. Up to
+     * QUEUE_BYTES may wait for it, past that the connection fails.
+     *
+     * @return completes with the message length once it has all
+     *      been written, or exceptionally if the connection or the
+     *      sink fails part way
+     */
+    public CompletableFuture<Long> receiveStream(WritableByteChannel sink, Executor executor) {
+        InboundStream stream = new InboundStream(sink, executor);
+
+        synchronized (decoder) {
+            expected.add(stream);
+        }
+
+        return stream.result;
+    }
+
+    /**
+     * Starts a message that is written piece by piece. Chunks are
+     * queued as they fill, and writes block while the send queue
+     * holds more than STREAM_WINDOW bytes, so memory stays bounded
+     * however long the message. Other messages sent meanwhile are
+     * held back until the stream is closed, within the same limits
+     * as the send queue. Writes block, so they must not come from
+     * a transport thread.
+     *
+     * @param compress - whether to compress in framed Snappy blocks
+     * @throws IOException if a stream is already open
+     */
+    public WritableByteChannel openStream(boolean compress) throws IOException {
+        synchronized (sendLock) {
+            if (streaming) throw new IOException("A stream is already open to this peer.");
+            streaming = true;
+        }
+
+        try {
+            awaitSenders();
+            return new OutboundStream(compress);
+        } catch (IOException | RuntimeException e) {
+            endStream();
+            throw e;
+        }
+    }
+
+    /* Sends that missed the streaming flag land before
+     * the first chunk, the last one out wakes us */
+    private void awaitSenders() throws IOException {
+        synchronized (sendLock) {
+            try {
+                while (sending.get() != 0) sendLock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while opening a stream to a peer.");
+            }
+        }
+    }
+
+    /* Lets held messages through once a stream ends */
+    private void endStream() {
+        synchronized (sendLock) {
+            Frame frame;
+            heldBytes = 0;
+            while ((frame = held.poll()) != null) {
+                if (!toSend.offer(frame)) {
+                    frame.release();
+                    counters.increment(PeerCounters.DROPPED_OUT);
+                    overflow(true);
+                }
+            }
+
+            /* Only once held frames are queued, so later sends follow them */
+            streaming = false;
+        }
+
+        Runnable listener = sendListener;
+        if (listener != null) listener.run();
+    }
+
+    private final class OutboundStream implements WritableByteChannel {
+        private final StreamEncoder encoder;
+
+        OutboundStream(boolean compress) throws IOException {
+            BufferPool pool = BufferPool.getDefault();
+            this.encoder = new StreamEncoder(compress, pool, segment -> queueSegment(Frame.wrap(segment, pool, MessageClass.BULK)));
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return encoder.write(src);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return encoder.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!encoder.isOpen()) return;
+
+            try {
+                encoder.close();
+                counters.increment(PeerCounters.MESSAGES_OUT);
+            } catch (IOException | RuntimeException e) {
+                encoder.abort();
+                throw e;
+            } finally {
+                endStream();
+            }
+        }
+    }
+
+    /* Waits for room under the stream window, then queues
+     * one segment of the open stream. pollForSend wakes
+     * the writer once the queue drains below the window. */
+    private void queueSegment(Frame segment) throws IOException {
+        streamWriter = Thread.currentThread();
+
+        try {
+            while (true) {
+                if (toSend.bytes() < STREAM_WINDOW) {
+                    synchronized (sendLock) {
+                        if (toSend.offer(segment)) break;
+                    }
+                }
+
+                if (Thread.interrupted()) throw new InterruptedIOException("Interrupted while streaming to a peer.");
+                LockSupport.park(this);
+            }
+        } catch (IOException e) {
+            segment.release();
+            throw e;
+        } finally {
+            streamWriter = null;
+        }
+
+        Runnable listener = sendListener;
+        if (listener != null) listener.run();
+    }
+
+    /* Copies what the decoder delivers into pooled blocks,
+     * written out to the sink in order on the executor */
+    private final static class InboundStream implements WritableByteChannel {
+        private final static int BLOCK_SIZE = 64 * 1024;
+
+        final StreamDecoder decoder = new StreamDecoder(this);
+        final CompletableFuture<Long> result = new CompletableFuture<>();
+
+        private final WritableByteChannel sink;
+        private final Executor executor;
+        private final BufferPool pool = BufferPool.getDefault();
+
+        /* Blocks waiting to be written, the last one still
+         * filling, and their total bytes. Guarded by this. */
+        private final ArrayDeque<ByteBuffer> blocks = new ArrayDeque<>();
+        private long pending;
+        private boolean writing;
+        private boolean finished;
+        private Throwable failure;
+
+        InboundStream(WritableByteChannel sink, Executor executor) {
+            this.sink = sink;
+            this.executor = executor;
+        }
+
+        /* Called by the decoder on the receiving thread */
+        @Override
+        public synchronized int write(ByteBuffer src) throws IOException {
+            if (failure != null) throw new IOException("Writing a streamed message failed.", failure);
+
+            int n = src.remaining();
+            if (pending + n > QUEUE_BYTES) throw new IOException("The sink for a streamed message is falling behind.");
+
+            while (src.hasRemaining()) {
+                ByteBuffer block = blocks.peekLast();
+                if (block == null || !block.hasRemaining()) blocks.add(block = pool.acquire(BLOCK_SIZE));
+
+                int limit = src.limit();
+                src.limit(src.position() + Math.min(src.remaining(), block.remaining()));
+                block.put(src);
+                src.limit(limit);
+            }
+
+            pending += n;
+            schedule();
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() { }
+
+        /* Completes the result once every block is written */
+        synchronized void finish() {
+            finished = true;
+            schedule();
+        }
+
+        synchronized void fail(Throwable e) {
+            if (failure != null) return;
+
+            failure = e;
+            clear();
+            result.completeExceptionally(e);
+        }
+
+        private void schedule() {
+            if (writing) return;
+
+            writing = true;
+            executor.execute(this::drain);
+        }
+
+        private void drain() {
+            while (true) {
+                ByteBuffer block;
+
+                synchronized (this) {
+                    block = blocks.poll();
+
+                    if (failure != null || block == null) {
+                        if (block != null) pool.release(block);
+                        writing = false;
+                        if (failure == null && finished) result.complete(decoder.getDelivered());
+                        return;
+                    }
+                }
+
+                block.flip();
+                int n = block.remaining();
+
+                try {
+                    while (block.hasRemaining()) {
+                        sink.write(block);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    fail(e);
+                } finally {
+                    pool.release(block);
+                }
+
+                synchronized (this) {
+                    pending -= n;
+                }
+            }
+        }
+
+        /* Drops unwritten blocks after a failure */
+        private void clear() {
+            ByteBuffer block;
+            while ((block = blocks.poll()) != null) {
+                pool.release(block);
+            }
+            pending = 0;
+        }
+    }
+
+    public byte[] grabReceived() {
+        byte[] message = pollReceived();
+        if (message == null) throw new NoSuchElementException();
+
+        return message;
+    }
+
+    public byte[] pollReceived() {
+        byte[] message = received.poll();
+
+        QueueListener queues = queueListener;
+        if (message != null && queues != null && received.crossedLow()) queues.lowWater(this, false, received.size());
+
+        return message;
+    }
+
+    /* The signed record this peer was decoded from,
+     * as accepted by parse */
+    public byte[] toStore() {
+        if (sig == null) throw new RuntimeException("Only peers decoded from a signed record can be stored.");
+
+        return CRPENC.encode(version, address, port, pubkey, sig);
+    }
+}
\ No newline at end of file
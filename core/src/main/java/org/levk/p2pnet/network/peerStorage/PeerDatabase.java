@@ -0,0 +1,489 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.levk.p2pnet.util.HashUtil.*;
+
+/**
+ * On-disk peer store made of two memory-mapped files.
+ *
+ * peers.log is append-only. Each entry is the record length, the
+ * blake2 hash of the record and the signed record itself, exactly
+ * as {@link Peer#toStore()} produced it. Only verified peers are
+ * written, so on load the hash is checked instead of the signature.
+ *
+ * peers.meta holds one fixed-width slot per log entry with the
+ * entry's offset, the peer's last seen time, a live flag and its
+ * bucket address, so liveness updates are in-place writes and the
+ * index can be rebuilt without reading the log.
+ *
+ * Replaced and removed entries stay in the log until {@link #compact()}.
+ * Both headers carry the number of compactions so far, and files from
+ * different compactions are never read together. An interrupted
+ * compaction is finished on the next open, anything else is rejected.
+ */
+public class PeerDatabase implements Closeable {
+    private final static long LOG_MAGIC = 0x5032504C4F473031L;
+    private final static long META_MAGIC = 0x5032504D45543031L;
+    private final static int HEADER_SIZE = 16;
+
+    /* Header fields after the magic */
+    private final static int LOG_GENERATION = 8;
+    private final static int META_COUNT = 8;
+    private final static int META_GENERATION = 12;
+
+    /* Slot layout in peers.meta */
+    private final static int SLOT_OFFSET = 0;
+    private final static int SLOT_SEEN = 8;
+    private final static int SLOT_FLAGS = 16;
+    private final static int SLOT_ADDRESS = 20;
+    private final static int ADDRESS_LENGTH = HASH_LENGTH - OMIT_LENGTH;
+    private final static int SLOT_SIZE = SLOT_ADDRESS + ADDRESS_LENGTH;
+
+    private final static int FLAG_LIVE = 1;
+
+    private final static int ENTRY_HEADER = Integer.BYTES + HASH_LENGTH;
+    private final static int INITIAL_SIZE = 1 << 20;
+
+    private final Path logPath;
+    private final Path metaPath;
+
+    private FileChannel logChannel;
+    private FileChannel metaChannel;
+    private MappedByteBuffer log;
+    private MappedByteBuffer meta;
+
+    /* Compactions so far, in both headers */
+    private int generation;
+
+    /* End of the last entry in the log */
+    private long logEnd;
+    private int slotCount;
+    private int liveCount;
+
+    /* Bucket address -> slot of its live entry */
+    private final Map<ByteBuffer, Integer> index;
+
+    private final byte[] hash = new byte[HASH_LENGTH];
+
+    public PeerDatabase(Path dir) throws IOException {
+        Files.createDirectories(dir);
+
+        this.logPath = dir.resolve("peers.log");
+        this.metaPath = dir.resolve("peers.meta");
+        this.index = new HashMap<>();
+
+        open();
+    }
+
+    /**
+     * Stores a verified peer, or refreshes its last seen time if the
+     * same record is already stored. A changed record replaces the
+     * old entry.
+     */
+    public synchronized void put(Peer peer) throws IOException {
+        if (!peer.isValid()) throw new RuntimeException("Only verified peers can be stored.");
+
+        byte[] record = peer.toStore();
+        blake2(hash, 0, record);
+
+        ByteBuffer key = ByteBuffer.wrap(peer.getAddress().clone());
+        Integer slot = index.get(key);
+
+        if (slot != null) {
+            if (storedHashEquals(slot, hash)) {
+                meta.putLong(slotPosition(slot) + SLOT_SEEN, peer.getLastSeen());
+                return;
+            }
+
+            kill(slot);
+        }
+
+        long offset = logEnd;
+        ensureLog(offset + ENTRY_HEADER + record.length);
+
+        log.position((int)offset);
+        log.putInt(record.length);
+        log.put(hash);
+        log.put(record);
+        logEnd = log.position();
+
+        ensureMeta(slotPosition(slotCount + 1));
+
+        int pos = slotPosition(slotCount);
+        meta.putLong(pos + SLOT_OFFSET, offset);
+        meta.putLong(pos + SLOT_SEEN, peer.getLastSeen());
+        meta.putInt(pos + SLOT_FLAGS, FLAG_LIVE);
+        meta.position(pos + SLOT_ADDRESS);
+        meta.put(peer.getAddress());
+
+        /* Publish the slot only once it is complete */
+        index.put(key, slotCount);
+        slotCount++;
+        liveCount++;
+        meta.putInt(META_COUNT, slotCount);
+    }
+
+    /**
+     * Records the peer's current last seen time, if it is stored.
+     */
+    public synchronized void touch(Peer peer) {
+        Integer slot = index.get(ByteBuffer.wrap(peer.getAddress()));
+        if (slot != null) meta.putLong(slotPosition(slot) + SLOT_SEEN, peer.getLastSeen());
+    }
+
+    /**
+     * @return whether a live entry was removed
+     */
+    public synchronized boolean remove(byte[] address) {
+        Integer slot = index.remove(ByteBuffer.wrap(address));
+        if (slot == null) return false;
+
+        kill(slot);
+        return true;
+    }
+
+    /**
+     * Inserts every stored peer into storage, least recently seen
+     * first. Signatures are not checked again, entries whose hash
+     * doesn't match are skipped.
+     *
+     * @return number of peers loaded
+     */
+    public synchronized int load(PeerStorage storage) {
+        List<long[]> live = new ArrayList<>(liveCount);
+
+        for (int slot : index.values()) {
+            int pos = slotPosition(slot);
+            live.add(new long[] { meta.getLong(pos + SLOT_SEEN), meta.getLong(pos + SLOT_OFFSET) });
+        }
+
+        live.sort((a, b) -> Long.compare(a[0], b[0]));
+
+        int loaded = 0;
+        for (long[] entry : live) {
+            byte[] record = readRecord(entry[1]);
+            if (record == null) continue;
+
+            Peer peer;
+            try {
+                peer = Peer.decode(record);
+            } catch (RuntimeException e) {
+                continue;
+            }
+
+            peer.setValid(true);
+            peer.setLastSeen(entry[0]);
+
+            if (storage.insert(peer)) loaded++;
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Fills a flat peer table from the log without building a
+     * Peer per record. Records whose hash no longer matches are
+     * skipped.
+     *
+     * @return number of peers loaded
+     */
+    public synchronized int load(PeerTable table) {
+        int loaded = 0;
+
+        for (int slot : index.values()) {
+            int pos = slotPosition(slot);
+            byte[] record = readRecord(meta.getLong(pos + SLOT_OFFSET));
+            if (record == null) continue;
+
+            try {
+                table.put(record, meta.getLong(pos + SLOT_SEEN));
+                loaded++;
+            } catch (RuntimeException e) {
+                /* Malformed record, left for compaction */
+            }
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Rewrites both files with only the live entries.
+     */
+    public synchronized void compact() throws IOException {
+        Path logTmp = logPath.resolveSibling(logPath.getFileName() + ".tmp");
+        Path metaTmp = metaPath.resolveSibling(metaPath.getFileName() + ".tmp");
+
+        long logSize = HEADER_SIZE;
+        for (int slot : index.values()) {
+            logSize += ENTRY_HEADER + log.getInt((int)meta.getLong(slotPosition(slot) + SLOT_OFFSET));
+        }
+
+        try (FileChannel newLogChannel = FileChannel.open(logTmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileChannel newMetaChannel = FileChannel.open(metaTmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer newLog = newLogChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(logSize, INITIAL_SIZE));
+            MappedByteBuffer newMeta = newMetaChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(slotPosition(liveCount), INITIAL_SIZE));
+
+            newLog.putLong(0, LOG_MAGIC);
+            newLog.putInt(LOG_GENERATION, generation + 1);
+            newMeta.putLong(0, META_MAGIC);
+            newMeta.putInt(META_GENERATION, generation + 1);
+            newLog.position(HEADER_SIZE);
+
+            int newSlot = 0;
+            for (Map.Entry<ByteBuffer, Integer> e : index.entrySet()) {
+                int pos = slotPosition(e.getValue());
+                int offset = (int)meta.getLong(pos + SLOT_OFFSET);
+                int length = ENTRY_HEADER + log.getInt(offset);
+
+                long newOffset = newLog.position();
+                ByteBuffer entry = log.duplicate();
+                entry.limit(offset + length);
+                entry.position(offset);
+                newLog.put(entry);
+
+                int newPos = slotPosition(newSlot);
+                newMeta.putLong(newPos + SLOT_OFFSET, newOffset);
+                newMeta.putLong(newPos + SLOT_SEEN, meta.getLong(pos + SLOT_SEEN));
+                newMeta.putInt(newPos + SLOT_FLAGS, FLAG_LIVE);
+                newMeta.position(newPos + SLOT_ADDRESS);
+                newMeta.put(e.getKey().duplicate());
+
+                newSlot++;
+            }
+
+            newMeta.putInt(META_COUNT, newSlot);
+            newLog.force();
+            newMeta.force();
+        }
+
+        closeChannels();
+
+        /* The meta file decides what is live, so it replaces
+         * last. If only the log made it, open finishes the job. */
+        Files.move(logTmp, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(metaTmp, metaPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        open();
+    }
+
+    /**
+     * Compacts once dead entries outnumber live ones.
+     *
+     * @return whether a compaction ran
+     */
+    public synchronized boolean compactIfNeeded() throws IOException {
+        int dead = slotCount - liveCount;
+        if (dead < 1024 || dead < liveCount) return false;
+
+        compact();
+        return true;
+    }
+
+    /**
+     * Checks for compaction periodically on the given executor.
+     */
+    public ScheduledFuture<?> scheduleCompaction(ScheduledExecutorService executor, long period, TimeUnit unit) {
+        return executor.scheduleWithFixedDelay(() -> {
+            try {
+                compactIfNeeded();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, period, period, unit);
+    }
+
+    public synchronized int size() {
+        return liveCount;
+    }
+
+    public synchronized void flush() {
+        log.force();
+        meta.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        closeChannels();
+    }
+
+    private void open() throws IOException {
+        logChannel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        metaChannel = FileChannel.open(metaPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        boolean fresh = (metaChannel.size() == 0);
+
+        log = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(logChannel.size(), INITIAL_SIZE));
+        meta = metaChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(metaChannel.size(), INITIAL_SIZE));
+
+        index.clear();
+        generation = 0;
+        logEnd = HEADER_SIZE;
+        slotCount = 0;
+        liveCount = 0;
+
+        if (fresh) {
+            log.putLong(0, LOG_MAGIC);
+            log.putInt(LOG_GENERATION, 0);
+            meta.putLong(0, META_MAGIC);
+            meta.putInt(META_COUNT, 0);
+            meta.putInt(META_GENERATION, 0);
+            return;
+        }
+
+        if (log.getLong(0) != LOG_MAGIC || meta.getLong(0) != META_MAGIC) {
+            closeChannels();
+            throw new IOException("Not a peer database.");
+        }
+
+        generation = log.getInt(LOG_GENERATION);
+        if (meta.getInt(META_GENERATION) != generation) {
+            finishCompaction();
+            return;
+        }
+
+        slotCount = meta.getInt(META_COUNT);
+        if (slotCount < 0 || slotPosition(slotCount) > metaChannel.size()) {
+            closeChannels();
+            throw new IOException("Peer metadata is corrupt.");
+        }
+
+        for (int slot = 0; slot < slotCount; slot++) {
+            int pos = slotPosition(slot);
+            long offset = meta.getLong(pos + SLOT_OFFSET);
+            long end = entryEnd(offset);
+
+            /* Entries outside the log are dropped at the next compaction */
+            if (end < 0) {
+                meta.putInt(pos + SLOT_FLAGS, meta.getInt(pos + SLOT_FLAGS) & ~FLAG_LIVE);
+                continue;
+            }
+
+            logEnd = Math.max(logEnd, end);
+
+            if ((meta.getInt(pos + SLOT_FLAGS) & FLAG_LIVE) == 0) continue;
+
+            byte[] address = new byte[ADDRESS_LENGTH];
+            meta.position(pos + SLOT_ADDRESS);
+            meta.get(address);
+
+            Integer previous = index.put(ByteBuffer.wrap(address), slot);
+            if (previous != null) kill(previous);
+
+            liveCount++;
+        }
+    }
+
+    /* The log was replaced but the meta file was not. The new
+     * one is still waiting beside it if the compaction got that far. */
+    private void finishCompaction() throws IOException {
+        Path metaTmp = metaPath.resolveSibling(metaPath.getFileName() + ".tmp");
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+        if (Files.exists(metaTmp)) {
+            try (FileChannel channel = FileChannel.open(metaTmp, StandardOpenOption.READ)) {
+                while (header.hasRemaining() && channel.read(header) >= 0);
+            }
+        }
+
+        closeChannels();
+
+        if (header.hasRemaining() || header.getLong(0) != META_MAGIC || header.getInt(META_GENERATION) != generation) {
+            throw new IOException("The peer log and metadata are from different compactions.");
+        }
+
+        Files.move(metaTmp, metaPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open();
+    }
+
+    /* End of the entry at offset, or -1 if it
+     * does not fit in the log */
+    private long entryEnd(long offset) {
+        if (offset < HEADER_SIZE || offset > log.capacity() - ENTRY_HEADER) return -1;
+
+        int length = log.getInt((int)offset);
+        if (length <= 0 || length > log.capacity() - offset - ENTRY_HEADER) return -1;
+
+        return offset + ENTRY_HEADER + length;
+    }
+
+    private void closeChannels() throws IOException {
+        log = null;
+        meta = null;
+        logChannel.close();
+        metaChannel.close();
+    }
+
+    private void kill(int slot) {
+        int pos = slotPosition(slot);
+        int flags = meta.getInt(pos + SLOT_FLAGS);
+
+        if ((flags & FLAG_LIVE) != 0) {
+            meta.putInt(pos + SLOT_FLAGS, flags & ~FLAG_LIVE);
+            liveCount--;
+        }
+    }
+
+    private boolean storedHashEquals(int slot, byte[] expected) {
+        int offset = (int)meta.getLong(slotPosition(slot) + SLOT_OFFSET) + Integer.BYTES;
+
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            if (log.get(offset + i) != expected[i]) return false;
+        }
+
+        return true;
+    }
+
+    /* Returns null if the entry is corrupt */
+    private byte[] readRecord(long offset) {
+        long end = entryEnd(offset);
+        if (end < 0 || end > logEnd) return null;
+
+        int length = (int)(end - offset - ENTRY_HEADER);
+
+        byte[] stored = new byte[HASH_LENGTH];
+        byte[] record = new byte[length];
+
+        log.position((int)offset + Integer.BYTES);
+        log.get(stored);
+        log.get(record);
+
+        blake2(hash, 0, record);
+        return Arrays.equals(stored, hash) ? record : null;
+    }
+
+    private static int slotPosition(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private void ensureLog(long needed) throws IOException {
+        if (needed <= log.capacity()) return;
+        if (needed > Integer.MAX_VALUE) throw new IOException("Peer log is full.");
+
+        log = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(Math.max(needed, (long)log.capacity() * 2), Integer.MAX_VALUE));
+    }
+
+    private void ensureMeta(long needed) throws IOException {
+        if (needed <= meta.capacity()) return;
+        if (needed > Integer.MAX_VALUE) throw new IOException("Peer metadata is full.");
+
+        meta = metaChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(Math.max(needed, (long)meta.capacity() * 2), Integer.MAX_VALUE));
+    }
+}
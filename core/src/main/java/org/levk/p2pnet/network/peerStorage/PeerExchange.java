@@ -0,0 +1,108 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.levk.p2pnet.util.HashUtil.PUBKEY_LENGTH;
+import static org.levk.p2pnet.util.HashUtil.SIG_LENGTH;
+
+/**
+ * Batched peer exchange. A batch packs many signed peer records into
+ * one message: a 2 byte big-endian count, then that many fixed width
+ * records of version, address, port, pubkey and signature. Fixed
+ * widths let a batch be written with array copies and read back in
+ * one pass over the buffer, without decoding each record on its own.
+ *
+ * {@link PeerStorage} keeps every bucket's batch encoded until the
+ * bucket changes, so answering a request encodes nothing.
+ *
+ * Message types:
+ *
+ *  GET_PEERS - asks for peers near a target, the body is the
+ *              target's bucket address
+ *  PEERS     - the answer, a batch
+ */
+public final class PeerExchange {
+    public final static int GET_PEERS = 1;
+    public final static int PEERS = 2;
+
+    public final static int COUNT_LENGTH = 2;
+    public final static int RECORD_LENGTH = Peer.VERSION_LENGTH + Peer.ADDRESS_LENGTH + Peer.PORT_LENGTH
+            + PUBKEY_LENGTH + SIG_LENGTH;
+    public final static int MAX_RECORDS = 0xFFFF;
+
+    private PeerExchange() { }
+
+    /**
+     * Packs the signed peers into a batch. Peers not decoded from a
+     * signed record cannot be vouched for and are left out.
+     */
+    public static byte[] encode(Peer[] peers) {
+        int count = 0;
+        for (Peer p : peers) {
+            if (p.getSig() != null) count++;
+        }
+
+        if (count > MAX_RECORDS) throw new RuntimeException("Too many peers for one batch.");
+
+        byte[] out = new byte[COUNT_LENGTH + count * RECORD_LENGTH];
+        out[0] = (byte)(count >>> 8);
+        out[1] = (byte)count;
+
+        int off = COUNT_LENGTH;
+        for (Peer p : peers) {
+            if (p.getSig() == null) continue;
+
+            p.writeRecord(out, off);
+            off += RECORD_LENGTH;
+        }
+
+        return out;
+    }
+
+    public static byte[] encode(List<Peer> peers) {
+        return encode(peers.toArray(new Peer[0]));
+    }
+
+    /**
+     * Reads every record of a batch in one pass, consuming it.
+     * Signatures are not checked, see {@link PeerVerifier#verifyDecoded(List)}.
+     *
+     * @throws IOException if the length does not match the count
+     */
+    public static List<Peer> decode(ByteBuffer batch) throws IOException {
+        if (batch.remaining() < COUNT_LENGTH) throw new IOException("A peer batch is too short for its count.");
+
+        int count = batch.getShort() & 0xFFFF;
+        if (batch.remaining() != count * RECORD_LENGTH) throw new IOException("A peer batch does not match its count.");
+
+        List<Peer> peers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            peers.add(Peer.readRecord(batch));
+        }
+
+        return peers;
+    }
+
+    /**
+     * Answers GET_PEERS from storage's cached batches, and hands the
+     * correctly signed peers of every PEERS message to learned, on
+     * the verifier's pool. Malformed messages fail with an
+     * IOException, closing only the sender's connection.
+     */
+    public static void register(MessageRegistry registry, PeerStorage storage, PeerVerifier verifier, Consumer<List<Peer>> learned) {
+        registry.register(GET_PEERS, (peer, body) -> {
+            if (body.remaining() != storage.getNodeAddress().length) throw new IOException("Invalid peer request target.");
+
+            byte[] target = new byte[body.remaining()];
+            body.get(target);
+
+            storage.sendPeers(peer, target);
+        });
+
+        registry.register(PEERS, (peer, body) -> verifier.verifyDecoded(decode(body)).thenAccept(learned));
+    }
+}
@@ -0,0 +1,76 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+import org.levk.p2pnet.util.RingQueue;
+
+/**
+ * One direction of a peer's traffic: a bounded ring with a byte
+ * budget and high/low-water tracking.
+ */
+final class PeerQueue<E> {
+    private final RingQueue<E> ring;
+    private final ToIntFunction<E> sizer;
+    private final long maxBytes;
+    private final int highWater;
+    private final int lowWater;
+
+    private final AtomicLong bytes;
+    private final AtomicBoolean aboveHigh;
+
+    PeerQueue(int capacity, long maxBytes, ToIntFunction<E> sizer) {
+        this.ring = new RingQueue<>(capacity);
+        this.sizer = sizer;
+        this.maxBytes = maxBytes;
+        this.highWater = ring.capacity() * 3 / 4;
+        this.lowWater = ring.capacity() / 4;
+        this.bytes = new AtomicLong();
+        this.aboveHigh = new AtomicBoolean();
+    }
+
+    /**
+     * @return false if the queue is out of slots or bytes. A single
+     *      element larger than the byte budget is let into an empty queue.
+     */
+    boolean offer(E e) {
+        int size = sizer.applyAsInt(e);
+        long after = bytes.addAndGet(size);
+
+        if ((after > maxBytes && after != size) || !ring.offer(e)) {
+            bytes.addAndGet(-size);
+            return false;
+        }
+
+        return true;
+    }
+
+    E poll() {
+        E e = ring.poll();
+        if (e != null) bytes.addAndGet(-sizer.applyAsInt(e));
+        return e;
+    }
+
+    /**
+     * @return whether this offer crossed the high-water mark
+     */
+    boolean crossedHigh() {
+        return ring.size() >= highWater && aboveHigh.compareAndSet(false, true);
+    }
+
+    /**
+     * @return whether this poll crossed back below the low-water mark
+     */
+    boolean crossedLow() {
+        return ring.size() <= lowWater && aboveHigh.compareAndSet(true, false);
+    }
+
+    int size() {
+        return ring.size();
+    }
+
+    long bytes() {
+        return bytes.get();
+    }
+}
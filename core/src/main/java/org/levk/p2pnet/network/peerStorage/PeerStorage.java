@@ -0,0 +1,528 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.levk.p2pnet.network.wire.CompressionPolicy;
+import org.levk.p2pnet.network.wire.Frame;
+import org.levk.p2pnet.network.wire.MessageClass;
+import org.levk.p2pnet.network.wire.MessageCodec;
+import org.levk.p2pnet.network.wire.SeenCache;
+import org.levk.p2pnet.util.BufferPool;
+import org.levk.p2pnet.util.HashUtil;
+
+/**
+ * Kademlia routing table over peer bucket addresses. Bucket i
+ * holds peers whose address shares exactly i leading bits with
+ * this node's address.
+ *
+ * Each bucket keeps an immutable snapshot of its peers ordered
+ * from least to most recently seen. Writers serialize on the
+ * bucket and publish a new snapshot, readers never lock.
+ *
+ * Peers are tracked by a {@link LivenessWheel}. Once driven, it
+ * swaps inactive peers for live replacement candidates and removes
+ * dead ones as their deadlines pass, without scanning the table.
+ *
+ * Each bucket also keeps its peers encoded as a {@link PeerExchange}
+ * batch, built on first request and dropped when the bucket's
+ * membership changes.
+ *
+ * An optional {@link AdmissionTable} caps how many peers in the
+ * table may share a subnet.
+ */
+public class PeerStorage {
+    /* Candidates kept per bucket for when a slot frees up */
+    public final static int REPLACEMENT_CACHE_SIZE = 8;
+
+    private final AtomicInteger peerCount;
+    private final int k;
+    private final Bucket[] buckets;
+    private final byte[] nodeAddress;
+
+    /* Frames already received or broadcast */
+    private final SeenCache seen;
+
+    /* Fires inactive and dead transitions for every peer */
+    private final LivenessWheel liveness;
+
+    /* Subnet counts of the peers in the table, or null */
+    private final AdmissionTable subnets;
+
+    public PeerStorage(int k, byte[] address) {
+        this(k, address, new SeenCache());
+    }
+
+    public PeerStorage(int k, byte[] address, SeenCache seen) {
+        this(k, address, seen, null);
+    }
+
+    /**
+     * @param subnets - limits on peers per subnet, or null for none.
+     *      Only this table should admit into it.
+     */
+    public PeerStorage(int k, byte[] address, SeenCache seen, AdmissionTable subnets) {
+        this.k = k;
+        this.nodeAddress = address;
+        this.seen = seen;
+        this.subnets = subnets;
+        this.liveness = new LivenessWheel(new LivenessWheel.Listener() {
+            @Override
+            public void inactive(Peer peer) {
+                replaceInactive(peer);
+            }
+
+            @Override
+            public void dead(Peer peer) {
+                removeExact(peer);
+            }
+        });
+        this.peerCount = new AtomicInteger();
+        this.buckets = new Bucket[address.length * 8];
+
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Bucket(k);
+        }
+    }
+
+    /**
+     * Inserts a peer, or marks it most recently seen if already
+     * present. An address already present keeps its stored Peer,
+     * which may hold the connection, and only takes over a later
+     * last seen time from the one passed in. A full bucket evicts
+     * its least recently seen dead peer, then its least recently
+     * seen inactive one. If every peer is active the new one is kept
+     * as a replacement candidate.
+     *
+     * Only peers actually stored share this table's seen cache and
+     * are tracked by its liveness wheel.
+     *
+     * @return whether the peer is now in the table, false also if
+     *      its subnet is at its limit
+     */
+    public boolean insert(Peer peer) {
+        int index = bucketIndex(peer.getAddress());
+        if (index < 0) return false;
+
+        return buckets[index].insert(peer);
+    }
+
+    /**
+     * @return whether the peer was in the table
+     */
+    public boolean remove(Peer peer) {
+        int index = bucketIndex(peer.getAddress());
+        if (index < 0) return false;
+
+        return buckets[index].remove(peer.getAddress(), null);
+    }
+
+    /* Removes the peer only if it is the instance stored
+     * under its address, for transitions fired on it.
+     * The wheel has already stopped tracking it. */
+    private boolean removeExact(Peer peer) {
+        int index = bucketIndex(peer.getAddress());
+        if (index < 0) return false;
+
+        liveness.cancel(peer);
+        return buckets[index].remove(peer.getAddress(), peer);
+    }
+
+    /* Swaps a peer that went inactive for the most recently
+     * seen active replacement candidate, if there is one */
+    private void replaceInactive(Peer peer) {
+        int index = bucketIndex(peer.getAddress());
+        if (index >= 0) buckets[index].replaceInactive(peer);
+    }
+
+    /**
+     * @return the peer with the given bucket address, or null
+     */
+    public Peer get(byte[] address) {
+        int index = bucketIndex(address);
+        if (index < 0) return null;
+
+        for (Peer p : buckets[index].peers) {
+            if (Arrays.equals(p.getAddress(), address)) return p;
+        }
+
+        return null;
+    }
+
+    /**
+     * Finds the peers closest to target by XOR distance.
+     *
+     * @param target - bucket address to search around
+     * @param n - maximum number of peers to return
+     * @return up to n peers, closest first
+     */
+    public List<Peer> findClosest(byte[] target, int n) {
+        if (n <= 0) return Collections.emptyList();
+
+        Comparator<Peer> closer = (a, b) -> compareDistance(a.getAddress(), b.getAddress(), target);
+
+        /* Max-heap of the best n seen so far */
+        PriorityQueue<Peer> best = new PriorityQueue<>(n, closer.reversed());
+
+        for (Bucket bucket : buckets) {
+            for (Peer p : bucket.peers) {
+                if (best.size() < n) {
+                    best.add(p);
+                } else if (closer.compare(p, best.peek()) < 0) {
+                    best.poll();
+                    best.add(p);
+                }
+            }
+        }
+
+        List<Peer> out = new ArrayList<>(best);
+        out.sort(closer);
+        return out;
+    }
+
+    /**
+     * Sends a message to every peer in the table. The message is
+     * compressed once and the same frame is queued to every peer,
+     * each connection chunks it as it writes. The frame is marked seen so copies relayed back
+     * are dropped.
+     *
+     * @param messagetype - type id carried in front of the message,
+     *      see {@link MessageRegistry}
+     * @return number of peers the message was queued to, peers
+     *      with a full send queue are skipped
+     */
+    public int broadcast(int messagetype, byte[] message) throws IOException {
+        BufferPool pool = BufferPool.getDefault();
+        byte[] hash = new byte[HashUtil.HASH_LENGTH];
+        Frame frame = Frame.ofPayload(MessageCodec.encodePayload(messagetype, message, CompressionPolicy.DEFAULT, pool, hash), pool, MessageClass.NORMAL);
+
+        seen.add(hash);
+
+        try {
+            int count = 0;
+            for (Bucket bucket : buckets) {
+                count += bucket.broadcast(frame);
+            }
+            return count;
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Answers a peer request with the batch of the bucket target
+     * falls in. If that bucket is empty the nearest non-empty one
+     * is sent, deeper buckets first as their peers are closer.
+     *
+     * @param target - bucket address the peers should be near
+     * @return false if the send queue to the peer is full
+     */
+    public boolean sendPeers(Peer to, byte[] target) throws IOException {
+        int index = bucketIndex(target);
+        if (index < 0) index = buckets.length - 1;
+
+        int i = index;
+        while (i < buckets.length && buckets[i].peers.length == 0) i++;
+        if (i == buckets.length) {
+            i = index;
+            while (i > 0 && buckets[i].peers.length == 0) i--;
+        }
+
+        return to.trySend(PeerExchange.PEERS, buckets[i].encoded(), MessageClass.CONTROL);
+    }
+
+    /**
+     * @return the signed peers of bucket i as a {@link PeerExchange}
+     *      batch. The array is cached and shared, it must not be changed.
+     */
+    public byte[] getEncodedBucket(int i) {
+        return buckets[i].encoded();
+    }
+
+    /**
+     * @return the peers currently in bucket i, least recently seen first
+     */
+    public List<Peer> getBucket(int i) {
+        return Collections.unmodifiableList(Arrays.asList(buckets[i].peers));
+    }
+
+    public int bucketCount() {
+        return buckets.length;
+    }
+
+    public int size() {
+        return peerCount.get();
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return the wheel tracking this table's peers. It is driven by
+     *      {@link LivenessWheel#start()} or {@link LivenessWheel#advance(long)}.
+     */
+    public LivenessWheel getLiveness() {
+        return liveness;
+    }
+
+    public SeenCache getSeenCache() {
+        return seen;
+    }
+
+    public AdmissionTable getSubnets() {
+        return subnets;
+    }
+
+    /* A peer entered the table */
+    private void stored(Peer peer) {
+        peer.setSeenCache(seen);
+        liveness.schedule(peer);
+    }
+
+    /* A peer left the table, or became a candidate */
+    private void evicted(Peer peer) {
+        liveness.cancel(peer);
+    }
+
+    private boolean admit(Peer peer) {
+        return subnets == null || subnets.tryAdmit(peer.getNetworkAddress());
+    }
+
+    private void release(Peer peer) {
+        if (subnets != null) subnets.release(peer.getNetworkAddress());
+    }
+
+    /* Hands old's subnet slot to peer in one step */
+    private boolean replace(Peer old, Peer peer) {
+        return subnets == null || subnets.replace(old.getNetworkAddress(), peer.getNetworkAddress());
+    }
+
+    public byte[] getNodeAddress() {
+        return nodeAddress;
+    }
+
+    /**
+     * @return the bucket an address belongs in, or -1 for this node's own address
+     */
+    public int bucketIndex(byte[] address) {
+        if (address.length != nodeAddress.length) throw new RuntimeException("Peer address length does not match the node address length.");
+
+        for (int i = 0; i < address.length; i++) {
+            int diff = (address[i] ^ nodeAddress[i]) & 0xFF;
+
+            if (diff != 0) {
+                return i * 8 + Integer.numberOfLeadingZeros(diff) - 24;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Compares the XOR distances of a and b from target without
+     * materializing either distance.
+     */
+    public static int compareDistance(byte[] a, byte[] b, byte[] target) {
+        for (int i = 0; i < target.length; i++) {
+            int da = (a[i] ^ target[i]) & 0xFF;
+            int db = (b[i] ^ target[i]) & 0xFF;
+
+            if (da != db) return Integer.compare(da, db);
+        }
+
+        return 0;
+    }
+
+    private class Bucket {
+        private final Peer[] empty = new Peer[0];
+        private volatile Peer[] peers;
+        private Peer[] replacements;
+        private int k;
+
+        /* The peers as a batch, null until asked for and
+         * whenever membership has changed since. Reordering
+         * keeps it, the batch is a set. */
+        private volatile byte[] encoded;
+
+        Bucket(int k) {
+            this.k = k;
+            this.peers = empty;
+            this.replacements = empty;
+        }
+
+        synchronized boolean insert(Peer peer) {
+            Peer[] current = peers;
+            int existing = indexOf(current, peer.getAddress());
+
+            /* Already known, move the stored peer to the most
+             * recently seen end. Its record is unchanged, so
+             * the encoded batch stays valid. */
+            if (existing >= 0) {
+                Peer kept = current[existing];
+                if (kept != peer && peer.getLastSeen() > kept.getLastSeen()) kept.setLastSeen(peer.getLastSeen());
+
+                Peer[] next = new Peer[current.length];
+                System.arraycopy(current, 0, next, 0, existing);
+                System.arraycopy(current, existing + 1, next, existing, current.length - existing - 1);
+                next[next.length - 1] = kept;
+                peers = next;
+                return true;
+            }
+
+            if (current.length < k) {
+                if (!admit(peer)) return false;
+
+                peers = append(current, peer);
+                encoded = null;
+                peerCount.incrementAndGet();
+                stored(peer);
+                return true;
+            }
+
+            int victim = -1;
+            for (int i = 0; i < current.length && victim < 0; i++) {
+                if (current[i].isDead()) victim = i;
+            }
+            for (int i = 0; i < current.length && victim < 0; i++) {
+                if (current[i].isInactive()) victim = i;
+            }
+
+            if (victim < 0) {
+                addReplacement(peer);
+                return false;
+            }
+
+            /* The victim's slot counts toward the newcomer's subnet */
+            if (!replace(current[victim], peer)) return false;
+
+            peers = append(removeAt(current, victim), peer);
+            encoded = null;
+            evicted(current[victim]);
+            stored(peer);
+            return true;
+        }
+
+        /* Removes the peer under address, only if it is
+         * the given instance unless that is null */
+        synchronized boolean remove(byte[] address, Peer only) {
+            Peer[] current = peers;
+            int existing = indexOf(current, address);
+
+            if (existing < 0 || (only != null && current[existing] != only)) {
+                int r = indexOf(replacements, address);
+                if (r >= 0 && (only == null || replacements[r] == only)) replacements = removeAt(replacements, r);
+                return false;
+            }
+
+            Peer[] next = removeAt(current, existing);
+            release(current[existing]);
+            evicted(current[existing]);
+
+            /* Promote the most recently seen live replacement. Dead
+             * candidates are dropped, those over their subnet's limit
+             * stay for a later vacancy. */
+            for (int i = replacements.length - 1; i >= 0; i--) {
+                Peer candidate = replacements[i];
+
+                if (candidate.isDead()) {
+                    replacements = removeAt(replacements, i);
+                    continue;
+                }
+
+                if (admit(candidate)) {
+                    replacements = removeAt(replacements, i);
+                    next = append(next, candidate);
+                    peers = next;
+                    encoded = null;
+                    stored(candidate);
+                    return true;
+                }
+            }
+
+            peers = next;
+            encoded = null;
+            peerCount.decrementAndGet();
+            return true;
+        }
+
+        synchronized void replaceInactive(Peer peer) {
+            Peer[] current = peers;
+            int existing = indexOf(current, peer.getAddress());
+            if (existing < 0 || current[existing] != peer || !peer.isInactive()) return;
+
+            for (int i = replacements.length - 1; i >= 0; i--) {
+                Peer candidate = replacements[i];
+                if (candidate.isInactive() || !replace(current[existing], candidate)) continue;
+
+                replacements = removeAt(replacements, i);
+                peers = append(removeAt(current, existing), candidate);
+                encoded = null;
+                stored(candidate);
+
+                /* The inactive peer becomes a candidate in turn */
+                evicted(current[existing]);
+                addReplacement(current[existing]);
+                return;
+            }
+        }
+
+        private void addReplacement(Peer peer) {
+            int existing = indexOf(replacements, peer.getAddress());
+            Peer[] current = (existing >= 0) ? removeAt(replacements, existing) : replacements;
+
+            if (current.length >= REPLACEMENT_CACHE_SIZE) current = removeAt(current, 0);
+            replacements = append(current, peer);
+        }
+
+        byte[] encoded() {
+            byte[] batch = encoded;
+            if (batch != null) return batch;
+
+            synchronized (this) {
+                if (encoded == null) encoded = PeerExchange.encode(peers);
+                return encoded;
+            }
+        }
+
+        /* Hands the same frame to every peer in the
+         * bucket, each peer takes its own reference.
+         * Peers with a full send queue are skipped. */
+        int broadcast(Frame frame) {
+            int count = 0;
+
+            for (Peer peer : peers) {
+                if (peer.send(frame)) count++;
+            }
+
+            return count;
+        }
+    }
+
+    private static int indexOf(Peer[] peers, byte[] address) {
+        for (int i = 0; i < peers.length; i++) {
+            if (Arrays.equals(peers[i].getAddress(), address)) return i;
+        }
+
+        return -1;
+    }
+
+    private static Peer[] append(Peer[] peers, Peer peer) {
+        Peer[] next = Arrays.copyOf(peers, peers.length + 1);
+        next[peers.length] = peer;
+        return next;
+    }
+
+    private static Peer[] removeAt(Peer[] peers, int index) {
+        Peer[] next = new Peer[peers.length - 1];
+        System.arraycopy(peers, 0, next, 0, index);
+        System.arraycopy(peers, index + 1, next, index, peers.length - index - 1);
+        return next;
+    }
+}
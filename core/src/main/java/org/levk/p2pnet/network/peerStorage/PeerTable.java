@@ -0,0 +1,414 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.util.Arrays;
+
+import org.levk.CrispyRotaryPhone.CRPENC;
+import org.levk.CrispyRotaryPhone.ENCList;
+
+import static org.levk.p2pnet.util.HashUtil.*;
+
+/**
+ * Address book of known peers packed into flat arrays, for peers
+ * we know of but are not connected to. Each record is a fixed
+ * width row of version, address, port, pubkey, signature and
+ * bucket address in a paged byte array, with last seen times in a
+ * parallel long array and an open-addressed index by bucket address.
+ * A record costs about 160 bytes and no objects.
+ *
+ * Records are read in place through a {@link Cursor}. A full
+ * {@link Peer} is only built by {@link #materialize(int)}, when a
+ * connection is made.
+ *
+ * Removing a record moves the last record into its row, so record
+ * indices are only stable between removals. Not thread safe.
+ */
+public class PeerTable {
+    public final static int BUCKET_WIDTH = HASH_LENGTH - OMIT_LENGTH;
+
+    /* Row layout */
+    private final static int VERSION = 0;
+    private final static int ADDRESS = VERSION + Peer.VERSION_LENGTH;
+    private final static int PORT = ADDRESS + Peer.ADDRESS_LENGTH;
+    private final static int PUBKEY = PORT + Peer.PORT_LENGTH;
+    private final static int SIG = PUBKEY + PUBKEY_LENGTH;
+    private final static int BUCKET = SIG + SIG_LENGTH;
+    public final static int ROW_SIZE = BUCKET + BUCKET_WIDTH;
+
+    /* Rows per page, pages are allocated as the table grows */
+    private final static int PAGE_BITS = 12;
+    private final static int PAGE_ROWS = 1 << PAGE_BITS;
+    private final static int PAGE_MASK = PAGE_ROWS - 1;
+
+    private byte[][] rows;
+    private long[][] seen;
+    private int size;
+
+    /* Row index + 1 by bucket address, 0 when empty. At most half full. */
+    private int[] index;
+
+    public PeerTable() {
+        this.rows = new byte[0][];
+        this.seen = new long[0][];
+        this.index = new int[16];
+    }
+
+    /**
+     * Adds or replaces a peer decoded from a signed record.
+     *
+     * @return the peer's row
+     */
+    public int put(Peer peer) {
+        if (peer.getSig() == null) throw new RuntimeException("Only peers decoded from a signed record can be stored.");
+
+        return put(peer.getVersion(), peer.getNetworkAddress(), peer.getPort(), peer.getPubkey(), peer.getSig(), peer.getLastSeen());
+    }
+
+    /**
+     * Adds or replaces a signed record as produced by {@link Peer#toStore()}.
+     * The signature is not checked.
+     *
+     * @return the peer's row
+     */
+    public int put(byte[] record, long lastSeen) {
+        ENCList fields = CRPENC.decode(record);
+        if (fields.size() != 5) throw new RuntimeException("A serialized peer item should have 5 elements.");
+
+        return put(fields.get(0).getEncData(), fields.get(1).getEncData(), fields.get(2).getEncData(),
+                fields.get(3).getEncData(), fields.get(4).getEncData(), lastSeen);
+    }
+
+    public int put(byte[] version, byte[] address, byte[] port, byte[] pubkey, byte[] sig, long lastSeen) {
+        if (version.length != Peer.VERSION_LENGTH || address.length != Peer.ADDRESS_LENGTH || port.length != Peer.PORT_LENGTH
+                || pubkey.length != PUBKEY_LENGTH || sig.length != SIG_LENGTH) {
+            throw new RuntimeException("Serialized elements are of an incorrect length.");
+        }
+
+        byte[] bucket = new byte[BUCKET_WIDTH];
+        blake2omit12(bucket, 0, pubkey);
+
+        int row = indexOf(bucket, 0);
+        boolean added = (row < 0);
+
+        if (added) {
+            row = size;
+            ensureRows(size + 1);
+        }
+
+        byte[] page = rows[row >>> PAGE_BITS];
+        int off = (row & PAGE_MASK) * ROW_SIZE;
+
+        System.arraycopy(version, 0, page, off + VERSION, Peer.VERSION_LENGTH);
+        System.arraycopy(address, 0, page, off + ADDRESS, Peer.ADDRESS_LENGTH);
+        System.arraycopy(port, 0, page, off + PORT, Peer.PORT_LENGTH);
+        System.arraycopy(pubkey, 0, page, off + PUBKEY, PUBKEY_LENGTH);
+        System.arraycopy(sig, 0, page, off + SIG, SIG_LENGTH);
+        System.arraycopy(bucket, 0, page, off + BUCKET, BUCKET_WIDTH);
+
+        seen[row >>> PAGE_BITS][row & PAGE_MASK] = lastSeen;
+
+        if (added) {
+            insertIndex(row);
+            size++;
+        }
+
+        return row;
+    }
+
+    /**
+     * @return the row holding the bucket address, or -1
+     */
+    public int indexOf(byte[] bucketAddress) {
+        if (bucketAddress.length != BUCKET_WIDTH) return -1;
+        return indexOf(bucketAddress, 0);
+    }
+
+    /**
+     * Removes a record, moving the last row into its place.
+     *
+     * @return whether the address was in the table
+     */
+    public boolean remove(byte[] bucketAddress) {
+        int row = indexOf(bucketAddress);
+        if (row < 0) return false;
+
+        deleteIndex(slotOf(row));
+
+        int last = size - 1;
+        if (row != last) {
+            deleteIndex(slotOf(last));
+
+            System.arraycopy(rows[last >>> PAGE_BITS], (last & PAGE_MASK) * ROW_SIZE, rows[row >>> PAGE_BITS], (row & PAGE_MASK) * ROW_SIZE, ROW_SIZE);
+            seen[row >>> PAGE_BITS][row & PAGE_MASK] = seen[last >>> PAGE_BITS][last & PAGE_MASK];
+
+            place(row);
+        }
+
+        size--;
+        return true;
+    }
+
+    public void setLastSeen(int row, long time) {
+        check(row);
+        seen[row >>> PAGE_BITS][row & PAGE_MASK] = time;
+    }
+
+    public long getLastSeen(int row) {
+        check(row);
+        return seen[row >>> PAGE_BITS][row & PAGE_MASK];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return a cursor positioned on row 0
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Finds the rows closest to target by XOR distance, reading
+     * bucket addresses in place.
+     *
+     * @return up to n rows, closest first
+     */
+    public int[] findClosest(byte[] target, int n) {
+        if (target.length != BUCKET_WIDTH) throw new RuntimeException("Target length does not match the bucket address length.");
+
+        n = Math.min(n, size);
+        int[] best = new int[n];
+        int count = 0;
+
+        for (int row = 0; row < size; row++) {
+            if (count < n) {
+                best[count++] = row;
+            } else if (compareDistance(row, best[n - 1], target) >= 0) {
+                continue;
+            } else {
+                best[n - 1] = row;
+            }
+
+            /* Insertion step keeps best sorted */
+            for (int i = count - 1; i > 0 && compareDistance(best[i], best[i - 1], target) < 0; i--) {
+                int t = best[i];
+                best[i] = best[i - 1];
+                best[i - 1] = t;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Builds a full peer from a row, for a new connection. The peer
+     * is marked valid, rows only come from verified records.
+     */
+    public Peer materialize(int row) {
+        check(row);
+
+        byte[] page = rows[row >>> PAGE_BITS];
+        int off = (row & PAGE_MASK) * ROW_SIZE;
+
+        byte[] record = CRPENC.encode(
+                Arrays.copyOfRange(page, off + VERSION, off + ADDRESS),
+                Arrays.copyOfRange(page, off + ADDRESS, off + PORT),
+                Arrays.copyOfRange(page, off + PORT, off + PUBKEY),
+                Arrays.copyOfRange(page, off + PUBKEY, off + SIG),
+                Arrays.copyOfRange(page, off + SIG, off + BUCKET));
+
+        Peer peer = Peer.decode(record);
+        peer.setValid(true);
+        peer.setLastSeen(getLastSeen(row));
+        return peer;
+    }
+
+    /**
+     * Reads one row at a time without copying it out. A cursor is
+     * only valid until the table is next modified.
+     */
+    public final class Cursor {
+        private int row;
+        private byte[] page;
+        private int off;
+
+        private Cursor() {
+            if (size > 0) moveTo(0);
+        }
+
+        public Cursor moveTo(int row) {
+            check(row);
+
+            this.row = row;
+            this.page = rows[row >>> PAGE_BITS];
+            this.off = (row & PAGE_MASK) * ROW_SIZE;
+            return this;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public int getVersion() {
+            return ((page[off + VERSION] & 0xFF) << 8) | (page[off + VERSION + 1] & 0xFF);
+        }
+
+        public int getPort() {
+            return ((page[off + PORT] & 0xFF) << 8) | (page[off + PORT + 1] & 0xFF);
+        }
+
+        public boolean isIPv4() {
+            for (int i = 0; i < Peer.IPv4inIPv6Prefix.length; i++) {
+                if (page[off + ADDRESS + i] != Peer.IPv4inIPv6Prefix[i]) return false;
+            }
+            return true;
+        }
+
+        public long getLastSeen() {
+            return seen[row >>> PAGE_BITS][row & PAGE_MASK];
+        }
+
+        public void getAddress(byte[] out, int outOff) {
+            System.arraycopy(page, off + ADDRESS, out, outOff, Peer.ADDRESS_LENGTH);
+        }
+
+        public void getPubkey(byte[] out, int outOff) {
+            System.arraycopy(page, off + PUBKEY, out, outOff, PUBKEY_LENGTH);
+        }
+
+        public void getBucketAddress(byte[] out, int outOff) {
+            System.arraycopy(page, off + BUCKET, out, outOff, BUCKET_WIDTH);
+        }
+
+        /**
+         * @return the byte of the bucket address at i
+         */
+        public byte bucketByte(int i) {
+            return page[off + BUCKET + i];
+        }
+    }
+
+    private int compareDistance(int a, int b, byte[] target) {
+        byte[] pa = rows[a >>> PAGE_BITS];
+        byte[] pb = rows[b >>> PAGE_BITS];
+        int oa = (a & PAGE_MASK) * ROW_SIZE + BUCKET;
+        int ob = (b & PAGE_MASK) * ROW_SIZE + BUCKET;
+
+        for (int i = 0; i < BUCKET_WIDTH; i++) {
+            int da = (pa[oa + i] ^ target[i]) & 0xFF;
+            int db = (pb[ob + i] ^ target[i]) & 0xFF;
+
+            if (da != db) return Integer.compare(da, db);
+        }
+
+        return 0;
+    }
+
+    private void check(int row) {
+        if (row < 0 || row >= size) throw new IndexOutOfBoundsException("Row " + row + " of " + size + ".");
+    }
+
+    private void ensureRows(int needed) {
+        int pages = (needed + PAGE_MASK) >>> PAGE_BITS;
+        if (pages <= rows.length) return;
+
+        rows = Arrays.copyOf(rows, pages);
+        seen = Arrays.copyOf(seen, pages);
+
+        for (int i = 0; i < pages; i++) {
+            if (rows[i] == null) {
+                rows[i] = new byte[PAGE_ROWS * ROW_SIZE];
+                seen[i] = new long[PAGE_ROWS];
+            }
+        }
+    }
+
+    /* Bucket addresses are hash output, so their
+     * first four bytes already spread well */
+    private int hash(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    private int rowHash(int row) {
+        return hash(rows[row >>> PAGE_BITS], (row & PAGE_MASK) * ROW_SIZE + BUCKET);
+    }
+
+    private boolean rowMatches(int row, byte[] address, int off) {
+        byte[] page = rows[row >>> PAGE_BITS];
+        int base = (row & PAGE_MASK) * ROW_SIZE + BUCKET;
+
+        for (int i = 0; i < BUCKET_WIDTH; i++) {
+            if (page[base + i] != address[off + i]) return false;
+        }
+        return true;
+    }
+
+    private int indexOf(byte[] address, int off) {
+        int mask = index.length - 1;
+
+        for (int i = hash(address, off) & mask; index[i] != 0; i = (i + 1) & mask) {
+            if (rowMatches(index[i] - 1, address, off)) return index[i] - 1;
+        }
+
+        return -1;
+    }
+
+    /* The index slot holding a row that is in the index */
+    private int slotOf(int row) {
+        int mask = index.length - 1;
+
+        for (int i = rowHash(row) & mask; index[i] != 0; i = (i + 1) & mask) {
+            if (index[i] == row + 1) return i;
+        }
+
+        return -1;
+    }
+
+    private void insertIndex(int row) {
+        if ((size + 1) * 2 > index.length) {
+            int[] old = index;
+            index = new int[old.length * 2];
+
+            for (int entry : old) {
+                if (entry != 0) place(entry - 1);
+            }
+        }
+
+        place(row);
+    }
+
+    private void place(int row) {
+        int mask = index.length - 1;
+        int i = rowHash(row) & mask;
+
+        while (index[i] != 0) {
+            i = (i + 1) & mask;
+        }
+
+        index[i] = row + 1;
+    }
+
+    /* Backward shift deletion, keeps probe chains intact without tombstones */
+    private void deleteIndex(int slot) {
+        int mask = index.length - 1;
+        int hole = slot;
+        int i = slot;
+
+        index[hole] = 0;
+
+        while (true) {
+            i = (i + 1) & mask;
+            if (index[i] == 0) return;
+
+            int home = rowHash(index[i] - 1) & mask;
+
+            /* Move the entry back if the hole lies between its home and i */
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                index[hole] = index[i];
+                index[i] = 0;
+                hole = i;
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import org.levk.p2pnet.metrics.Metrics;
+
+/**
+ * Verifies signed peer records in parallel batches. Results are
+ * remembered in a bounded cache keyed by {@link Peer#recordKey()},
+ * the blake2 hash of the decoded fields and signature. Every path
+ * derives it the same way, whether the record arrived encoded on
+ * its own or in a fixed width batch, so a record re-received from
+ * another neighbour costs one hash instead of a signature check.
+ */
+public class PeerVerifier {
+    /* Number of record keys remembered by default */
+    public final static int DEFAULT_CACHE_SIZE = 1 << 16;
+
+    private static volatile PeerVerifier defaultVerifier;
+
+    private final ForkJoinPool pool;
+    private final int cacheSize;
+
+    /* Record key -> whether its signature was valid */
+    private final ConcurrentHashMap<ByteBuffer, Boolean> seen;
+
+    /* Insertion order of the cache, oldest first */
+    private final Queue<ByteBuffer> order;
+
+    public PeerVerifier() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CACHE_SIZE);
+    }
+
+    public PeerVerifier(int parallelism, int cacheSize) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.cacheSize = cacheSize;
+        this.seen = new ConcurrentHashMap<>();
+        this.order = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * @return the verifier shared by {@link Peer#parse(byte[], byte[])}
+     */
+    public static PeerVerifier getDefault() {
+        PeerVerifier verifier = defaultVerifier;
+
+        if (verifier == null) {
+            synchronized (PeerVerifier.class) {
+                if (defaultVerifier == null) defaultVerifier = new PeerVerifier();
+                verifier = defaultVerifier;
+            }
+        }
+
+        return verifier;
+    }
+
+    /**
+     * Decodes and verifies a batch of records on the pool.
+     *
+     * @param records - encoded, signed peer records
+     * @return the peers whose records were well formed and correctly signed,
+     *      in input order
+     */
+    public CompletableFuture<List<Peer>> verify(List<byte[]> records) {
+        return CompletableFuture.supplyAsync(() -> records.parallelStream()
+                .map(this::verifyRecord)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList()), pool);
+    }
+
+    /**
+     * Blocking form of {@link #verify(List)}.
+     */
+    public List<Peer> verifyAll(List<byte[]> records) {
+        return verify(records).join();
+    }
+
+    /**
+     * Verifies peers already read from a batch, see
+     * {@link PeerExchange#decode(java.nio.ByteBuffer)}. Shares the
+     * cache with {@link #verify(List)} and {@link Peer#parse}.
+     *
+     * @return the correctly signed peers, in input order
+     */
+    public CompletableFuture<List<Peer>> verifyDecoded(List<Peer> peers) {
+        return CompletableFuture.supplyAsync(() -> peers.parallelStream()
+                .filter(this::verifyFields)
+                .collect(Collectors.toList()), pool);
+    }
+
+    /**
+     * Checks the signature of an already decoded peer, consulting
+     * the cache first.
+     */
+    boolean check(Peer peer) {
+        ByteBuffer key = ByteBuffer.wrap(peer.recordKey());
+        Boolean known = seen.get(key);
+
+        if (known != null) return known;
+
+        boolean valid = peer.verifySignature();
+        remember(key, valid);
+        return valid;
+    }
+
+    private Peer verifyRecord(byte[] encoded) {
+        Peer peer;
+        try {
+            peer = Peer.decode(encoded);
+        } catch (RuntimeException e) {
+            Metrics.get().invalidPeer();
+            return null;
+        }
+
+        return verifyFields(peer) ? peer : null;
+    }
+
+    private boolean verifyFields(Peer peer) {
+        boolean valid = check(peer);
+
+        peer.setValid(valid);
+        if (!valid) Metrics.get().invalidPeer();
+
+        return valid;
+    }
+
+    private void remember(ByteBuffer key, boolean valid) {
+        if (seen.putIfAbsent(key, valid) != null) return;
+        order.add(key);
+
+        while (seen.size() > cacheSize) {
+            ByteBuffer oldest = order.poll();
+            if (oldest == null) break;
+            seen.remove(oldest);
+        }
+    }
+
+    /**
+     * @return number of record keys currently cached
+     */
+    public int cachedCount() {
+        return seen.size();
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,24 @@
+package org.levk.p2pnet.network.peerStorage;
+
+/**
+ * Backpressure signals from a peer's inbound and outbound queues.
+ * Called on whichever thread crossed the mark, so implementations
+ * must not block.
+ */
+public interface QueueListener {
+    /**
+     * The queue filled past its high-water mark.
+     */
+    void highWater(Peer peer, boolean outbound, int depth);
+
+    /**
+     * The queue drained below its low-water mark after a high-water signal.
+     */
+    void lowWater(Peer peer, boolean outbound, int depth);
+
+    /**
+     * An element was refused because the queue was full. Called
+     * before the peer's overflow policy is applied.
+     */
+    void overflow(Peer peer, boolean outbound);
+}
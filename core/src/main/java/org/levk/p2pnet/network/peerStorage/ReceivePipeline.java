@@ -0,0 +1,492 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.levk.p2pnet.metrics.PeerCounters;
+import org.levk.p2pnet.network.wire.FrameDecoder;
+import org.levk.p2pnet.network.wire.MessageCodec;
+import org.levk.p2pnet.network.wire.SeenCache;
+import org.levk.p2pnet.util.BufferPool;
+import org.levk.p2pnet.util.RingQueue;
+
+/**
+ * Staged receive path, so socket threads only copy bytes off and
+ * the work on them spreads across cores:
+ *
+ *  deframe    - reassembles frames, one worker per shard of peers
+ *  hash       - drops relayed frames already in the peer's seen cache
+ *  decompress - decodes the payload into a message
+ *  dispatch   - hands messages to the peer's MessageRegistry or
+ *               queues them, in arrival order, one worker per
+ *               shard of peers, and notifies the receive listener
+ *
+ * Stages are joined by bounded {@link RingQueue}s and hand off in
+ * batches. Hash and decompress take any frame on any worker, so one
+ * busy peer still uses every core. Each peer's frames are recorded
+ * in order by its deframe worker and released in that order by its
+ * dispatch worker once finished.
+ *
+ * A full ring blocks its producer, so a backed up pipeline slows the
+ * socket threads down rather than growing without bound. Idle workers
+ * and blocked producers park until signalled, they never poll.
+ */
+public final class ReceivePipeline {
+    public final static int DEFAULT_RING_SIZE = 4096;
+
+    /* Items taken off a ring per wake up */
+    public final static int BATCH = 64;
+
+    private final Stage<Chunk>[] deframe;
+    private final Stage<Item> hash;
+    private final Stage<Item> decompress;
+    private final Stage<Item>[] dispatch;
+
+    private final BufferPool pool;
+
+    /* Per dispatch worker, lanes that queued messages in the current batch */
+    private final ThreadLocal<IdentityHashMap<Lane, Lane>> notify;
+
+    /* Every lane, so frames still in flight can be released on shutdown */
+    private final Set<Lane> lanes;
+
+    private volatile boolean running;
+
+    public ReceivePipeline() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() / 4),
+                Runtime.getRuntime().availableProcessors(),
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 4),
+                DEFAULT_RING_SIZE);
+    }
+
+    /**
+     * @param shards - deframe and dispatch workers, each owning a share of the peers
+     * @param workers - hash and decompress workers, shared by all peers
+     * @param ringSize - capacity of each ring between stages
+     */
+    public ReceivePipeline(int shards, int workers, int ringSize) {
+        this(shards, workers, shards, ringSize);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private ReceivePipeline(int deframers, int workers, int dispatchers, int ringSize) {
+        if (deframers < 1 || workers < 1 || dispatchers < 1) throw new RuntimeException("Every pipeline stage needs at least one worker.");
+
+        this.pool = BufferPool.getDefault();
+        this.notify = ThreadLocal.withInitial(IdentityHashMap::new);
+        this.lanes = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+        this.running = true;
+
+        this.deframe = new Stage[deframers];
+        for (int i = 0; i < deframers; i++) {
+            deframe[i] = new Stage<>("p2pnet-rx-deframe-" + i, 1, ringSize, this::deframe);
+        }
+
+        this.hash = new Stage<>("p2pnet-rx-hash-", workers, ringSize, this::hash);
+        this.decompress = new Stage<>("p2pnet-rx-decompress-", workers, ringSize, this::decompress);
+
+        this.dispatch = new Stage[dispatchers];
+        for (int i = 0; i < dispatchers; i++) {
+            dispatch[i] = new Stage<>("p2pnet-rx-dispatch-" + i, 1, ringSize, this::dispatch);
+        }
+    }
+
+    /**
+     * Stops every worker and waits for them to exit. Frames still in
+     * flight are dropped and their buffers returned to the pool. Must
+     * not be called from a pipeline thread, such as a receive listener.
+     */
+    public synchronized void shutdown() {
+        if (!running) return;
+
+        for (Stage<Chunk> s : deframe) s.checkNotOwn();
+        hash.checkNotOwn();
+        decompress.checkNotOwn();
+        for (Stage<Item> s : dispatch) s.checkNotOwn();
+
+        running = false;
+
+        for (Stage<Chunk> s : deframe) s.stop();
+        hash.stop();
+        decompress.stop();
+        for (Stage<Item> s : dispatch) s.stop();
+
+        for (Stage<Chunk> s : deframe) s.join();
+        hash.join();
+        decompress.join();
+        for (Stage<Item> s : dispatch) s.join();
+
+        /* Every frame is in its lane's order until dispatched, so
+         * only chunks not yet deframed need releasing from the rings */
+        for (Stage<Chunk> s : deframe) {
+            Chunk chunk;
+            while ((chunk = s.ring.poll()) != null) pool.release(chunk.bytes);
+        }
+
+        synchronized (lanes) {
+            for (Lane lane : lanes) {
+                Item item;
+                while ((item = lane.order.poll()) != null) release(item);
+            }
+        }
+    }
+
+    Lane lane(Peer peer) {
+        int h = System.identityHashCode(peer);
+        Lane lane = new Lane(peer, Math.floorMod(h, deframe.length), Math.floorMod(h * 31 + 17, dispatch.length));
+        lanes.add(lane);
+        return lane;
+    }
+
+    /**
+     * One peer's route through the pipeline. Frames are recorded in
+     * order so dispatch can hold back any that finish early.
+     */
+    final class Lane implements Peer.FrameSink {
+        private final Peer peer;
+        private final Stage<Chunk> deframer;
+        private final Stage<Item> dispatcher;
+
+        /* Frames not yet dispatched, oldest first. Added to
+         * by the deframe worker, drained by the dispatch one. */
+        private final ConcurrentLinkedQueue<Item> order;
+
+        /* Set once the connection has failed, later input is dropped */
+        private volatile boolean failed;
+
+        Lane(Peer peer, int deframer, int dispatcher) {
+            this.peer = peer;
+            this.deframer = deframe[deframer];
+            this.dispatcher = dispatch[dispatcher];
+            this.order = new ConcurrentLinkedQueue<>();
+        }
+
+        /* Copies bytes off the socket thread */
+        void submit(ByteBuffer in) throws IOException {
+            if (failed) throw new IOException("The receive pipeline dropped this peer.");
+            if (!running) throw new IOException("The receive pipeline is shut down.");
+
+            ByteBuffer copy = pool.acquire(in.remaining());
+            copy.put(in);
+            copy.flip();
+
+            if (!deframer.put(new Chunk(this, copy))) {
+                pool.release(copy);
+                throw new IOException("The receive pipeline is shut down.");
+            }
+            deframer.wake();
+        }
+
+        /* Called by the deframe worker for each frame */
+        @Override
+        public int frame(ByteBuffer payload) {
+            ByteBuffer copy = pool.acquire(payload.remaining());
+            copy.put(payload);
+            copy.flip();
+
+            /* Left unqueued only if the pipeline shuts down,
+             * which then releases it from order */
+            Item item = new Item(this, copy);
+            order.add(item);
+            hash.put(item);
+            return 0;
+        }
+
+        void fail() {
+            if (failed) return;
+            failed = true;
+            peer.disconnect();
+        }
+    }
+
+    private final static class Chunk {
+        final Lane lane;
+        final ByteBuffer bytes;
+
+        Chunk(Lane lane, ByteBuffer bytes) {
+            this.lane = lane;
+            this.bytes = bytes;
+        }
+    }
+
+    private final static class Item {
+        final Lane lane;
+
+        /* The frame payload, held until dispatched */
+        final ByteBuffer payload;
+
+        /* The decoded message, the payload itself if it was
+         * sent raw, or null if the frame was dropped */
+        ByteBuffer body;
+
+        /* Whether the message starts with a type id */
+        boolean typed;
+
+        volatile boolean done;
+
+        Item(Lane lane, ByteBuffer payload) {
+            this.lane = lane;
+            this.payload = payload;
+        }
+    }
+
+    private void deframe(Object[] batch, int n) {
+        for (int i = 0; i < n; i++) {
+            Chunk chunk = (Chunk)batch[i];
+            Lane lane = chunk.lane;
+
+            try {
+                if (!lane.failed) lane.peer.deframe(chunk.bytes, lane);
+            } catch (IOException | RuntimeException e) {
+                lane.fail();
+            } finally {
+                pool.release(chunk.bytes);
+            }
+        }
+
+        hash.wake();
+    }
+
+    private void hash(Object[] batch, int n) {
+        for (int i = 0; i < n; i++) {
+            Item item = (Item)batch[i];
+            SeenCache seen = item.lane.peer.getSeenCache();
+
+            if (seen != null && MessageCodec.isRelayed(item.payload) && !seen.add(item.payload)) {
+                item.lane.peer.getCounters().increment(PeerCounters.DUPLICATES_IN);
+                finish(item);
+                continue;
+            }
+
+            decompress.put(item);
+        }
+
+        decompress.wake();
+        wakeDispatch(batch, n);
+    }
+
+    private void decompress(Object[] batch, int n) {
+        for (int i = 0; i < n; i++) {
+            Item item = (Item)batch[i];
+
+            try {
+                item.typed = MessageCodec.isTyped(item.payload);
+                item.body = MessageCodec.decodeBody(item.payload, pool, FrameDecoder.DEFAULT_MAX_LENGTH);
+            } catch (IOException | RuntimeException e) {
+                item.lane.fail();
+            }
+
+            finish(item);
+        }
+
+        wakeDispatch(batch, n);
+    }
+
+    /* Passes the item on to its lane's dispatch worker */
+    private void finish(Item item) {
+        item.done = true;
+        item.lane.dispatcher.put(item);
+    }
+
+    private void release(Item item) {
+        if (item.body != null && item.body != item.payload) pool.release(item.body);
+        pool.release(item.payload);
+        item.body = null;
+    }
+
+    private void wakeDispatch(Object[] batch, int n) {
+        for (Stage<Item> s : dispatch) {
+            for (int i = 0; i < n; i++) {
+                if (((Item)batch[i]).lane.dispatcher == s) {
+                    s.wake();
+                    break;
+                }
+            }
+        }
+    }
+
+    private void dispatch(Object[] batch, int n) {
+        IdentityHashMap<Lane, Lane> queued = notify.get();
+
+        for (int i = 0; i < n; i++) {
+            Lane lane = ((Item)batch[i]).lane;
+
+            /* Release finished frames from the front only */
+            Item head;
+            while ((head = lane.order.peek()) != null && head.done) {
+                lane.order.poll();
+
+                try {
+                    if (head.body != null && !lane.failed && lane.peer.offerReceived(head.body, head.typed)) queued.put(lane, lane);
+                } catch (IOException | RuntimeException e) {
+                    lane.fail();
+                } finally {
+                    release(head);
+                }
+            }
+        }
+
+        for (Lane lane : queued.keySet()) {
+            Runnable listener = lane.peer.getReceiveListener();
+            if (listener != null) listener.run();
+        }
+
+        queued.clear();
+    }
+
+    private interface Handler {
+        void handle(Object[] batch, int n);
+    }
+
+    /**
+     * A ring and the workers draining it in batches. Producers put
+     * items, then wake the stage once per batch.
+     */
+    private final class Stage<T> {
+        private final RingQueue<T> ring;
+        private final Handler handler;
+        private final Thread[] threads;
+
+        /* 1 while the worker is parked on an empty ring */
+        private final AtomicIntegerArray idle;
+
+        /* Producers waiting on a full ring, signalled by
+         * workers once they have taken items off it */
+        private final ReentrantLock lock;
+        private final Condition notFull;
+        private final AtomicInteger blocked;
+
+        Stage(String name, int workers, int capacity, Handler handler) {
+            this.ring = new RingQueue<>(capacity);
+            this.handler = handler;
+            this.threads = new Thread[workers];
+            this.idle = new AtomicIntegerArray(workers);
+            this.lock = new ReentrantLock();
+            this.notFull = lock.newCondition();
+            this.blocked = new AtomicInteger();
+
+            for (int i = 0; i < workers; i++) {
+                final int index = i;
+                Thread thread = new Thread(() -> work(index), (workers > 1) ? name + i : name);
+                thread.setDaemon(true);
+                threads[i] = thread;
+            }
+
+            for (Thread thread : threads) {
+                thread.start();
+            }
+        }
+
+        /* Blocks while the ring is full. Returns false,
+         * without queueing, once the pipeline is shut down. */
+        boolean put(T item) {
+            if (ring.offer(item)) return true;
+
+            /* Counted before retrying, so a worker taking items
+             * off either frees room for the retry or signals */
+            blocked.incrementAndGet();
+            lock.lock();
+            try {
+                while (!ring.offer(item)) {
+                    if (!running) return false;
+
+                    wake();
+                    notFull.awaitUninterruptibly();
+                }
+                return true;
+            } finally {
+                lock.unlock();
+                blocked.decrementAndGet();
+            }
+        }
+
+        /* Unparks one idle worker */
+        void wake() {
+            for (int i = 0; i < threads.length; i++) {
+                if (idle.get(i) == 1 && idle.compareAndSet(i, 1, 0)) {
+                    LockSupport.unpark(threads[i]);
+                    return;
+                }
+            }
+        }
+
+        private void work(int index) {
+            Object[] batch = new Object[BATCH];
+
+            while (running) {
+                int n = 0;
+                T item;
+                while (n < BATCH && (item = ring.poll()) != null) {
+                    batch[n++] = item;
+                }
+
+                if (n == 0) {
+                    /* Every put is followed by a wake, which finds
+                     * this flag set and unparks, so a put racing
+                     * with the check below is never missed */
+                    idle.set(index, 1);
+                    if (ring.isEmpty() && running) LockSupport.park(this);
+                    idle.set(index, 0);
+                    continue;
+                }
+
+                if (blocked.get() > 0) signalNotFull();
+
+                /* More waiting than this worker took, let another help */
+                if (n == BATCH && threads.length > 1) wake();
+
+                handler.handle(batch, n);
+                Arrays.fill(batch, 0, n, null);
+            }
+        }
+
+        private void signalNotFull() {
+            lock.lock();
+            try {
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /* Wakes every worker and blocked producer to see running is false */
+        void stop() {
+            signalNotFull();
+            for (Thread thread : threads) LockSupport.unpark(thread);
+        }
+
+        void checkNotOwn() {
+            for (Thread thread : threads) {
+                if (thread == Thread.currentThread()) throw new RuntimeException("A receive pipeline cannot be shut down from its own thread.");
+            }
+        }
+
+        void join() {
+            boolean interrupted = false;
+
+            for (Thread thread : threads) {
+                while (true) {
+                    try {
+                        thread.join();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+}
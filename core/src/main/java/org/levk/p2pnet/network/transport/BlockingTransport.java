@@ -0,0 +1,253 @@
+package org.levk.p2pnet.network.transport;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import org.levk.p2pnet.metrics.Metrics;
+import org.levk.p2pnet.metrics.PeerCounters;
+import org.levk.p2pnet.network.peerStorage.AdmissionTable;
+import org.levk.p2pnet.network.peerStorage.Peer;
+import org.levk.p2pnet.network.wire.Frame;
+import org.levk.p2pnet.util.BytesWriter;
+
+/**
+ * Thread-per-connection transport over blocking socket streams.
+ * Every peer gets a read loop and a write loop on threads from the
+ * given factory, meant to be virtual threads, so the code stays
+ * plain blocking I/O while still scaling to many connections.
+ */
+public class BlockingTransport implements PeerTransport {
+    private final ThreadFactory threads;
+    private final TransportListener listener;
+    private final Set<ServerSocket> servers;
+    private final Set<BlockingConnection> connections;
+
+    private volatile AdmissionTable admission;
+    private volatile boolean running;
+
+    public BlockingTransport(ThreadFactory threads, TransportListener listener) {
+        this.threads = threads;
+        this.listener = listener;
+        this.servers = ConcurrentHashMap.newKeySet();
+        this.connections = ConcurrentHashMap.newKeySet();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public InetSocketAddress listen(InetSocketAddress local) throws IOException {
+        ServerSocket server = new ServerSocket();
+        server.bind(local);
+        servers.add(server);
+
+        threads.newThread(() -> acceptLoop(server)).start();
+
+        return (InetSocketAddress)server.getLocalSocketAddress();
+    }
+
+    @Override
+    public void connect(InetSocketAddress remote, Peer peer) throws IOException {
+        Socket socket = new Socket();
+        socket.connect(remote);
+
+        bind(socket, peer, null);
+    }
+
+    @Override
+    public void setAdmissionTable(AdmissionTable table) {
+        this.admission = table;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+
+        for (ServerSocket server : servers) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        for (BlockingConnection connection : connections) {
+            connection.close(null);
+        }
+    }
+
+    private void acceptLoop(ServerSocket server) {
+        while (running && !server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                InetSocketAddress remote = (InetSocketAddress)socket.getRemoteSocketAddress();
+                AdmissionTable table = admission;
+                byte[] ip = remote.getAddress().getAddress();
+
+                if (table != null && !table.tryAdmit(ip)) {
+                    socket.close();
+                    continue;
+                }
+
+                /* The slot is the connection's to release once bound,
+                 * until then it is released here whatever fails */
+                Runnable release = (table != null) ? () -> table.release(ip) : null;
+                boolean bound = false;
+
+                try {
+                    Peer peer = listener.accepted(remote);
+
+                    if (peer != null) {
+                        bind(socket, peer, release);
+                        bound = true;
+                    }
+                } finally {
+                    if (!bound) {
+                        if (release != null) release.run();
+                        socket.close();
+                    }
+                }
+            } catch (SocketException e) {
+                /* Server socket closed, or a failure on the accepted socket */
+                if (server.isClosed()) return;
+                e.printStackTrace();
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void bind(Socket socket, Peer peer, Runnable onClose) throws IOException {
+        socket.setTcpNoDelay(true);
+
+        BlockingConnection connection = new BlockingConnection(socket, peer, onClose);
+        connections.add(connection);
+        connection.start();
+    }
+
+    private final class BlockingConnection {
+        private final Socket socket;
+        private final Peer peer;
+        private final AtomicBoolean closed;
+        private final Runnable onClose;
+
+        private Thread writer;
+
+        BlockingConnection(Socket socket, Peer peer, Runnable onClose) {
+            this.socket = socket;
+            this.peer = peer;
+            this.onClose = onClose;
+            this.closed = new AtomicBoolean();
+        }
+
+        void start() {
+            writer = threads.newThread(this::writeLoop);
+
+            peer.setSendListener(() -> LockSupport.unpark(writer));
+            peer.setDisconnectListener(() -> close(new IOException("Send queue overflow.")));
+            peer.setReceiveListener(() -> listener.received(peer));
+            Metrics.get().register(peer);
+
+            writer.start();
+            threads.newThread(this::readLoop).start();
+        }
+
+        private void readLoop() {
+            byte[] buffer = new byte[Peer.BUFFER_SIZE];
+
+            try (InputStream in = socket.getInputStream()) {
+                int n;
+                while ((n = in.read(buffer)) >= 0) {
+                    if (peer.receive(ByteBuffer.wrap(buffer, 0, n)) > 0) listener.received(peer);
+                }
+
+                close(null);
+            } catch (IOException e) {
+                close(e);
+            } catch (RuntimeException e) {
+                close(new IOException(e));
+            }
+        }
+
+        private void writeLoop() {
+            byte[] scratch = new byte[Peer.BUFFER_SIZE];
+            BytesWriter writer = new BytesWriter();
+
+            try {
+                /* Chunk headers are single byte slices, so
+                 * they are coalesced before reaching the socket */
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream(), Peer.BUFFER_SIZE);
+
+                while (!closed.get()) {
+                    Frame frame = peer.pollForSend();
+
+                    if (frame == null) {
+                        out.flush();
+                        LockSupport.park(this);
+                        continue;
+                    }
+
+                    try {
+                        int piece = 0;
+
+                        while (piece < frame.pieces()) {
+                            writer.clear();
+                            piece = frame.fill(writer, piece);
+
+                            long n = writer.remaining();
+                            writer.write(out, scratch);
+                            peer.getCounters().add(PeerCounters.BYTES_OUT, n);
+                        }
+
+                        peer.getCounters().increment(PeerCounters.FRAMES_OUT);
+                    } finally {
+                        writer.clear();
+                        frame.release();
+                    }
+                }
+            } catch (IOException e) {
+                close(e);
+            } catch (RuntimeException e) {
+                close(new IOException(e));
+            }
+        }
+
+        void close(IOException cause) {
+            if (!closed.compareAndSet(false, true)) return;
+
+            connections.remove(this);
+            peer.setSendListener(null);
+            peer.setDisconnectListener(null);
+            peer.setReceiveListener(null);
+            Metrics.get().unregister(peer);
+            LockSupport.unpark(writer);
+
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            peer.discardSendQueue();
+            if (onClose != null) onClose.run();
+
+            /* Closing the socket fails the other loop too,
+             * only the first cause is reported */
+            listener.closed(peer, cause);
+        }
+    }
+}
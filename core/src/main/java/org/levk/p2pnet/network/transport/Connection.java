@@ -0,0 +1,205 @@
+package org.levk.p2pnet.network.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.levk.p2pnet.metrics.Metrics;
+import org.levk.p2pnet.metrics.PeerCounters;
+import org.levk.p2pnet.network.peerStorage.Peer;
+import org.levk.p2pnet.network.wire.Frame;
+import org.levk.p2pnet.network.wire.MessageClass;
+import org.levk.p2pnet.util.BytesWriter;
+
+/**
+ * A socket bound to a peer. Only ever touched from its
+ * event loop's thread, apart from {@link #requestFlush()}.
+ */
+final class Connection {
+    private final EventLoop loop;
+    private final SocketChannel channel;
+    private final Peer peer;
+
+    private SelectionKey key;
+
+    /* The frame currently being written, if it
+     * did not fit into the socket buffer, the
+     * slices of it described so far and the next
+     * piece to describe. */
+    private Frame frame;
+    private final BytesWriter writing;
+    private int piece;
+
+    /* Coalesces flush requests from producer threads */
+    private final AtomicBoolean flushPending;
+
+    private boolean closed;
+
+    /* Run on close, such as giving back an admission slot */
+    private final Runnable onClose;
+
+    /* Outbound scheduler state, see OutboundScheduler */
+    boolean scheduled;
+    long deficit;
+    int activity;
+
+    /* drain() results */
+    final static int EMPTY = 0;
+    final static int MORE = 1;
+    final static int BLOCKED = 2;
+
+    Connection(EventLoop loop, SocketChannel channel, Peer peer, Runnable onClose) {
+        this.loop = loop;
+        this.channel = channel;
+        this.peer = peer;
+        this.onClose = onClose;
+        this.flushPending = new AtomicBoolean();
+        this.writing = new BytesWriter();
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    void requestFlush() {
+        if (flushPending.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                flushPending.set(false);
+                flush();
+            });
+        }
+    }
+
+    /* Closes the connection from any thread, used
+     * by the peer's overflow policy */
+    void requestClose() {
+        loop.execute(() -> close(new IOException("Send queue overflow.")));
+    }
+
+    void finishConnect() throws IOException {
+        if (channel.finishConnect()) {
+            key.interestOps(SelectionKey.OP_READ);
+            flush();
+        }
+    }
+
+    Peer getPeer() {
+        return peer;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void read(ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        int n = channel.read(buffer);
+
+        if (n < 0) {
+            close(null);
+            return;
+        }
+
+        buffer.flip();
+        if (peer.receive(buffer) > 0) {
+            loop.getTransport().getListener().received(peer);
+        }
+    }
+
+    /**
+     * Hands the connection to the loop's scheduler if it has
+     * anything to send.
+     */
+    void flush() {
+        if (closed || !channel.isConnected()) return;
+        loop.getScheduler().activate(this);
+    }
+
+    /**
+     * @return the class of the next frame to write, polling it if needed
+     */
+    MessageClass headClass() {
+        if (frame == null) nextFrame();
+
+        return (frame != null) ? frame.getMessageClass() : MessageClass.NORMAL;
+    }
+
+    /* Takes the next queued frame and describes its first window */
+    private boolean nextFrame() {
+        frame = peer.pollForSend();
+        if (frame == null) return false;
+
+        writing.clear();
+        piece = frame.fill(writing, 0);
+        return true;
+    }
+
+    /**
+     * Writes up to deficit bytes of queued frames, gathering each
+     * window of a frame's slices into one write, and spends them
+     * from the deficit. Sets write interest if the socket fills.
+     *
+     * @return EMPTY, MORE or BLOCKED
+     */
+    int drain() throws IOException {
+        while (deficit > 0) {
+            if (frame == null && !nextFrame()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                return EMPTY;
+            }
+
+            long allowed = Math.min(writing.remaining(), deficit);
+            long n = writing.write(channel, allowed);
+
+            deficit -= n;
+            peer.getCounters().add(PeerCounters.BYTES_OUT, n);
+
+            if (n < allowed) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return BLOCKED;
+            }
+
+            if (!writing.hasRemaining()) {
+                if (piece < frame.pieces()) {
+                    writing.clear();
+                    piece = frame.fill(writing, piece);
+                    continue;
+                }
+
+                peer.getCounters().increment(PeerCounters.FRAMES_OUT);
+                frame.release();
+                frame = null;
+                writing.clear();
+            }
+        }
+
+        return MORE;
+    }
+
+    void close(IOException cause) {
+        if (closed) return;
+        closed = true;
+
+        peer.setSendListener(null);
+        peer.setDisconnectListener(null);
+        peer.setReceiveListener(null);
+        Metrics.get().unregister(peer);
+        if (key != null) key.cancel();
+
+        if (frame != null) frame.release();
+        frame = null;
+        writing.clear();
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        peer.discardSendQueue();
+        if (onClose != null) onClose.run();
+        loop.getTransport().getListener().closed(peer, cause);
+    }
+}
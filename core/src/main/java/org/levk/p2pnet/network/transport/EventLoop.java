@@ -0,0 +1,206 @@
+package org.levk.p2pnet.network.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.levk.p2pnet.metrics.Metrics;
+import org.levk.p2pnet.network.peerStorage.Peer;
+
+/**
+ * One selector thread. Channel registration and interest changes
+ * requested from other threads are queued as tasks and run between
+ * selects. Writes are interleaved across connections by an
+ * {@link OutboundScheduler}.
+ */
+final class EventLoop implements Runnable {
+    private final Transport transport;
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks;
+    private final OutboundScheduler scheduler;
+
+    /* Shared by every connection on this loop. Peers copy
+     * what they read into their own frame decoder, so the
+     * buffer never has to outlive a single read. */
+    private final ByteBuffer readBuffer;
+
+    private volatile boolean running;
+
+    EventLoop(Transport transport, String name) throws IOException {
+        this.transport = transport;
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.scheduler = new OutboundScheduler(transport.getWeights());
+        this.readBuffer = ByteBuffer.allocateDirect(Peer.BUFFER_SIZE);
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        running = true;
+        thread.start();
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) selector.wakeup();
+    }
+
+    void register(SelectableChannel channel, int ops, Object attachment) {
+        execute(() -> {
+            try {
+                channel.register(selector, ops, attachment);
+            } catch (ClosedChannelException e) {
+                /* Closed before it could be registered */
+            }
+        });
+    }
+
+    /**
+     * @param onClose - run once the connection closes, or null
+     */
+    void bind(SocketChannel channel, Peer peer, int ops, Runnable onClose) {
+        Connection connection = new Connection(this, channel, peer, onClose);
+
+        execute(() -> {
+            try {
+                connection.setKey(channel.register(selector, ops, connection));
+                peer.setSendListener(connection::requestFlush);
+                peer.setDisconnectListener(connection::requestClose);
+                peer.setReceiveListener(() -> transport.getListener().received(peer));
+                Metrics.get().register(peer);
+                connection.flush();
+            } catch (IOException e) {
+                connection.close(e);
+            }
+        });
+    }
+
+    Transport getTransport() {
+        return transport;
+    }
+
+    OutboundScheduler getScheduler() {
+        return scheduler;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                /* Tasks queued from this thread don't wake the
+                 * selector, and pending writes must not wait on it */
+                if (tasks.isEmpty() && scheduler.isIdle()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                break;
+            }
+
+            runTasks();
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                handle(key);
+            }
+
+            scheduler.run();
+        }
+
+        closeAll();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        Object attachment = key.attachment();
+
+        if (attachment instanceof ServerSocketChannel) {
+            accept((ServerSocketChannel)attachment);
+            return;
+        }
+
+        Connection connection = (Connection)attachment;
+
+        /* Anything a peer's input can make go wrong closes
+         * that peer only, never the loop */
+        try {
+            if (key.isValid() && key.isConnectable()) connection.finishConnect();
+            if (key.isValid() && key.isReadable()) connection.read(readBuffer);
+            if (key.isValid() && key.isWritable()) connection.flush();
+        } catch (IOException e) {
+            connection.close(e);
+        } catch (RuntimeException e) {
+            connection.close(new IOException(e));
+        }
+    }
+
+    private void accept(ServerSocketChannel server) {
+        try {
+            SocketChannel channel;
+            while ((channel = server.accept()) != null) {
+                try {
+                    transport.accept(channel);
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                    channel.close();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+
+            if (attachment instanceof Connection) {
+                ((Connection)attachment).close(null);
+            } else {
+                try {
+                    key.channel().close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.levk.p2pnet.network.transport;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * Deficit round-robin over the connections of one event loop.
+ *
+ * A connection with frames queued joins the round. On each turn
+ * its deficit grows by QUANTUM times its weight and it writes up
+ * to that many bytes, keeping whatever it did not use while it
+ * still has frames. Connections whose queue empties leave the
+ * round and lose their deficit, ones whose socket fills wait for
+ * write readiness. A peer's stream of bytes is its own, so frames
+ * may be split across turns.
+ *
+ * Each pass writes at most PASS_BUDGET bytes before the loop goes
+ * back to reading. Only touched from the loop's thread.
+ */
+final class OutboundScheduler {
+    /* Bytes per unit of weight per turn */
+    final static int QUANTUM = 4096;
+
+    /* Bytes written per pass over the round */
+    final static long PASS_BUDGET = 1024 * 1024;
+
+    private final SchedulerWeights weights;
+    private final ArrayDeque<Connection> round;
+
+    OutboundScheduler(SchedulerWeights weights) {
+        this.weights = weights;
+        this.round = new ArrayDeque<>();
+    }
+
+    /**
+     * Adds a connection with frames to send to the round.
+     */
+    void activate(Connection connection) {
+        if (connection.scheduled) return;
+
+        connection.scheduled = true;
+        connection.deficit = 0;
+        connection.activity = weights.activityWeight(connection.getPeer());
+        round.add(connection);
+    }
+
+    boolean isIdle() {
+        return round.isEmpty();
+    }
+
+    /**
+     * Gives turns until the round is empty or the pass budget is spent.
+     */
+    void run() {
+        long budget = PASS_BUDGET;
+
+        while (budget > 0 && !round.isEmpty()) {
+            Connection c = round.poll();
+
+            if (c.isClosed()) {
+                c.scheduled = false;
+                continue;
+            }
+
+            int weight = c.activity * weights.getClassWeight(c.headClass());
+            c.deficit += (long)QUANTUM * weight;
+
+            int state;
+            long before = c.deficit;
+
+            try {
+                state = c.drain();
+            } catch (IOException e) {
+                c.scheduled = false;
+                c.close(e);
+                continue;
+            } catch (RuntimeException e) {
+                c.scheduled = false;
+                c.close(new IOException(e));
+                continue;
+            }
+
+            budget -= before - c.deficit;
+
+            if (state == Connection.MORE) {
+                round.add(c);
+            } else {
+                c.scheduled = false;
+                c.deficit = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.levk.p2pnet.network.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.levk.p2pnet.network.peerStorage.AdmissionTable;
+import org.levk.p2pnet.network.peerStorage.Peer;
+
+/**
+ * Moves frames between sockets and peers. Implementations differ
+ * only in their execution model, see {@link TransportMode}.
+ */
+public interface PeerTransport extends Closeable {
+    void start();
+
+    /**
+     * Starts accepting inbound connections.
+     *
+     * @param local - address to bind, port 0 picks an ephemeral port
+     * @return the bound address
+     */
+    InetSocketAddress listen(InetSocketAddress local) throws IOException;
+
+    /**
+     * Opens an outbound connection and binds it to the given peer.
+     */
+    void connect(InetSocketAddress remote, Peer peer) throws IOException;
+
+    /**
+     * Counts inbound connections by subnet from now on, and refuses
+     * those over its limits before the listener hears of them.
+     *
+     * @param table - the limits to apply, or null for none
+     */
+    void setAdmissionTable(AdmissionTable table);
+
+    @Override
+    void close();
+}
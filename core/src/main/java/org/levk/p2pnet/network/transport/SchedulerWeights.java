@@ -0,0 +1,63 @@
+package org.levk.p2pnet.network.transport;
+
+import org.levk.p2pnet.network.peerStorage.Peer;
+import org.levk.p2pnet.network.wire.MessageClass;
+
+/**
+ * Weights the outbound scheduler gives each peer's turn. A turn's
+ * weight is the weight of the class of the peer's next frame times
+ * an activity weight: inactive and spammy peers get 1, other peers
+ * 1 plus one step per ACTIVITY_STEP messages seen in the rate
+ * window, up to a cap.
+ *
+ * Changes take effect from each peer's next backlog.
+ */
+public final class SchedulerWeights {
+    /* Messages per Peer.RATE_REF for each step of activity bonus */
+    public final static int ACTIVITY_STEP = 60;
+
+    /* Weight by class ordinal. Never written once published,
+     * updates replace the whole array so reads take no lock. */
+    private volatile int[] classWeights;
+    private volatile int maxActivityBonus;
+
+    public SchedulerWeights() {
+        int[] weights = new int[MessageClass.values().length];
+        weights[MessageClass.CONTROL.ordinal()] = 8;
+        weights[MessageClass.NORMAL.ordinal()] = 4;
+        weights[MessageClass.BULK.ordinal()] = 1;
+
+        this.classWeights = weights;
+        this.maxActivityBonus = 3;
+    }
+
+    public synchronized void setClassWeight(MessageClass messageClass, int weight) {
+        if (weight < 1) throw new RuntimeException("Scheduler weights must be positive.");
+
+        int[] weights = classWeights.clone();
+        weights[messageClass.ordinal()] = weight;
+        classWeights = weights;
+    }
+
+    public int getClassWeight(MessageClass messageClass) {
+        return classWeights[messageClass.ordinal()];
+    }
+
+    public void setMaxActivityBonus(int bonus) {
+        if (bonus < 0) throw new RuntimeException("The activity bonus cannot be negative.");
+        this.maxActivityBonus = bonus;
+    }
+
+    public int getMaxActivityBonus() {
+        return maxActivityBonus;
+    }
+
+    /**
+     * @return the activity part of a peer's weight
+     */
+    public int activityWeight(Peer peer) {
+        if (peer.isInactive() || peer.isSpammy()) return 1;
+
+        return 1 + Math.min(maxActivityBonus, peer.getRate() / ACTIVITY_STEP);
+    }
+}
@@ -0,0 +1,140 @@
+package org.levk.p2pnet.network.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.levk.p2pnet.network.peerStorage.AdmissionTable;
+import org.levk.p2pnet.network.peerStorage.Peer;
+
+/**
+ * Non-blocking socket transport. A small, fixed number of
+ * {@link EventLoop}s each multiplex many connections over one
+ * selector, so the number of threads does not grow with the
+ * number of peers. Each loop shares its outbound bandwidth
+ * between peers by deficit round-robin, see {@link SchedulerWeights}.
+ */
+public class Transport implements PeerTransport {
+    private final EventLoop[] loops;
+    private final AtomicInteger next;
+    private final TransportListener listener;
+    private final SchedulerWeights weights;
+    private volatile AdmissionTable admission;
+
+    public Transport(int threads, TransportListener listener) throws IOException {
+        this(threads, listener, new SchedulerWeights());
+    }
+
+    public Transport(int threads, TransportListener listener, SchedulerWeights weights) throws IOException {
+        if (threads < 1) throw new RuntimeException("A transport needs at least one selector thread.");
+
+        this.listener = listener;
+        this.weights = weights;
+        this.next = new AtomicInteger();
+        this.loops = new EventLoop[threads];
+
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new EventLoop(this, "p2pnet-io-" + i);
+        }
+    }
+
+    @Override
+    public void start() {
+        for (EventLoop loop : loops) {
+            loop.start();
+        }
+    }
+
+    /**
+     * Starts accepting inbound connections.
+     *
+     * @param local - address to bind, port 0 picks an ephemeral port
+     * @return the bound address
+     */
+    @Override
+    public InetSocketAddress listen(InetSocketAddress local) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.configureBlocking(false);
+        server.bind(local);
+
+        loops[0].register(server, SelectionKey.OP_ACCEPT, server);
+
+        return (InetSocketAddress)server.getLocalAddress();
+    }
+
+    /**
+     * Opens an outbound connection and binds it to the given peer.
+     */
+    @Override
+    public void connect(InetSocketAddress remote, Peer peer) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        configure(channel);
+
+        int ops = channel.connect(remote) ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT;
+        nextLoop().bind(channel, peer, ops, null);
+    }
+
+    public SchedulerWeights getWeights() {
+        return weights;
+    }
+
+    @Override
+    public void setAdmissionTable(AdmissionTable table) {
+        this.admission = table;
+    }
+
+    void accept(SocketChannel channel) throws IOException {
+        InetSocketAddress remote = (InetSocketAddress)channel.getRemoteAddress();
+        AdmissionTable table = admission;
+        byte[] ip = remote.getAddress().getAddress();
+
+        if (table != null && !table.tryAdmit(ip)) {
+            channel.close();
+            return;
+        }
+
+        /* The slot is the connection's to release once bound,
+         * until then it is released here whatever fails */
+        Runnable release = (table != null) ? () -> table.release(ip) : null;
+        boolean bound = false;
+
+        try {
+            Peer peer = listener.accepted(remote);
+
+            if (peer == null) {
+                channel.close();
+                return;
+            }
+
+            configure(channel);
+            nextLoop().bind(channel, peer, SelectionKey.OP_READ, release);
+            bound = true;
+        } finally {
+            if (!bound && release != null) release.run();
+        }
+    }
+
+    TransportListener getListener() {
+        return listener;
+    }
+
+    private EventLoop nextLoop() {
+        return loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+    }
+
+    private static void configure(SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    @Override
+    public void close() {
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.levk.p2pnet.network.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.levk.p2pnet.network.peerStorage.Peer;
+
+/**
+ * Callbacks from a {@link Transport}. All of them run on a
+ * selector thread, so they must not block. For peers with a
+ * ReceivePipeline, received runs on the pipeline's dispatch
+ * workers instead.
+ */
+public interface TransportListener {
+    /**
+     * @param remote - address of the connecting node
+     * @return the peer to bind the connection to, or null to reject it
+     */
+    Peer accepted(InetSocketAddress remote);
+
+    /**
+     * Called after one or more messages from the peer were queued
+     * and can be taken with {@link Peer#pollReceived()}.
+     */
+    void received(Peer peer);
+
+    /**
+     * @param cause - the error that closed the connection, or null
+     *      if the remote end closed it
+     */
+    void closed(Peer peer, IOException cause);
+}
@@ -0,0 +1,76 @@
+package org.levk.p2pnet.network.transport;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection handling modes, selected at startup with the
+ * p2pnet.transport system property (selector, virtual or platform).
+ */
+public enum TransportMode {
+    /* A few selector threads multiplexing all sockets */
+    SELECTOR,
+
+    /* Blocking streams, a read and a write loop per peer on virtual threads */
+    VIRTUAL,
+
+    /* Blocking streams on ordinary threads, for comparison */
+    PLATFORM;
+
+    public final static String PROPERTY = "p2pnet.transport";
+
+    /**
+     * @return the mode named by the system property, SELECTOR if unset
+     */
+    public static TransportMode fromSystemProperty() {
+        String mode = System.getProperty(PROPERTY);
+        if (mode == null || mode.isEmpty()) return SELECTOR;
+
+        return valueOf(mode.trim().toUpperCase());
+    }
+
+    /**
+     * @param threads - number of selector threads, ignored by the blocking modes
+     */
+    public PeerTransport create(int threads, TransportListener listener) throws IOException {
+        switch (this) {
+            case VIRTUAL:
+                return new BlockingTransport(virtualThreadFactory(), listener);
+            case PLATFORM:
+                return new BlockingTransport(platformThreadFactory(), listener);
+            default:
+                return new Transport(threads, listener);
+        }
+    }
+
+    /**
+     * Virtual threads need JDK 21, this builds against Java 10, so the
+     * factory is looked up reflectively. Falls back to platform threads
+     * on older runtimes.
+     */
+    static ThreadFactory virtualThreadFactory() {
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Object ofVirtual = Thread.class.getMethod("ofVirtual").invoke(null);
+
+            Method name = builder.getMethod("name", String.class, long.class);
+            Object named = name.invoke(ofVirtual, "p2pnet-vt-", 0L);
+
+            return (ThreadFactory)builder.getMethod("factory").invoke(named);
+        } catch (ReflectiveOperationException e) {
+            return platformThreadFactory();
+        }
+    }
+
+    static ThreadFactory platformThreadFactory() {
+        AtomicInteger count = new AtomicInteger();
+
+        return r -> {
+            Thread thread = new Thread(r, "p2pnet-conn-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
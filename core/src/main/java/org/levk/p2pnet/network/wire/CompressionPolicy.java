@@ -0,0 +1,86 @@
+package org.levk.p2pnet.network.wire;
+
+/**
+ * Decides per message whether and how to compress. Small messages
+ * and payloads that look already compressed are sent raw, large
+ * ones use Snappy's framed stream format so neither side has to
+ * hold a second full-size copy in a single block.
+ */
+public final class CompressionPolicy {
+    /* Compression modes, carried in the first byte of every frame */
+    public final static byte RAW = 0x00;
+    public final static byte SNAPPY = 0x01;
+    public final static byte SNAPPY_FRAMED = 0x02;
+
+    public final static CompressionPolicy DEFAULT = new CompressionPolicy(128, 1024 * 1024, 1024, 200);
+
+    /* Always sends raw, for links where CPU matters more than bytes */
+    public final static CompressionPolicy NEVER = new CompressionPolicy(Integer.MAX_VALUE, Integer.MAX_VALUE, 1024, 256);
+
+    /* Messages shorter than this are sent raw */
+    private final int minSize;
+
+    /* Messages at least this long use the framed stream format */
+    private final int streamSize;
+
+    /* Number of bytes sampled by the incompressibility probe */
+    private final int probeSize;
+
+    /* Distinct byte values in the sample above which the
+     * message is treated as already compressed */
+    private final int maxDistinct;
+
+    public CompressionPolicy(int minSize, int streamSize, int probeSize, int maxDistinct) {
+        this.minSize = minSize;
+        this.streamSize = streamSize;
+        this.probeSize = probeSize;
+        this.maxDistinct = maxDistinct;
+    }
+
+    /**
+     * @return the compression mode to use for the message
+     */
+    public byte choose(byte[] message, int offset, int length) {
+        if (length < minSize) return RAW;
+        if (looksIncompressible(message, offset, length)) return RAW;
+        if (length >= streamSize) return SNAPPY_FRAMED;
+
+        return SNAPPY;
+    }
+
+    /**
+     * Counts distinct byte values over an evenly strided sample.
+     * Compressed and encrypted data use nearly all 256 values even
+     * in a small sample, text and structured records use far fewer.
+     * Messages shorter than the probe are not judged.
+     */
+    public boolean looksIncompressible(byte[] message, int offset, int length) {
+        if (length < probeSize) return false;
+
+        int stride = length / probeSize;
+        long seen0 = 0, seen1 = 0, seen2 = 0, seen3 = 0;
+
+        for (int i = 0; i < probeSize; i++) {
+            int b = message[offset + i * stride] & 0xFF;
+            long bit = 1L << (b & 63);
+
+            switch (b >>> 6) {
+                case 0: seen0 |= bit; break;
+                case 1: seen1 |= bit; break;
+                case 2: seen2 |= bit; break;
+                default: seen3 |= bit; break;
+            }
+        }
+
+        int distinct = Long.bitCount(seen0) + Long.bitCount(seen1) + Long.bitCount(seen2) + Long.bitCount(seen3);
+        return distinct > maxDistinct;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getStreamSize() {
+        return streamSize;
+    }
+}
@@ -0,0 +1,147 @@
+package org.levk.p2pnet.network.wire;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.levk.p2pnet.util.BufferPool;
+import org.levk.p2pnet.util.BytesWriter;
+
+import static org.levk.p2pnet.network.wire.FrameEncoder.PAYLOAD_SIZE;
+
+/**
+ * An immutable frame in a pooled buffer, shared by every outbound
+ * queue it was handed to. Each holder calls {@link #release()} once
+ * it is done, the buffer goes back to the pool with the last one.
+ *
+ * The buffer holds either the encoded frame, or just its payload.
+ * A payload is never copied into chunks: {@link #fill(BytesWriter, int)}
+ * describes each chunk as a header byte, a region of the payload and,
+ * for the last one, padding, to be written with a gathering write.
+ * The writer's reusable views cover the regions, so describing a
+ * chunk allocates nothing.
+ */
+public final class Frame {
+    /* Shared source of padding, only ever viewed */
+    private final static ByteBuffer PADDING = ByteBuffer.allocateDirect(PAYLOAD_SIZE).asReadOnlyBuffer();
+
+    private final ByteBuffer buffer;
+    private final BufferPool pool;
+    private final AtomicInteger refs;
+    private final MessageClass messageClass;
+
+    /* Whether buffer holds the payload rather than the encoded frame */
+    private final boolean payload;
+
+    private Frame(ByteBuffer buffer, BufferPool pool, MessageClass messageClass, boolean payload) {
+        this.buffer = buffer;
+        this.pool = pool;
+        this.refs = new AtomicInteger(1);
+        this.messageClass = messageClass;
+        this.payload = payload;
+    }
+
+    /**
+     * Takes ownership of an encoded frame. The caller holds the
+     * first reference.
+     */
+    public static Frame wrap(ByteBuffer buffer, BufferPool pool) {
+        return new Frame(buffer, pool, MessageClass.NORMAL, false);
+    }
+
+    public static Frame wrap(ByteBuffer buffer, BufferPool pool, MessageClass messageClass) {
+        return new Frame(buffer, pool, messageClass, false);
+    }
+
+    /**
+     * Takes ownership of a frame payload, as built by
+     * {@link MessageCodec#encodePayload}, which is chunked as it is
+     * written. The caller holds the first reference.
+     */
+    public static Frame ofPayload(ByteBuffer payload, BufferPool pool, MessageClass messageClass) {
+        if (!payload.hasRemaining()) throw new RuntimeException("A frame needs at least one payload byte.");
+
+        return new Frame(payload, pool, messageClass, true);
+    }
+
+    public Frame retain() {
+        if (refs.getAndIncrement() <= 0) throw new RuntimeException("Frame was already released.");
+        return this;
+    }
+
+    public void release() {
+        int left = refs.decrementAndGet();
+
+        if (left == 0) {
+            pool.release(buffer);
+        } else if (left < 0) {
+            throw new RuntimeException("Frame was released too many times.");
+        }
+    }
+
+    /**
+     * @return number of pieces {@link #fill(BytesWriter, int)} works
+     *      through, one per chunk for a payload frame
+     */
+    public int pieces() {
+        return payload ? FrameEncoder.chunkCount(buffer.remaining()) : 1;
+    }
+
+    /**
+     * Describes the frame from piece from onward to out, as far as
+     * out has room. Each writer passes its own out.
+     *
+     * @return the next piece to describe, pieces() once done
+     */
+    public int fill(BytesWriter out, int from) {
+        if (!payload) {
+            if (from == 0 && out.room() >= 1) {
+                out.add(buffer, buffer.position(), buffer.limit());
+                return 1;
+            }
+            return from;
+        }
+
+        int base = buffer.position();
+        int length = buffer.remaining();
+        int chunks = FrameEncoder.chunkCount(length);
+        int chunk = from;
+
+        /* Header, payload view and maybe padding */
+        while (chunk < chunks && out.room() >= 3) {
+            int start = chunk * PAYLOAD_SIZE;
+            int n = Math.min(PAYLOAD_SIZE, length - start);
+
+            out.putByte((chunk == chunks - 1) ? (byte)n : (byte)0x00);
+            out.add(buffer, base + start, base + start + n);
+
+            if (n < PAYLOAD_SIZE) out.add(PADDING, 0, PAYLOAD_SIZE - n);
+
+            chunk++;
+        }
+
+        return chunk;
+    }
+
+    /**
+     * Writes the encoded frame into dst, chunking a payload straight
+     * from the shared buffer.
+     */
+    public void copyTo(ByteBuffer dst) {
+        if (payload) {
+            FrameEncoder.encode(buffer.duplicate(), dst);
+        } else {
+            dst.put(buffer.duplicate());
+        }
+    }
+
+    public MessageClass getMessageClass() {
+        return messageClass;
+    }
+
+    /**
+     * @return bytes the frame takes on the wire
+     */
+    public int length() {
+        return payload ? FrameEncoder.encodedLength(buffer.remaining()) : buffer.remaining();
+    }
+}
@@ -0,0 +1,172 @@
+package org.levk.p2pnet.network.wire;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.levk.p2pnet.util.BufferPool;
+
+import static org.levk.p2pnet.network.wire.FrameEncoder.CHUNK_SIZE;
+import static org.levk.p2pnet.network.wire.FrameEncoder.PAYLOAD_SIZE;
+
+/**
+ * Incrementally reassembles frames written by {@link FrameEncoder}.
+ * Input may be split at any byte boundary, so the decoder can be
+ * fed directly with whatever a socket read returned. Payload bytes
+ * are copied once, straight into a reassembly buffer borrowed from
+ * a {@link BufferPool} and handed back by {@link #release()}.
+ *
+ * Not thread safe, each connection should own one decoder.
+ */
+public final class FrameDecoder {
+    /* Largest message a peer may send before being rejected. */
+    public final static int DEFAULT_MAX_LENGTH = 16 * 1024 * 1024;
+
+    /* Reassembly buffer size for a fresh message */
+    private final static int INITIAL_SIZE = 4096;
+
+    private final int maxLength;
+    private final BufferPool pool;
+
+    /* Reassembly buffer, null while idle. Its position
+     * is the number of payload bytes reassembled. */
+    private ByteBuffer message;
+
+    /* Bytes of the current chunk consumed so far, header included */
+    private int chunkPos;
+
+    /* Payload bytes carried by the current chunk */
+    private int chunkPayload;
+
+    /* Whether the current chunk ends the message */
+    private boolean lastChunk;
+
+    /* Whether the previous call returned a completed message */
+    private boolean complete;
+
+    public FrameDecoder() {
+        this(DEFAULT_MAX_LENGTH);
+    }
+
+    public FrameDecoder(int maxLength) {
+        this(maxLength, BufferPool.getDefault());
+    }
+
+    public FrameDecoder(int maxLength, BufferPool pool) {
+        this.maxLength = maxLength;
+        this.pool = pool;
+    }
+
+    /**
+     * Consumes bytes from in until a message is complete or in is
+     * exhausted. Bytes following a completed message are left in in,
+     * so callers should loop until null is returned.
+     *
+     * @param in - raw bytes off the wire
+     * @return the completed message, or null if more bytes are needed.
+     *      The returned buffer is only valid until the next call to
+     *      decode or release.
+     * @throws IOException if the message exceeds the maximum length
+     */
+    public ByteBuffer decode(ByteBuffer in) throws IOException {
+        if (complete) {
+            complete = false;
+            message.clear();
+        }
+
+        while (in.hasRemaining()) {
+            if (chunkPos == 0) {
+                int header = in.get() & 0xFF;
+                lastChunk = (header != 0);
+                chunkPayload = lastChunk ? header : PAYLOAD_SIZE;
+                chunkPos = 1;
+
+                ensureCapacity(chunkPayload);
+            }
+
+            int payloadLeft = chunkPayload - (chunkPos - 1);
+            if (payloadLeft > 0) {
+                int n = Math.min(payloadLeft, in.remaining());
+                int limit = in.limit();
+
+                in.limit(in.position() + n);
+                message.put(in);
+                in.limit(limit);
+
+                chunkPos += n;
+            } else {
+                /* Skip padding */
+                int n = Math.min(CHUNK_SIZE - chunkPos, in.remaining());
+                in.position(in.position() + n);
+                chunkPos += n;
+            }
+
+            if (chunkPos == CHUNK_SIZE) {
+                chunkPos = 0;
+
+                if (lastChunk) {
+                    complete = true;
+                    message.flip();
+                    return message;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return whether the decoder is part way through a message
+     */
+    public boolean isPartial() {
+        return !complete && (chunkPos > 0 || (message != null && message.position() > 0));
+    }
+
+    /**
+     * Returns the reassembly buffer to the pool if no message is
+     * in progress, so idle connections hold no buffer.
+     */
+    public void release() {
+        if (message == null || isPartial()) return;
+
+        pool.release(message);
+        message = null;
+        complete = false;
+    }
+
+    /**
+     * Drops any partially decoded message.
+     */
+    public void reset() {
+        chunkPos = 0;
+        complete = false;
+
+        if (message != null) {
+            pool.release(message);
+            message = null;
+        }
+    }
+
+    private void ensureCapacity(int more) throws IOException {
+        int length = (message == null) ? 0 : message.position();
+        int needed = length + more;
+
+        if (needed > maxLength) throw new IOException("Frame exceeds the maximum message length of " + maxLength + " bytes.");
+
+        if (message == null) {
+            message = pool.acquire(Math.max(needed, Math.min(INITIAL_SIZE, maxLength)));
+            message.clear();
+            return;
+        }
+
+        if (needed <= message.capacity()) return;
+
+        ByteBuffer grown = pool.acquire(Math.max(needed, (int)Math.min((long)message.capacity() * 2, maxLength)));
+        grown.clear();
+
+        message.flip();
+        grown.put(message);
+        pool.release(message);
+
+        this.message = grown;
+    }
+}
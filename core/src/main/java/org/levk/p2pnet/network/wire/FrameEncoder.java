@@ -0,0 +1,82 @@
+package org.levk.p2pnet.network.wire;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes messages in the chunked wire format: a sequence of
+ * 256 byte chunks, each one a header byte followed by 255
+ * bytes of payload. Every chunk but the last has a header of
+ * 0x00, the last one carries the number of payload bytes it
+ * holds (1 - 255) and is zero padded.
+ */
+public final class FrameEncoder {
+    public final static int CHUNK_SIZE = 256;
+    public final static int PAYLOAD_SIZE = CHUNK_SIZE - 1;
+
+    private FrameEncoder() { }
+
+    /**
+     * @param length - number of payload bytes
+     * @return number of chunks needed to carry the payload
+     */
+    public static int chunkCount(int length) {
+        return (length + PAYLOAD_SIZE - 1) / PAYLOAD_SIZE;
+    }
+
+    /**
+     * @param length - number of payload bytes
+     * @return number of bytes the encoded frame takes on the wire
+     */
+    public static int encodedLength(int length) {
+        return chunkCount(length) * CHUNK_SIZE;
+    }
+
+    /**
+     * Encodes the remaining bytes of src into dst in a single pass.
+     * On return src is fully consumed and dst is positioned after
+     * the frame.
+     *
+     * @param src - payload to encode
+     * @param dst - buffer with at least {@link #encodedLength(int)} bytes remaining
+     */
+    public static void encode(ByteBuffer src, ByteBuffer dst) {
+        if (dst.remaining() < encodedLength(src.remaining())) throw new RuntimeException("Output buffer is too small for the encoded frame.");
+
+        int limit = src.limit();
+
+        while (src.hasRemaining()) {
+            int n = Math.min(src.remaining(), PAYLOAD_SIZE);
+
+            /* Header is zero for all but the last chunk */
+            dst.put((n == src.remaining()) ? (byte)n : (byte)0x00);
+
+            src.limit(src.position() + n);
+            dst.put(src);
+            src.limit(limit);
+
+            for (int i = n; i < PAYLOAD_SIZE; i++) {
+                dst.put((byte)0x00);
+            }
+        }
+    }
+
+    /**
+     * @param in - payload to encode
+     * @return the encoded frame
+     */
+    public static byte[] encode(byte[] in) {
+        return encode(in, 0, in.length);
+    }
+
+    /**
+     * @param in - array holding the payload
+     * @param offset - start of the payload in the array
+     * @param length - number of payload bytes
+     * @return the encoded frame
+     */
+    public static byte[] encode(byte[] in, int offset, int length) {
+        byte[] out = new byte[encodedLength(length)];
+        encode(ByteBuffer.wrap(in, offset, length), ByteBuffer.wrap(out));
+        return out;
+    }
+}
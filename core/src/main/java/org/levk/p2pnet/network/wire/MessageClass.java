@@ -0,0 +1,15 @@
+package org.levk.p2pnet.network.wire;
+
+/**
+ * How urgent a frame is, used to weight it against other peers'
+ * traffic when sending.
+ */
+public enum MessageClass {
+    /* Small, latency sensitive messages such as pings and lookups */
+    CONTROL,
+
+    NORMAL,
+
+    /* Large transfers that can yield to everything else */
+    BULK
+}
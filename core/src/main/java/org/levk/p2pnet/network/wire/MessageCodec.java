@@ -0,0 +1,416 @@
+package org.levk.p2pnet.network.wire;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.levk.p2pnet.metrics.Metrics;
+import org.levk.p2pnet.util.BufferPool;
+import org.levk.p2pnet.util.HashUtil;
+import org.xerial.snappy.Snappy;
+import org.xerial.snappy.SnappyFramedInputStream;
+import org.xerial.snappy.SnappyFramedOutputStream;
+
+import static org.levk.p2pnet.network.wire.CompressionPolicy.*;
+
+/**
+ * Turns messages into wire frames and back. A frame's payload is
+ * one mode byte (see {@link CompressionPolicy}) followed by the
+ * message body in that mode, so receivers skip decompression for
+ * anything sent raw.
+ *
+ * Typed messages start with a TYPE_LENGTH byte big-endian type id,
+ * compressed along with the rest of the message, and have TYPED set
+ * in their mode byte. Receivers only look for a type id behind that
+ * flag, so an untyped message is never mistaken for a typed one.
+ *
+ * Frames relayed between peers, such as broadcasts, have RELAYED set.
+ * Only those are checked against a {@link SeenCache}, so requests and
+ * other direct messages are never dropped for repeating themselves.
+ *
+ * Frames written by a {@link StreamEncoder} have STREAM set, so a
+ * peer waiting to stream a message in hands it only those.
+ */
+public final class MessageCodec {
+    /* Bytes of the type id in front of a typed message */
+    public final static int TYPE_LENGTH = 2;
+    public final static int MAX_TYPE = 0xFFFF;
+
+    /* Type passed to encode for a message without a type id */
+    public final static int UNTYPED = -1;
+
+    /* Set in the mode byte of a frame whose message has a type id */
+    public final static byte TYPED = 0x40;
+
+    /* Set in the mode byte of a relayed frame, receivers drop copies */
+    public final static byte RELAYED = 0x20;
+
+    /* Set in the mode byte of a streamed frame */
+    public final static byte STREAM = 0x10;
+
+    /* Per thread space for copying out framed Snappy blocks */
+    private final static ThreadLocal<byte[]> BLOCK = ThreadLocal.withInitial(() -> new byte[FrameEncoder.CHUNK_SIZE * 64]);
+
+    private MessageCodec() { }
+
+    /**
+     * @return the encoded frame in a buffer from pool, ready to write.
+     *      The caller releases it once written.
+     */
+    public static ByteBuffer encode(byte[] message, CompressionPolicy policy, BufferPool pool) throws IOException {
+        return encode(UNTYPED, message, policy, pool, null);
+    }
+
+    /**
+     * @param payloadHash - if not null, the frame is marked relayed and
+     *      this receives the blake2 hash of its payload, as checked by
+     *      {@link SeenCache} on receipt
+     */
+    public static ByteBuffer encode(byte[] message, CompressionPolicy policy, BufferPool pool, byte[] payloadHash) throws IOException {
+        return encode(UNTYPED, message, policy, pool, payloadHash);
+    }
+
+    /**
+     * @param type - type id written in front of the message, or UNTYPED
+     */
+    public static ByteBuffer encode(int type, byte[] message, CompressionPolicy policy, BufferPool pool, byte[] payloadHash) throws IOException {
+        ByteBuffer body = encodePayload(type, message, policy, pool, payloadHash);
+
+        try {
+            ByteBuffer frame = pool.acquire(FrameEncoder.encodedLength(body.remaining()));
+            FrameEncoder.encode(body, frame);
+            frame.flip();
+            return frame;
+        } finally {
+            pool.release(body);
+        }
+    }
+
+    /**
+     * Builds the frame payload only, for {@link Frame#ofPayload} to
+     * chunk as it is written.
+     *
+     * @return the mode byte and message body in a buffer from pool
+     */
+    public static ByteBuffer encodePayload(int type, byte[] message, CompressionPolicy policy, BufferPool pool, byte[] payloadHash) throws IOException {
+        if (type != UNTYPED && (type < 0 || type > MAX_TYPE)) throw new RuntimeException("Invalid message type " + type + ".");
+
+        byte mode = policy.choose(message, 0, message.length);
+        byte flags = flags(type, payloadHash != null);
+        ByteBuffer body;
+
+        switch (mode) {
+            case SNAPPY:
+            case SNAPPY_FRAMED: {
+                long start = System.nanoTime();
+                body = (mode == SNAPPY) ? compress(type, flags, message, pool) : compressFramed(type, flags, message, pool);
+
+                Metrics metrics = Metrics.get();
+                metrics.getSnappyNanos().record(System.nanoTime() - start);
+                if (message.length > 0) metrics.getCompressionRatio().record((body.remaining() - 1) * 1000L / message.length);
+                break;
+            }
+            default:
+                body = raw(type, flags, message, pool);
+                break;
+        }
+
+        if (payloadHash != null) HashUtil.hasher().update(body.duplicate()).doFinal(payloadHash, 0);
+
+        return body;
+    }
+
+    /**
+     * Decodes a frame payload as returned by {@link FrameDecoder}.
+     *
+     * @param maxLength - largest message accepted after decompression
+     */
+    public static byte[] decode(ByteBuffer payload, BufferPool pool, int maxLength) throws IOException {
+        ByteBuffer body = decodeBody(payload, pool, maxLength);
+
+        try {
+            byte[] out = new byte[body.remaining()];
+            body.get(out);
+            return out;
+        } finally {
+            if (body != payload) pool.release(body);
+        }
+    }
+
+    /**
+     * @return whether the message in a frame payload starts with a
+     *      type id. Reads the mode byte without consuming it.
+     */
+    public static boolean isTyped(ByteBuffer payload) {
+        return payload.hasRemaining() && (payload.get(payload.position()) & TYPED) != 0;
+    }
+
+    /**
+     * @return whether a frame payload was relayed, and so is subject
+     *      to duplicate suppression. Reads the mode byte without consuming it.
+     */
+    public static boolean isRelayed(ByteBuffer payload) {
+        return payload.hasRemaining() && (payload.get(payload.position()) & RELAYED) != 0;
+    }
+
+    /**
+     * Decodes a frame payload without copying a raw message. A typed
+     * message comes back with its type id in front, see {@link #isTyped}.
+     *
+     * @return payload itself, positioned after the mode byte, if the
+     *      message was sent raw. Otherwise the decompressed message in
+     *      a buffer from pool, which the caller releases.
+     */
+    public static ByteBuffer decodeBody(ByteBuffer payload, BufferPool pool, int maxLength) throws IOException {
+        if (!payload.hasRemaining()) throw new IOException("Empty frame.");
+
+        byte mode = (byte)(payload.get() & ~(TYPED | RELAYED | STREAM));
+
+        switch (mode) {
+            case RAW:
+                return payload;
+            case SNAPPY:
+            case SNAPPY_FRAMED: {
+                long start = System.nanoTime();
+                ByteBuffer out = (mode == SNAPPY) ? uncompress(payload, pool, maxLength) : uncompressFramed(payload, pool, maxLength);
+
+                Metrics.get().getSnappyNanos().record(System.nanoTime() - start);
+                return out;
+            }
+            default:
+                throw new IOException("Unknown compression mode " + mode + ".");
+        }
+    }
+
+    private static int typeLength(int type) {
+        return (type == UNTYPED) ? 0 : TYPE_LENGTH;
+    }
+
+    /* Flags for the mode byte */
+    private static byte flags(int type, boolean relayed) {
+        return (byte)(((type == UNTYPED) ? 0 : TYPED) | (relayed ? RELAYED : 0));
+    }
+
+    private static void putType(int type, ByteBuffer out) {
+        if (type != UNTYPED) out.putShort((short)type);
+    }
+
+    private static ByteBuffer raw(int type, byte flags, byte[] message, BufferPool pool) {
+        ByteBuffer body = pool.acquire(1 + typeLength(type) + message.length);
+        body.put((byte)(RAW | flags));
+        putType(type, body);
+        body.put(message);
+        body.flip();
+        return body;
+    }
+
+    private static ByteBuffer compress(int type, byte flags, byte[] message, BufferPool pool) throws IOException {
+        int length = typeLength(type) + message.length;
+        ByteBuffer input = pool.acquire(length);
+
+        try {
+            putType(type, input);
+            input.put(message);
+            input.flip();
+
+            ByteBuffer body = pool.acquire(1 + Snappy.maxCompressedLength(length));
+            body.put((byte)(SNAPPY | flags));
+
+            int n = snappyCompress(input, body.slice());
+
+            /* Compression didn't pay for itself */
+            if (n >= length) {
+                pool.release(body);
+                return raw(type, flags, message, pool);
+            }
+
+            body.position(0);
+            body.limit(1 + n);
+            return body;
+        } finally {
+            pool.release(input);
+        }
+    }
+
+    private static ByteBuffer compressFramed(int type, byte flags, byte[] message, BufferPool pool) throws IOException {
+        PooledOutputStream out = new PooledOutputStream(pool, message.length / 2 + 1, Integer.MAX_VALUE);
+
+        try {
+            out.write(SNAPPY_FRAMED | flags);
+
+            try (SnappyFramedOutputStream snappy = new SnappyFramedOutputStream(out)) {
+                if (type != UNTYPED) {
+                    snappy.write(type >>> 8);
+                    snappy.write(type);
+                }
+                snappy.write(message);
+            }
+
+            ByteBuffer body = out.getBuffer();
+            body.flip();
+            return body;
+        } catch (IOException | RuntimeException e) {
+            pool.release(out.getBuffer());
+            throw e;
+        }
+    }
+
+    private static ByteBuffer uncompress(ByteBuffer payload, BufferPool pool, int maxLength) throws IOException {
+        int length = snappyLength(payload);
+        if (length > maxLength) throw new IOException("Decompressed message exceeds the maximum message length.");
+
+        ByteBuffer decompressed = pool.acquire(length);
+
+        try {
+            snappyUncompress(payload, decompressed);
+            return decompressed;
+        } catch (IOException | RuntimeException e) {
+            pool.release(decompressed);
+            throw e;
+        }
+    }
+
+    /* Snappy's buffer methods only take direct buffers, the pool
+     * hands out heap ones once it is at its limit. Both write at out's
+     * position and leave its limit after the written bytes. */
+    private static int snappyCompress(ByteBuffer in, ByteBuffer out) throws IOException {
+        if (in.isDirect() && out.isDirect()) return Snappy.compress(in, out);
+
+        in = onHeap(in);
+        ByteBuffer dst = out.hasArray() ? out : ByteBuffer.allocate(out.remaining());
+        int n = Snappy.compress(in.array(), in.arrayOffset() + in.position(), in.remaining(),
+                dst.array(), dst.arrayOffset() + dst.position());
+
+        if (dst != out) out.duplicate().put(dst.array(), 0, n);
+        out.limit(out.position() + n);
+        return n;
+    }
+
+    private static int snappyLength(ByteBuffer in) throws IOException {
+        if (in.isDirect()) return Snappy.uncompressedLength(in);
+
+        in = onHeap(in);
+        return Snappy.uncompressedLength(in.array(), in.arrayOffset() + in.position(), in.remaining());
+    }
+
+    private static int snappyUncompress(ByteBuffer in, ByteBuffer out) throws IOException {
+        if (in.isDirect() && out.isDirect()) return Snappy.uncompress(in, out);
+
+        in = onHeap(in);
+        ByteBuffer dst = out.hasArray() ? out : ByteBuffer.allocate(out.remaining());
+        int n = Snappy.uncompress(in.array(), in.arrayOffset() + in.position(), in.remaining(),
+                dst.array(), dst.arrayOffset() + dst.position());
+
+        if (dst != out) out.duplicate().put(dst.array(), 0, n);
+        out.limit(out.position() + n);
+        return n;
+    }
+
+    private static ByteBuffer onHeap(ByteBuffer buf) {
+        if (buf.hasArray()) return buf;
+
+        ByteBuffer copy = ByteBuffer.allocate(buf.remaining());
+        copy.put(buf.duplicate());
+        copy.flip();
+        return copy;
+    }
+
+    private static ByteBuffer uncompressFramed(ByteBuffer payload, BufferPool pool, int maxLength) throws IOException {
+        PooledOutputStream out = new PooledOutputStream(pool, payload.remaining() * 2, maxLength);
+
+        try (InputStream in = new SnappyFramedInputStream(new BufferInputStream(payload))) {
+            byte[] block = BLOCK.get();
+            int n;
+
+            while ((n = in.read(block)) > 0) {
+                out.write(block, 0, n);
+            }
+
+            ByteBuffer body = out.getBuffer();
+            body.flip();
+            return body;
+        } catch (IOException | RuntimeException e) {
+            pool.release(out.getBuffer());
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the remaining bytes of a buffer.
+     */
+    static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) return -1;
+
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Writes into a pooled buffer, trading it for a larger one as
+     * needed. The final buffer is handed back with getBuffer().
+     */
+    static final class PooledOutputStream extends OutputStream {
+        private final BufferPool pool;
+        private final int maxLength;
+        private ByteBuffer buffer;
+
+        PooledOutputStream(BufferPool pool, int initial, int maxLength) {
+            this.pool = pool;
+            this.maxLength = maxLength;
+            this.buffer = pool.acquire(Math.max(initial, 16));
+            this.buffer.clear();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensure(1);
+            buffer.put((byte)b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensure(len);
+            buffer.put(b, off, len);
+        }
+
+        ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        private void ensure(int more) throws IOException {
+            long needed = (long)buffer.position() + more;
+            if (needed > maxLength) throw new IOException("Message exceeds the maximum message length.");
+            if (needed <= buffer.capacity()) return;
+
+            ByteBuffer grown = pool.acquire((int)Math.min(Math.max(needed, (long)buffer.capacity() * 2), Integer.MAX_VALUE - 8));
+            grown.clear();
+
+            buffer.flip();
+            grown.put(buffer);
+            pool.release(buffer);
+
+            buffer = grown;
+        }
+    }
+}
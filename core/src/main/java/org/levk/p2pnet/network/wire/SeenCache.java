@@ -0,0 +1,265 @@
+package org.levk.p2pnet.network.wire;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.levk.p2pnet.util.HashUtil;
+
+/**
+ * Fixed-memory set of recently seen frame payloads, keyed by their
+ * blake2 hash, so a relayed message echoed back by neighbours is
+ * dropped before it is decompressed or dispatched.
+ *
+ * The most recent messages are held exactly, as 64-bit fingerprints
+ * in two rotating open-addressed tables, so a duplicate inside that
+ * window is always caught. Older ones are remembered by two rotating
+ * Bloom filters which turn over every half window, or early once
+ * full, at about 1% false positives.
+ *
+ * Keys are the payload as framed, so the same message sent under
+ * two different compression modes counts as two messages.
+ *
+ * Lookups take no lock. Turning a generation over swaps in a fresh
+ * table rather than clearing the oldest in place, so a thread still
+ * reading a retired table only ever sees it whole.
+ */
+public final class SeenCache {
+    public final static long DEFAULT_WINDOW = 2 * 60 * 1000;
+    public final static int DEFAULT_EXACT_SIZE = 1 << 12;
+    public final static int DEFAULT_BLOOM_SIZE = 1 << 17;
+
+    /* Bits set per message, about 1% false positives at capacity */
+    private final static int BLOOM_HASHES = 7;
+    private final static int BLOOM_BITS_PER_ENTRY = 10;
+
+    /* Hash of the payload being checked, per thread */
+    private final static ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[HashUtil.HASH_LENGTH]);
+
+    private final long halfWindow;
+    private final int exactSize;
+    private final int bloomSize;
+
+    /* Dimensions of each generation */
+    private final int exactSlots;
+    private final long bloomBits;
+
+    private volatile Exact exact;
+    private volatile Exact exactPrevious;
+
+    private volatile Bloom bloom;
+    private volatile Bloom bloomPrevious;
+
+    public SeenCache() {
+        this(DEFAULT_WINDOW, DEFAULT_EXACT_SIZE, DEFAULT_BLOOM_SIZE);
+    }
+
+    /**
+     * @param window - milliseconds a message is remembered for, at most
+     * @param exactSize - messages held exactly per generation
+     * @param bloomSize - messages per Bloom generation before it turns over early
+     */
+    public SeenCache(long window, int exactSize, int bloomSize) {
+        if (window <= 1 || exactSize <= 0 || bloomSize <= 0) throw new RuntimeException("Invalid seen cache dimensions.");
+
+        this.halfWindow = window / 2;
+        this.exactSize = exactSize;
+        this.bloomSize = bloomSize;
+
+        /* Exact tables are kept at most half full */
+        this.exactSlots = Integer.highestOneBit(exactSize * 2 - 1) * 2;
+        this.bloomBits = Math.max(64, Long.highestOneBit((long)bloomSize * BLOOM_BITS_PER_ENTRY - 1) * 2);
+
+        long now = System.currentTimeMillis();
+        this.exact = new Exact(exactSlots);
+        this.exactPrevious = new Exact(exactSlots);
+        this.bloom = new Bloom(bloomBits, now);
+        this.bloomPrevious = new Bloom(bloomBits, now);
+    }
+
+    /**
+     * Hashes a frame payload, leaving its position unchanged.
+     *
+     * @return true if the payload had not been seen, and is now
+     */
+    public boolean add(ByteBuffer payload) {
+        byte[] hash = scratch.get();
+        HashUtil.hasher().update(payload.duplicate()).doFinal(hash, 0);
+        return add(hash, System.currentTimeMillis());
+    }
+
+    /**
+     * @param hash - blake2 hash of a frame payload
+     * @return true if the hash had not been seen, and is now
+     */
+    public boolean add(byte[] hash) {
+        return add(hash, System.currentTimeMillis());
+    }
+
+    boolean add(byte[] hash, long now) {
+        long fingerprint = fingerprint(hash);
+        long h1 = readLong(hash, 8);
+        long h2 = readLong(hash, 16) | 1;
+
+        Bloom b = bloom;
+        if (now - b.start >= halfWindow) rotate(b, now);
+
+        while (true) {
+            Exact e = exact;
+
+            if (exactPrevious.contains(fingerprint)) return false;
+            boolean older = bloom.contains(h1, h2) || bloomPrevious.contains(h1, h2);
+
+            /* Recorded exactly either way, so later copies are
+             * caught even once the Bloom filters turn over */
+            int inserted = e.insert(fingerprint);
+            if (inserted < 0) return false;
+
+            if (inserted == 0) {
+                rotate(e);
+                continue;
+            }
+
+            if (older) return false;
+
+            b = bloom;
+            if (b.count.get() >= bloomSize) rotate(b, now);
+
+            bloom.add(h1, h2);
+            return true;
+        }
+    }
+
+    /**
+     * @return true if the hash was seen within the window, false
+     *      positives are possible past the exact window
+     */
+    public boolean contains(byte[] hash) {
+        long fingerprint = fingerprint(hash);
+        long h1 = readLong(hash, 8);
+        long h2 = readLong(hash, 16) | 1;
+
+        return exact.contains(fingerprint) || exactPrevious.contains(fingerprint)
+                || bloom.contains(h1, h2) || bloomPrevious.contains(h1, h2);
+    }
+
+    /* Turns over the exact tables, unless another thread already did.
+     * The oldest table is dropped, not cleared, as other threads may
+     * still be reading or inserting into it. */
+    private synchronized void rotate(Exact expected) {
+        if (exact != expected) return;
+
+        exactPrevious = exact;
+        exact = new Exact(exactSlots);
+    }
+
+    /* Turns over the Bloom filters. A time based turn over also
+     * retires the exact tables, so nothing outlives the window. */
+    private synchronized void rotate(Bloom expected, long now) {
+        if (bloom != expected) return;
+
+        bloomPrevious = bloom;
+        bloom = new Bloom(bloomBits, now);
+
+        if (now - bloomPrevious.start >= halfWindow) rotate(exact);
+    }
+
+    private static long fingerprint(byte[] hash) {
+        if (hash.length < HashUtil.HASH_LENGTH) throw new RuntimeException("Seen cache keys must be full hashes.");
+
+        long fingerprint = readLong(hash, 0);
+        return (fingerprint == 0) ? 1 : fingerprint;
+    }
+
+    private static long readLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (b[off + i] & 0xFF);
+        }
+        return v;
+    }
+
+    private final class Exact {
+        private final AtomicLongArray slots;
+        private final AtomicInteger count;
+        private final int mask;
+
+        Exact(int size) {
+            this.slots = new AtomicLongArray(size);
+            this.count = new AtomicInteger();
+            this.mask = size - 1;
+        }
+
+        boolean contains(long fingerprint) {
+            int i = (int)(fingerprint ^ (fingerprint >>> 32)) & mask;
+
+            long slot;
+            while ((slot = slots.get(i)) != 0) {
+                if (slot == fingerprint) return true;
+                i = (i + 1) & mask;
+            }
+
+            return false;
+        }
+
+        /* Returns 1 if inserted, -1 if already present and 0 if
+         * the table is full and must turn over */
+        int insert(long fingerprint) {
+            if (count.get() >= exactSize) return 0;
+
+            int i = (int)(fingerprint ^ (fingerprint >>> 32)) & mask;
+
+            while (true) {
+                long slot = slots.get(i);
+
+                if (slot == fingerprint) return -1;
+
+                if (slot == 0) {
+                    if (slots.compareAndSet(i, 0, fingerprint)) {
+                        count.incrementAndGet();
+                        return 1;
+                    }
+                    continue;
+                }
+
+                i = (i + 1) & mask;
+            }
+        }
+    }
+
+    private final static class Bloom {
+        private final long start;
+        private final AtomicLongArray words;
+        private final AtomicInteger count;
+        private final long mask;
+
+        Bloom(long bits, long start) {
+            this.start = start;
+            this.words = new AtomicLongArray((int)(bits >>> 6));
+            this.count = new AtomicInteger();
+            this.mask = bits - 1;
+        }
+
+        boolean contains(long h1, long h2) {
+            for (int k = 0; k < BLOOM_HASHES; k++) {
+                long bit = (h1 + k * h2) & mask;
+                if ((words.get((int)(bit >>> 6)) & (1L << bit)) == 0) return false;
+            }
+
+            return true;
+        }
+
+        void add(long h1, long h2) {
+            for (int k = 0; k < BLOOM_HASHES; k++) {
+                long bit = (h1 + k * h2) & mask;
+                int word = (int)(bit >>> 6);
+                long set = 1L << bit;
+
+                long old;
+                while (((old = words.get(word)) & set) == 0 && !words.compareAndSet(word, old, old | set)) { }
+            }
+
+            count.incrementAndGet();
+        }
+    }
+}
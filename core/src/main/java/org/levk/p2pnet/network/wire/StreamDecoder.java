@@ -0,0 +1,209 @@
+package org.levk.p2pnet.network.wire;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32C;
+
+import org.xerial.snappy.Snappy;
+
+import static org.levk.p2pnet.network.wire.CompressionPolicy.*;
+import static org.levk.p2pnet.network.wire.FrameEncoder.*;
+
+/**
+ * Reads one frame from the wire and writes the message to a
+ * channel as each chunk arrives, instead of reassembling it.
+ * Framed Snappy bodies are decompressed block by block, so memory
+ * use is bounded by one block whatever the message size.
+ *
+ * One-shot Snappy bodies cannot be decompressed in pieces and are
+ * rejected, {@link StreamEncoder} never produces them.
+ */
+public final class StreamDecoder {
+    /* Largest framed Snappy block, compressed or not */
+    private final static int MAX_BLOCK = 1 << 16;
+    private final static int MAX_CHUNK = 4 + Snappy.maxCompressedLength(MAX_BLOCK);
+
+    private final static int MASK_DELTA = 0xa282ead8;
+    private final static byte[] STREAM_ID = { 's', 'N', 'a', 'P', 'p', 'Y' };
+
+    private final WritableByteChannel sink;
+
+    /* Wire chunk state */
+    private int chunkPos;
+    private int chunkPayload;
+    private boolean lastChunk;
+    private boolean done;
+
+    /* Payload state, -1 until the mode byte is read */
+    private int mode = -1;
+    private long delivered;
+
+    /* Framed Snappy state: the 4 byte chunk header, then its body.
+     * headerPos is non-zero while inside a chunk. */
+    private final byte[] header = new byte[4];
+    private int headerPos;
+    private byte[] block;
+    private int blockLength;
+    private int blockPos;
+    private byte[] uncompressed;
+    private final CRC32C crc = new CRC32C();
+
+    public StreamDecoder(WritableByteChannel sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Consumes wire bytes up to the end of the frame.
+     *
+     * @return true once the whole message has been written to the
+     *      sink. in is then positioned after the frame.
+     */
+    public boolean decode(ByteBuffer in) throws IOException {
+        while (!done && in.hasRemaining()) {
+            if (chunkPos == 0) {
+                int h = in.get() & 0xFF;
+                lastChunk = (h != 0);
+                chunkPayload = lastChunk ? h : PAYLOAD_SIZE;
+                chunkPos = 1;
+                continue;
+            }
+
+            int payloadLeft = 1 + chunkPayload - chunkPos;
+
+            if (payloadLeft > 0) {
+                int n = Math.min(payloadLeft, in.remaining());
+                int limit = in.limit();
+
+                in.limit(in.position() + n);
+                payload(in);
+                in.limit(limit);
+
+                chunkPos += n;
+            } else {
+                /* Skip padding */
+                int n = Math.min(CHUNK_SIZE - chunkPos, in.remaining());
+                in.position(in.position() + n);
+                chunkPos += n;
+            }
+
+            if (chunkPos == CHUNK_SIZE) {
+                chunkPos = 0;
+                if (lastChunk) finish();
+            }
+        }
+
+        return done;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @return message bytes written to the sink so far
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    private void finish() throws IOException {
+        if (headerPos != 0) throw new IOException("Frame ended inside a Snappy block.");
+        if (mode < 0) throw new IOException("Empty frame.");
+
+        done = true;
+    }
+
+    private void payload(ByteBuffer in) throws IOException {
+        if (mode < 0) {
+            mode = in.get() & ~MessageCodec.STREAM;
+
+            if (mode != RAW && mode != SNAPPY_FRAMED) throw new IOException("Compression mode " + mode + " cannot be streamed.");
+        }
+
+        if (mode == RAW) {
+            deliver(in);
+            return;
+        }
+
+        while (in.hasRemaining()) {
+            if (headerPos < header.length) {
+                header[headerPos++] = in.get();
+                if (headerPos == header.length) startBlock();
+                continue;
+            }
+
+            int n = Math.min(blockLength - blockPos, in.remaining());
+            in.get(block, blockPos, n);
+            blockPos += n;
+
+            if (blockPos == blockLength) endBlock();
+        }
+    }
+
+    private void startBlock() throws IOException {
+        blockLength = (header[1] & 0xFF) | ((header[2] & 0xFF) << 8) | ((header[3] & 0xFF) << 16);
+        if (blockLength > MAX_CHUNK) throw new IOException("Snappy block exceeds the maximum block size.");
+
+        if (block == null || block.length < blockLength) block = new byte[Math.max(blockLength, 1024)];
+        blockPos = 0;
+
+        if (blockLength == 0) endBlock();
+    }
+
+    private void endBlock() throws IOException {
+        int type = header[0] & 0xFF;
+        headerPos = 0;
+
+        switch (type) {
+            case 0x00: {
+                if (blockLength < 4) throw new IOException("Truncated Snappy block.");
+
+                int length = Snappy.uncompressedLength(block, 4, blockLength - 4);
+                if (length > MAX_BLOCK) throw new IOException("Snappy block exceeds the maximum block size.");
+
+                if (uncompressed == null) uncompressed = new byte[MAX_BLOCK];
+                int n = Snappy.uncompress(block, 4, blockLength - 4, uncompressed, 0);
+
+                checkCrc(uncompressed, 0, n);
+                deliver(ByteBuffer.wrap(uncompressed, 0, n));
+                break;
+            }
+            case 0x01:
+                if (blockLength < 4 || blockLength - 4 > MAX_BLOCK) throw new IOException("Bad uncompressed Snappy block.");
+
+                checkCrc(block, 4, blockLength - 4);
+                deliver(ByteBuffer.wrap(block, 4, blockLength - 4));
+                break;
+            case 0xFF:
+                if (blockLength != STREAM_ID.length) throw new IOException("Bad Snappy stream identifier.");
+                for (int i = 0; i < STREAM_ID.length; i++) {
+                    if (block[i] != STREAM_ID[i]) throw new IOException("Bad Snappy stream identifier.");
+                }
+                break;
+            default:
+                /* Padding and skippable chunks, the rest are reserved */
+                if (type < 0x80) throw new IOException("Reserved Snappy chunk type " + type + ".");
+                break;
+        }
+    }
+
+    private void checkCrc(byte[] data, int off, int len) throws IOException {
+        crc.reset();
+        crc.update(data, off, len);
+
+        int c = (int)crc.getValue();
+        int masked = ((c >>> 15) | (c << 17)) + MASK_DELTA;
+        int stored = (block[0] & 0xFF) | ((block[1] & 0xFF) << 8) | ((block[2] & 0xFF) << 16) | ((block[3] & 0xFF) << 24);
+
+        if (masked != stored) throw new IOException("Snappy block checksum mismatch.");
+    }
+
+    private void deliver(ByteBuffer data) throws IOException {
+        delivered += data.remaining();
+
+        while (data.hasRemaining()) {
+            sink.write(data);
+        }
+    }
+}
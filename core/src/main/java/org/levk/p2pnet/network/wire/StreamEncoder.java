@@ -0,0 +1,181 @@
+package org.levk.p2pnet.network.wire;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+import org.levk.p2pnet.util.BufferPool;
+import org.xerial.snappy.SnappyFramedOutputStream;
+
+import static org.levk.p2pnet.network.wire.CompressionPolicy.*;
+import static org.levk.p2pnet.network.wire.FrameEncoder.*;
+
+/**
+ * Writes one message as a single frame without holding it in
+ * memory. Bytes are compressed block by block in the framed Snappy
+ * format, or sent raw, and cut into wire chunks as they come. Every
+ * {@link #SEGMENT_SIZE} bytes of finished chunks are handed to the
+ * sink, so at most one segment and one Snappy block are buffered.
+ *
+ * The frame is the same as one from {@link MessageCodec} apart from
+ * the STREAM flag in its mode byte, receivers can take it whole or
+ * through a {@link StreamDecoder}.
+ */
+public final class StreamEncoder implements WritableByteChannel {
+    /* Wire bytes handed to the sink at a time */
+    public final static int SEGMENT_SIZE = CHUNK_SIZE * 256;
+
+    /**
+     * Takes the encoded frame one segment at a time.
+     */
+    public interface SegmentSink {
+        /**
+         * @param segment - a pooled buffer of whole chunks, ready to
+         *      write. The sink releases it to the pool once written.
+         */
+        void segment(ByteBuffer segment) throws IOException;
+    }
+
+    private final BufferPool pool;
+    private final SegmentSink sink;
+    private final Chunker chunker;
+    private final OutputStream body;
+
+    private final byte[] scratch = new byte[PAYLOAD_SIZE * 16];
+
+    private boolean open = true;
+
+    public StreamEncoder(boolean compress, BufferPool pool, SegmentSink sink) throws IOException {
+        this.pool = pool;
+        this.sink = sink;
+        this.chunker = new Chunker();
+
+        chunker.write((compress ? SNAPPY_FRAMED : RAW) | MessageCodec.STREAM);
+        this.body = compress ? new SnappyFramedOutputStream(chunker) : chunker;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!open) throw new ClosedChannelException();
+
+        int n = src.remaining();
+
+        if (src.hasArray()) {
+            body.write(src.array(), src.arrayOffset() + src.position(), n);
+            src.position(src.limit());
+            return n;
+        }
+
+        while (src.hasRemaining()) {
+            int k = Math.min(src.remaining(), scratch.length);
+            src.get(scratch, 0, k);
+            body.write(scratch, 0, k);
+        }
+
+        return n;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (!open) throw new ClosedChannelException();
+        body.write(b, off, len);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Flushes the last block and ends the frame.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!open) return;
+        open = false;
+
+        /* Closing the Snappy stream closes the chunker too */
+        body.close();
+    }
+
+    /**
+     * Abandons the message. Segments already handed out stay
+     * with the sink, the frame is left unfinished.
+     */
+    public void abort() {
+        open = false;
+        chunker.discard();
+    }
+
+    /**
+     * Cuts payload into chunks. The last up to PAYLOAD_SIZE bytes
+     * are held back until more arrive, since only the final chunk
+     * may carry a count.
+     */
+    private final class Chunker extends OutputStream {
+        private final byte[] pending = new byte[PAYLOAD_SIZE];
+        private int count;
+
+        private ByteBuffer segment;
+        private boolean finished;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == PAYLOAD_SIZE) emit((byte)0x00);
+            pending[count++] = (byte)b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == PAYLOAD_SIZE) emit((byte)0x00);
+
+                int n = Math.min(len, PAYLOAD_SIZE - count);
+                System.arraycopy(b, off, pending, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (finished) return;
+            finished = true;
+
+            /* The mode byte guarantees at least one payload byte */
+            emit((byte)count);
+            hand();
+        }
+
+        private void emit(byte header) throws IOException {
+            if (segment == null) segment = pool.acquire(SEGMENT_SIZE);
+
+            segment.put(header);
+            segment.put(pending, 0, count);
+            for (int i = count; i < PAYLOAD_SIZE; i++) {
+                segment.put((byte)0x00);
+            }
+            count = 0;
+
+            if (!segment.hasRemaining()) hand();
+        }
+
+        private void hand() throws IOException {
+            if (segment == null) return;
+
+            ByteBuffer out = segment;
+            segment = null;
+
+            out.flip();
+            sink.segment(out);
+        }
+
+        void discard() {
+            finished = true;
+            if (segment != null) pool.release(segment);
+            segment = null;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package org.levk.p2pnet.util;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-classed pool of direct buffers. Sizes are rounded up to a
+ * power of two between {@link #MIN_CLASS} and {@link #MAX_CLASS}.
+ * Each thread keeps a few idle buffers per class in front of a
+ * shared free list, so the common acquire/release pair on one
+ * thread touches no shared state.
+ *
+ * The pool never owns more off-heap memory than its limit. Acquires
+ * that would go past it are served from the heap, and releases while
+ * over it are left to the garbage collector. Requests larger than
+ * MAX_CLASS are counted against the limit but never pooled.
+ *
+ * Virtual threads skip the per-thread caches, there are too many of
+ * them and they are too short lived for a cache to pay off. Caches of
+ * platform threads that have exited are drained back into the shared
+ * lists, so their buffers are neither lost nor counted forever.
+ */
+public final class BufferPool {
+    public final static int MIN_CLASS = 1 << 9;
+    public final static int MAX_CLASS = 1 << 24;
+
+    /* Idle buffers kept per size class by each thread */
+    public final static int LOCAL_CACHE_SIZE = 4;
+
+    public final static long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private final static int CLASS_COUNT = Integer.numberOfTrailingZeros(MAX_CLASS) - Integer.numberOfTrailingZeros(MIN_CLASS) + 1;
+
+    private final static Method IS_VIRTUAL = isVirtualMethod();
+
+    /* Stands in for a cache on threads that should not have one */
+    private final static LocalCache NO_CACHE = new LocalCache(null);
+
+    private static volatile BufferPool defaultPool;
+
+    private final long maxBytes;
+
+    /* Shared free lists, one per size class */
+    private final ArrayDeque<ByteBuffer>[] shared;
+
+    private final ThreadLocal<LocalCache> local;
+
+    /* Every live cache, so those of exited threads can be drained */
+    private final List<LocalCache> caches;
+
+    /* Off-heap bytes owned by the pool, idle or lent out */
+    private final AtomicLong allocated;
+    private final AtomicLong peak;
+    private final AtomicLong acquires;
+    private final AtomicLong misses;
+    private final AtomicLong dropped;
+    private final AtomicLong overflows;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.shared = new ArrayDeque[CLASS_COUNT];
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            shared[i] = new ArrayDeque<>();
+        }
+
+        this.local = ThreadLocal.withInitial(this::newCache);
+        this.caches = new ArrayList<>();
+        this.allocated = new AtomicLong();
+        this.peak = new AtomicLong();
+        this.acquires = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.dropped = new AtomicLong();
+        this.overflows = new AtomicLong();
+    }
+
+    /**
+     * @return the pool used by the peer I/O path
+     */
+    public static BufferPool getDefault() {
+        BufferPool pool = defaultPool;
+
+        if (pool == null) {
+            synchronized (BufferPool.class) {
+                if (defaultPool == null) defaultPool = new BufferPool(DEFAULT_MAX_BYTES);
+                pool = defaultPool;
+            }
+        }
+
+        return pool;
+    }
+
+    /**
+     * @param size - number of bytes needed
+     * @return a buffer with position 0 and limit size. Its capacity
+     *      may be larger. It is direct unless the pool is at its limit.
+     */
+    public ByteBuffer acquire(int size) {
+        acquires.incrementAndGet();
+
+        if (size > MAX_CLASS) {
+            misses.incrementAndGet();
+            return allocate(size);
+        }
+
+        int c = sizeClass(size);
+        ByteBuffer buf = local.get().poll(c);
+
+        if (buf == null) {
+            ArrayDeque<ByteBuffer> list = shared[c];
+            synchronized (list) {
+                buf = list.poll();
+            }
+        }
+
+        if (buf == null) {
+            misses.incrementAndGet();
+            buf = allocate(MIN_CLASS << c);
+        }
+
+        buf.clear();
+        buf.limit(size);
+        return buf;
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #acquire(int)}. The
+     * caller must not touch it afterwards.
+     */
+    public void release(ByteBuffer buf) {
+        if (buf == null || !buf.isDirect()) return;
+
+        int capacity = buf.capacity();
+        if (capacity > MAX_CLASS) {
+            allocated.addAndGet(-capacity);
+            return;
+        }
+
+        if (Integer.bitCount(capacity) != 1 || capacity < MIN_CLASS) return;
+
+        if (allocated.get() > maxBytes) {
+            allocated.addAndGet(-capacity);
+            dropped.incrementAndGet();
+            return;
+        }
+
+        int c = sizeClass(capacity);
+        if (local.get().offer(c, buf)) return;
+
+        ArrayDeque<ByteBuffer> list = shared[c];
+        synchronized (list) {
+            list.push(buf);
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return off-heap bytes currently owned by the pool, idle in a
+     *      live thread's cache or a shared list, or lent out
+     */
+    public long getAllocatedBytes() {
+        return allocated.get();
+    }
+
+    /**
+     * @return off-heap bytes idle in the shared lists
+     */
+    public long getSharedBytes() {
+        long total = 0;
+
+        for (int c = 0; c < CLASS_COUNT; c++) {
+            ArrayDeque<ByteBuffer> list = shared[c];
+            synchronized (list) {
+                total += (long)list.size() * (MIN_CLASS << c);
+            }
+        }
+
+        return total;
+    }
+
+    public long getPeakBytes() {
+        return peak.get();
+    }
+
+    public long getAcquireCount() {
+        return acquires.get();
+    }
+
+    /**
+     * @return acquires that had to allocate a new buffer
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return releases discarded because the pool was over its limit
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return acquires served from the heap because the pool was at
+     *      its limit
+     */
+    public long getOverflowCount() {
+        return overflows.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool[allocated=" + allocated.get() + ", peak=" + peak.get() + ", max=" + maxBytes
+                + ", acquires=" + acquires.get() + ", misses=" + misses.get() + ", dropped=" + dropped.get()
+                + ", overflows=" + overflows.get() + "]";
+    }
+
+    /* Reserves capacity bytes against the limit, freeing idle shared
+     * buffers to make room, or falls back to the heap */
+    private ByteBuffer allocate(int capacity) {
+        long total;
+
+        do {
+            total = allocated.get();
+
+            if (total + capacity > maxBytes && !trim(total + capacity - maxBytes)) {
+                overflows.incrementAndGet();
+                return ByteBuffer.allocate(capacity);
+            }
+        } while (!allocated.compareAndSet(total, total + capacity));
+
+        peak.accumulateAndGet(total + capacity, Math::max);
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    /* Drops idle shared buffers, largest first, until needed bytes
+     * are freed or none are left */
+    private boolean trim(long needed) {
+        long freed = 0;
+
+        for (int c = CLASS_COUNT - 1; c >= 0 && freed < needed; c--) {
+            ArrayDeque<ByteBuffer> list = shared[c];
+            synchronized (list) {
+                while (freed < needed && list.poll() != null) {
+                    freed += MIN_CLASS << c;
+                }
+            }
+        }
+
+        allocated.addAndGet(-freed);
+        return freed >= needed;
+    }
+
+    private LocalCache newCache() {
+        Thread thread = Thread.currentThread();
+        if (isVirtual(thread)) return NO_CACHE;
+
+        LocalCache cache = new LocalCache(thread);
+
+        synchronized (caches) {
+            Iterator<LocalCache> it = caches.iterator();
+            while (it.hasNext()) {
+                LocalCache c = it.next();
+
+                /* isAlive being false orders the exited thread's last
+                 * writes to its cache before this read */
+                if (!c.owner.isAlive()) {
+                    it.remove();
+                    drain(c);
+                }
+            }
+
+            caches.add(cache);
+        }
+
+        return cache;
+    }
+
+    /* Moves an exited thread's idle buffers to the shared lists */
+    private void drain(LocalCache cache) {
+        for (int c = 0; c < CLASS_COUNT; c++) {
+            ByteBuffer buf;
+            while ((buf = cache.poll(c)) != null) {
+                ArrayDeque<ByteBuffer> list = shared[c];
+                synchronized (list) {
+                    list.push(buf);
+                }
+            }
+        }
+    }
+
+    /**
+     * Virtual threads need JDK 21, this builds against Java 10, so
+     * Thread.isVirtual is looked up reflectively.
+     */
+    private static Method isVirtualMethod() {
+        try {
+            return Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) return false;
+
+        try {
+            return (Boolean)IS_VIRTUAL.invoke(thread);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    static int sizeClass(int size) {
+        if (size <= MIN_CLASS) return 0;
+        return (32 - Integer.numberOfLeadingZeros(size - 1)) - Integer.numberOfTrailingZeros(MIN_CLASS);
+    }
+
+    private final static class LocalCache {
+        /* Null for NO_CACHE, which never holds anything */
+        private final Thread owner;
+        private final ByteBuffer[][] buffers = new ByteBuffer[CLASS_COUNT][LOCAL_CACHE_SIZE];
+        private final int[] counts = new int[CLASS_COUNT];
+
+        LocalCache(Thread owner) {
+            this.owner = owner;
+        }
+
+        ByteBuffer poll(int c) {
+            if (counts[c] == 0) return null;
+
+            int i = --counts[c];
+            ByteBuffer buf = buffers[c][i];
+            buffers[c][i] = null;
+            return buf;
+        }
+
+        boolean offer(int c, ByteBuffer buf) {
+            if (owner == null || counts[c] == LOCAL_CACHE_SIZE) return false;
+
+            buffers[c][counts[c]++] = buf;
+            return true;
+        }
+    }
+}
@@ -1,8 +1,6 @@
 package org.levk.p2pnet.util;
 
 import java.math.BigInteger;
-import java.nio.ByteBuffer;
-import java.util.Arrays;
 
 public class ByteUtils {
     /**
@@ -12,9 +10,36 @@ public class ByteUtils {
      * @return <code>byte[]</code> of length 8, representing the long value
      */
     public static byte[] longToBytes(long val, int length) {
-        byte[] out = ByteBuffer.allocate(Long.BYTES).putLong(val).array();
+        byte[] out = new byte[length];
+        putLong(out, 0, val, length);
+        return out;
+    }
+
+    /**
+     * Writes the low length bytes of a long big-endian, in place.
+     *
+     * @param dst - array to write into
+     * @param offset - where the first byte goes
+     * @param val - value to write
+     * @param length - number of bytes, 0 - 8
+     */
+    public static void putLong(byte[] dst, int offset, long val, int length) {
+        if (length < 0 || length > Long.BYTES) throw new RuntimeException("A long takes up to 8 bytes.");
 
-        return Arrays.copyOfRange(out,Long.BYTES - length, Long.BYTES);
+        for (int i = length - 1; i >= 0; i--) {
+            dst[offset + i] = (byte)val;
+            val >>>= 8;
+        }
+    }
+
+    /**
+     * Writes an int big-endian, in place.
+     */
+    public static void putInt(byte[] dst, int offset, int val) {
+        dst[offset] = (byte)(val >>> 24);
+        dst[offset + 1] = (byte)(val >>> 16);
+        dst[offset + 2] = (byte)(val >>> 8);
+        dst[offset + 3] = (byte)val;
     }
 
     /**
@@ -100,6 +125,8 @@ public class ByteUtils {
      * @return <code>byte[]</code> of length 4, representing the int value
      */
     public static byte[] intToBytes(int val){
-        return ByteBuffer.allocate(Integer.BYTES).putInt(val).array();
+        byte[] out = new byte[Integer.BYTES];
+        putInt(out, 0, val);
+        return out;
     }
 }
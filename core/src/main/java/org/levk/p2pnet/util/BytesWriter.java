@@ -0,0 +1,204 @@
+package org.levk.p2pnet.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * Bytes to write, described as an ordered list of slices rather
+ * than copied into one buffer. Slices are views of buffers owned
+ * elsewhere, small fields such as headers are written in place into
+ * the writer's own scratch space and added as slices of it.
+ *
+ * The list is written with one gathering write per call. It holds
+ * a fixed number of slices, callers describe long outputs a window
+ * at a time and {@link #clear()} between windows. Not thread safe.
+ *
+ * Regions added by position and limit reuse the view each slot last
+ * held of the same buffer, so describing the windows of one large
+ * output allocates nothing after the first.
+ */
+public final class BytesWriter {
+    /* Slices per window by default, under the usual IOV_MAX */
+    public final static int DEFAULT_SLICES = 512;
+
+    private final ByteBuffer[] slices;
+    private final ByteBuffer scratch;
+
+    /* Per slot, the last view made for a region and the buffer it views */
+    private final ByteBuffer[] views;
+    private final ByteBuffer[] sources;
+
+    private int count;
+
+    /* First slice with bytes left */
+    private int index;
+
+    private long remaining;
+
+    public BytesWriter() {
+        this(DEFAULT_SLICES);
+    }
+
+    public BytesWriter(int maxSlices) {
+        if (maxSlices < 1) throw new RuntimeException("A writer needs room for at least one slice.");
+
+        this.slices = new ByteBuffer[maxSlices];
+        this.scratch = ByteBuffer.allocate(maxSlices * Long.BYTES);
+        this.views = new ByteBuffer[maxSlices];
+        this.sources = new ByteBuffer[maxSlices];
+    }
+
+    /**
+     * Appends the remaining bytes of slice. The writer advances its
+     * position as it writes, so it should be a view the caller does
+     * not share.
+     */
+    public void add(ByteBuffer slice) {
+        if (count == slices.length) throw new RuntimeException("The writer is out of slices.");
+
+        slices[count++] = slice;
+        remaining += slice.remaining();
+    }
+
+    /**
+     * Appends bytes position to limit of source through a view the
+     * writer owns, leaving source itself untouched.
+     */
+    public void add(ByteBuffer source, int position, int limit) {
+        if (count == slices.length) throw new RuntimeException("The writer is out of slices.");
+
+        ByteBuffer view = views[count];
+        if (view == null || sources[count] != source) {
+            view = source.duplicate();
+            views[count] = view;
+            sources[count] = source;
+        }
+
+        view.clear();
+        view.limit(limit);
+        view.position(position);
+        add(view);
+    }
+
+    public void putByte(byte val) {
+        int start = scratch.position();
+        scratch.put(val);
+        addScratch(start);
+    }
+
+    public void putInt(int val) {
+        int start = scratch.position();
+        scratch.putInt(val);
+        addScratch(start);
+    }
+
+    /**
+     * @param length - low bytes of val to write big-endian, 0 - 8
+     */
+    public void putLong(long val, int length) {
+        int start = scratch.position();
+        ByteUtils.putLong(scratch.array(), scratch.arrayOffset() + start, val, length);
+        scratch.position(start + length);
+        addScratch(start);
+    }
+
+    private void addScratch(int start) {
+        add(scratch, start, scratch.position());
+    }
+
+    /**
+     * @return slices that can still be added before the next clear
+     */
+    public int room() {
+        return slices.length - count;
+    }
+
+    public long remaining() {
+        return remaining;
+    }
+
+    public boolean hasRemaining() {
+        return remaining > 0;
+    }
+
+    /**
+     * Writes up to max bytes in one gathering write.
+     *
+     * @return bytes written, fewer than asked if the channel is full
+     */
+    public long write(GatheringByteChannel channel, long max) throws IOException {
+        skipDrained();
+        if (index == count || max <= 0) return 0;
+
+        /* Take whole slices while they fit, then part of the next */
+        int end = index;
+        long sum = 0;
+        while (end < count && sum + slices[end].remaining() <= max) {
+            sum += slices[end++].remaining();
+        }
+
+        ByteBuffer cut = null;
+        int cutLimit = 0;
+        if (end < count && sum < max) {
+            cut = slices[end++];
+            cutLimit = cut.limit();
+            cut.limit(cut.position() + (int)(max - sum));
+        }
+
+        try {
+            long n = channel.write(slices, index, end - index);
+            remaining -= n;
+            return n;
+        } finally {
+            if (cut != null) cut.limit(cutLimit);
+        }
+    }
+
+    /**
+     * Writes everything to a stream. Heap slices are written from
+     * their arrays, direct ones through buffer.
+     */
+    public void write(OutputStream out, byte[] buffer) throws IOException {
+        for (int i = index; i < count; i++) {
+            ByteBuffer slice = slices[i];
+
+            if (slice.hasArray()) {
+                out.write(slice.array(), slice.arrayOffset() + slice.position(), slice.remaining());
+                slice.position(slice.limit());
+                continue;
+            }
+
+            while (slice.hasRemaining()) {
+                int n = Math.min(slice.remaining(), buffer.length);
+                slice.get(buffer, 0, n);
+                out.write(buffer, 0, n);
+            }
+        }
+
+        index = count;
+        remaining = 0;
+    }
+
+    /**
+     * Drops every slice, the buffers they view are untouched. Views
+     * are kept for reuse.
+     */
+    public void clear() {
+        for (int i = 0; i < count; i++) {
+            slices[i] = null;
+        }
+
+        count = 0;
+        index = 0;
+        remaining = 0;
+        scratch.clear();
+    }
+
+    private void skipDrained() {
+        while (index < count && !slices[index].hasRemaining()) {
+            index++;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.levk.p2pnet.util;
+
+import org.bouncycastle.crypto.digests.Blake2bDigest;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.stream.IntStream;
+
+public class HashUtil {
+    public final static int HASH_LENGTH = 32;
+
+    /* Schnorr key and signature widths, a compressed public key */
+    public final static int PRIVKEY_LENGTH = 32;
+    public final static int PUBKEY_LENGTH = 33;
+    public final static int SIG_LENGTH = 64;
+
+    /* Bytes dropped from the front of a hash to form a bucket address */
+    public final static int OMIT_LENGTH = 12;
+
+    /* Digests used by the one-shot helpers below */
+    private static final ThreadLocal<Hasher> oneShot = ThreadLocal.withInitial(Hasher::new);
+
+    /* Digests handed out by hasher(), kept apart from the
+     * one-shot ones so callers can interleave the two */
+    private static final ThreadLocal<Hasher> incremental = ThreadLocal.withInitial(Hasher::new);
+
+    public static byte[] blake2(byte[] input) {
+        byte[] out = new byte[HASH_LENGTH];
+        oneShot.get().update(input).doFinal(out, 0);
+        return out;
+    }
+
+    public static byte[] blake2omit12(byte[] input) {
+        byte[] out = new byte[HASH_LENGTH - OMIT_LENGTH];
+        blake2omit12(out, 0, input);
+        return out;
+    }
+
+    /**
+     * Hashes the concatenation of the segments without merging them.
+     *
+     * @param out - receives HASH_LENGTH bytes
+     * @param outOff - offset into out
+     */
+    public static void blake2(byte[] out, int outOff, byte[]... segments) {
+        Hasher hasher = oneShot.get();
+        for (byte[] segment : segments) {
+            hasher.update(segment);
+        }
+        hasher.doFinal(out, outOff);
+    }
+
+    /**
+     * Hashes the concatenation of the segments and writes the hash
+     * minus its first OMIT_LENGTH bytes.
+     *
+     * @param out - receives HASH_LENGTH - OMIT_LENGTH bytes
+     * @param outOff - offset into out
+     */
+    public static void blake2omit12(byte[] out, int outOff, byte[]... segments) {
+        Hasher hasher = oneShot.get();
+        for (byte[] segment : segments) {
+            hasher.update(segment);
+        }
+        hasher.doFinalOmit(out, outOff, OMIT_LENGTH);
+    }
+
+    /**
+     * Hashes the remaining bytes of each buffer, leaving their
+     * positions unchanged.
+     */
+    public static void blake2(ByteBuffer out, ByteBuffer... segments) {
+        Hasher hasher = oneShot.get();
+        for (ByteBuffer segment : segments) {
+            hasher.update(segment.duplicate());
+        }
+        hasher.doFinal(out);
+    }
+
+    /**
+     * @return this thread's incremental hasher, reset and ready for input
+     */
+    public static Hasher hasher() {
+        Hasher hasher = incremental.get();
+        hasher.reset();
+        return hasher;
+    }
+
+    /**
+     * Hashes many inputs in parallel.
+     *
+     * @param inputs - messages to hash
+     * @param out - receives inputs.size() * HASH_LENGTH bytes, hash i at i * HASH_LENGTH
+     */
+    public static void blake2Batch(List<byte[]> inputs, byte[] out) {
+        if (out.length < inputs.size() * HASH_LENGTH) throw new RuntimeException("Output buffer is too small for the batch.");
+
+        IntStream.range(0, inputs.size()).parallel().forEach(i -> oneShot.get().update(inputs.get(i)).doFinal(out, i * HASH_LENGTH));
+    }
+
+    /**
+     * @return the hash of each input, in order
+     */
+    public static byte[][] blake2Batch(List<byte[]> inputs) {
+        byte[][] out = new byte[inputs.size()][];
+
+        IntStream.range(0, inputs.size()).parallel().forEach(i -> out[i] = blake2(inputs.get(i)));
+
+        return out;
+    }
+
+    /**
+     * A reusable Blake2b-256 digest. Obtain one through
+     * {@link HashUtil#hasher()}, it is bound to the calling thread.
+     */
+    public static final class Hasher {
+        private final Blake2bDigest digest = new Blake2bDigest(HASH_LENGTH * 8);
+
+        /* Staging area for direct buffers and omitted hashes */
+        private final byte[] scratch = new byte[256];
+
+        private Hasher() { }
+
+        public Hasher update(byte[] in) {
+            digest.update(in, 0, in.length);
+            return this;
+        }
+
+        public Hasher update(byte[] in, int off, int len) {
+            digest.update(in, off, len);
+            return this;
+        }
+
+        /**
+         * Consumes the remaining bytes of in.
+         */
+        public Hasher update(ByteBuffer in) {
+            if (in.hasArray()) {
+                digest.update(in.array(), in.arrayOffset() + in.position(), in.remaining());
+                in.position(in.limit());
+                return this;
+            }
+
+            while (in.hasRemaining()) {
+                int n = Math.min(in.remaining(), scratch.length);
+                in.get(scratch, 0, n);
+                digest.update(scratch, 0, n);
+            }
+
+            return this;
+        }
+
+        public Hasher update(byte in) {
+            digest.update(in);
+            return this;
+        }
+
+        /**
+         * Writes the hash and resets the hasher.
+         */
+        public void doFinal(byte[] out, int outOff) {
+            digest.doFinal(out, outOff);
+        }
+
+        /**
+         * Writes the hash at out's position and advances it.
+         */
+        public void doFinal(ByteBuffer out) {
+            if (out.hasArray()) {
+                digest.doFinal(out.array(), out.arrayOffset() + out.position());
+            } else {
+                digest.doFinal(scratch, 0);
+                out.put(scratch, 0, HASH_LENGTH);
+                return;
+            }
+
+            out.position(out.position() + HASH_LENGTH);
+        }
+
+        /**
+         * Writes the hash without its first omit bytes and resets the hasher.
+         */
+        public void doFinalOmit(byte[] out, int outOff, int omit) {
+            digest.doFinal(scratch, 0);
+            System.arraycopy(scratch, omit, out, outOff, HASH_LENGTH - omit);
+        }
+
+        public void reset() {
+            digest.reset();
+        }
+    }
+}
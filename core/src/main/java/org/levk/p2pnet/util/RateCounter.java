@@ -0,0 +1,61 @@
+package org.levk.p2pnet.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory sliding-window event counter. The window is split
+ * into a ring of time slots, each packed into one long as the slot's
+ * epoch (high 32 bits) and its event count (low 32 bits), so a slot
+ * is rotated and incremented with a single compare-and-set.
+ *
+ * Counts are exact to within one slot at the trailing edge of the
+ * window.
+ */
+public class RateCounter {
+    private final AtomicLongArray slots;
+    private final long slotMillis;
+
+    /**
+     * @param windowMillis - length of the window
+     * @param slotCount - number of slots the window is divided into
+     */
+    public RateCounter(long windowMillis, int slotCount) {
+        if (slotCount < 1 || windowMillis < slotCount) throw new RuntimeException("Invalid rate window.");
+
+        this.slots = new AtomicLongArray(slotCount);
+        this.slotMillis = windowMillis / slotCount;
+    }
+
+    /**
+     * Records one event at the given time.
+     */
+    public void increment(long nowMillis) {
+        long epoch = nowMillis / slotMillis;
+        int i = (int)(epoch % slots.length());
+
+        while (true) {
+            long current = slots.get(i);
+            long next = ((current >>> 32) == epoch) ? current + 1 : (epoch << 32) | 1;
+
+            if (slots.compareAndSet(i, current, next)) return;
+        }
+    }
+
+    /**
+     * @return number of events within the window ending at the given time
+     */
+    public int count(long nowMillis) {
+        long epoch = nowMillis / slotMillis;
+        long oldest = epoch - slots.length();
+        long total = 0;
+
+        for (int i = 0; i < slots.length(); i++) {
+            long slot = slots.get(i);
+            long slotEpoch = slot >>> 32;
+
+            if (slotEpoch > oldest && slotEpoch <= epoch) total += slot & 0xFFFFFFFFL;
+        }
+
+        return (int)Math.min(total, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,106 @@
+package org.levk.p2pnet.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free, array-backed queue. Each slot carries a
+ * sequence number telling producers and consumers whose turn it
+ * is, so an offer or poll is one CAS on the tail or head and never
+ * blocks. Safe for any number of producers and consumers, though
+ * peers use it with many producers and one consumer.
+ */
+public final class RingQueue<E> {
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head;
+    private final AtomicLong tail;
+
+    /**
+     * @param capacity - rounded up to a power of two
+     */
+    public RingQueue(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) throw new RuntimeException("Invalid queue capacity.");
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        this.head = new AtomicLong();
+        this.tail = new AtomicLong();
+
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return false if the queue is full
+     */
+    public boolean offer(E e) {
+        if (e == null) throw new NullPointerException();
+
+        long pos = tail.get();
+
+        while (true) {
+            int i = (int)(pos & mask);
+            long diff = sequences.get(i) - pos;
+
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    elements.lazySet(i, e);
+                    sequences.set(i, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * @return the oldest element, or null if the queue is empty
+     */
+    public E poll() {
+        long pos = head.get();
+
+        while (true) {
+            int i = (int)(pos & mask);
+            long diff = sequences.get(i) - (pos + 1);
+
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E e = elements.get(i);
+                    elements.lazySet(i, null);
+                    sequences.set(i, pos + mask + 1);
+                    return e;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int)Math.max(0, Math.min(size, capacity()));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,95 @@
+package org.levk.p2pnet.metrics;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.levk.p2pnet.network.peerStorage.Peer;
+
+/**
+ * Bucket layout, percentiles, the metrics snapshot and process totals.
+ */
+public class HistogramTest
+    extends TestCase
+{
+    public HistogramTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( HistogramTest.class );
+    }
+
+    public void testBucketsAreContiguous()
+    {
+        int last = -1;
+        for (long v = 0; v < 1 << 20; v++) {
+            int index = Histogram.index(v);
+            assertTrue(index == last || index == last + 1);
+            assertTrue(Histogram.lowerBound(index) <= v);
+            last = index;
+        }
+
+        assertTrue(Histogram.index(Long.MAX_VALUE) >= last);
+    }
+
+    public void testRelativeError()
+    {
+        for (long v = 1; v > 0 && v < Long.MAX_VALUE / 3; v = v * 3 + 1) {
+            long lower = Histogram.lowerBound(Histogram.index(v));
+            assertTrue((v - lower) <= v / 64);
+        }
+    }
+
+    public void testPercentiles()
+    {
+        Histogram histogram = new Histogram();
+
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000, histogram.getMax());
+        assertEquals(5000.5, histogram.getMean(), 0.001);
+
+        assertTrue(Math.abs(histogram.getPercentile(50) - 5000) <= 5000 / 64);
+        assertTrue(Math.abs(histogram.getPercentile(99) - 9900) <= 9900 / 64);
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    public void testSnapshotListsHistograms()
+    {
+        Metrics.get().getVerifyNanos().record(1234);
+
+        String snapshot = Metrics.get().getSnapshot();
+        assertTrue(snapshot.contains("verifyNanos count="));
+        assertTrue(snapshot.contains("compressionRatio"));
+    }
+
+    /* Totals keep what disconnected peers sent and received */
+    public void testTotalsSurviveDisconnect()
+    {
+        Metrics metrics = Metrics.get();
+        Peer peer = new Peer(new byte[2], new byte[] {127, 0, 0, 1}, new byte[2], new byte[32]);
+        long before = metrics.getBytesIn();
+
+        metrics.register(peer);
+        peer.getCounters().add(PeerCounters.BYTES_IN, 100);
+        assertEquals(before + 100, metrics.getBytesIn());
+
+        metrics.unregister(peer);
+        assertEquals(before + 100, metrics.getBytesIn());
+
+        /* Reconnecting does not count the old bytes twice */
+        metrics.register(peer);
+        peer.getCounters().add(PeerCounters.BYTES_IN, 50);
+        metrics.unregister(peer);
+        assertEquals(before + 150, metrics.getBytesIn());
+    }
+}
@@ -0,0 +1,151 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Subnet counts, limits and replacement over IPv4 and IPv6 addresses.
+ */
+public class AdmissionTableTest
+    extends TestCase
+{
+    public AdmissionTableTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( AdmissionTableTest.class );
+    }
+
+    public void testLimitsPerSubnet()
+    {
+        AdmissionTable table = new AdmissionTable();
+
+        /* Two per address */
+        assertTrue(table.tryAdmit(ipv4(10, 0, 0, 1)));
+        assertTrue(table.tryAdmit(ipv4(10, 0, 0, 1)));
+        assertFalse(table.tryAdmit(ipv4(10, 0, 0, 1)));
+
+        /* Sixteen per /16 */
+        for (int i = 2; i < 16; i++) {
+            assertTrue(table.tryAdmit(ipv4(10, 0, i, 1)));
+        }
+        assertFalse(table.tryAdmit(ipv4(10, 0, 99, 1)));
+        assertTrue(table.tryAdmit(ipv4(10, 1, 0, 1)));
+
+        assertEquals(16, table.count(ipv4(10, 0, 200, 200), 16));
+        assertEquals(2, table.count(ipv4(10, 0, 0, 1), 32));
+        assertEquals(0, table.count(ipv4(11, 0, 0, 1), 8));
+        assertEquals(17, table.count(ipv4(10, 0, 0, 1), 8));
+
+        /* Mapped and plain IPv4 are the same address */
+        assertEquals(2, table.count(mapped(10, 0, 0, 1), 32));
+
+        /* Releasing makes room again */
+        assertTrue(table.release(ipv4(10, 0, 5, 1)));
+        assertFalse(table.release(ipv4(10, 0, 5, 1)));
+        assertTrue(table.tryAdmit(ipv4(10, 0, 99, 1)));
+        assertEquals(17, table.size());
+    }
+
+    public void testReplace()
+    {
+        AdmissionTable table = new AdmissionTable();
+
+        /* A full /16, with 10.0.0.1 at its limit of two */
+        assertTrue(table.tryAdmit(ipv4(10, 0, 0, 1)));
+        assertTrue(table.tryAdmit(ipv4(10, 0, 0, 1)));
+        for (int i = 1; i < 15; i++) {
+            assertTrue(table.tryAdmit(ipv4(10, 0, i, 1)));
+        }
+
+        /* The old address's slot counts for the new one */
+        assertTrue(table.replace(ipv4(10, 0, 3, 1), ipv4(10, 0, 99, 1)));
+        assertEquals(0, table.count(ipv4(10, 0, 3, 1), 32));
+        assertEquals(1, table.count(ipv4(10, 0, 99, 1), 32));
+        assertEquals(16, table.size());
+
+        /* A refused replacement leaves the old address counted */
+        assertFalse(table.replace(ipv4(10, 0, 5, 1), ipv4(10, 0, 0, 1)));
+        assertEquals(1, table.count(ipv4(10, 0, 5, 1), 32));
+        assertEquals(2, table.count(ipv4(10, 0, 0, 1), 32));
+        assertEquals(16, table.size());
+
+        /* An old address never admitted frees nothing */
+        assertFalse(table.replace(ipv4(11, 0, 0, 1), ipv4(10, 0, 77, 1)));
+        assertEquals(0, table.count(ipv4(11, 0, 0, 1), 32));
+        assertEquals(16, table.size());
+    }
+
+    public void testIPv6IsSeparate()
+    {
+        AdmissionTable table = new AdmissionTable();
+        byte[] a = new byte[16];
+        a[0] = 0x20;
+        a[1] = 0x01;
+
+        for (int i = 0; i < 16; i++) {
+            a[5] = (byte)i;
+            assertTrue(table.tryAdmit(a.clone()));
+        }
+
+        /* Same /32 */
+        a[5] = 100;
+        assertFalse(table.tryAdmit(a));
+        assertEquals(16, table.count(a, 32));
+        assertEquals(0, table.count(a, 48));
+
+        /* IPv4 limits are untouched */
+        assertTrue(table.tryAdmit(ipv4(1, 2, 3, 4)));
+    }
+
+    /* Admitting and releasing everything leaves no nodes behind */
+    public void testNodesAreRecycled()
+    {
+        AdmissionTable table = new AdmissionTable(AdmissionTable.ADDRESS_BITS);
+        Random rand = new Random(11);
+        byte[][] addresses = new byte[2000][16];
+
+        for (int round = 0; round < 3; round++) {
+            for (byte[] address : addresses) {
+                rand.nextBytes(address);
+                assertTrue(table.tryAdmit(address));
+            }
+
+            for (byte[] address : addresses) {
+                assertTrue(table.release(address));
+            }
+
+            assertEquals(0, table.size());
+            assertEquals(0, table.count(addresses[0], 1));
+        }
+    }
+
+    public void testIsIPv4()
+    {
+        assertTrue(Peer.isIPv4(mapped(127, 0, 0, 1)));
+        assertFalse(Peer.isIPv4(new byte[16]));
+    }
+
+    private static byte[] ipv4(int a, int b, int c, int d)
+    {
+        return new byte[] {(byte)a, (byte)b, (byte)c, (byte)d};
+    }
+
+    private static byte[] mapped(int a, int b, int c, int d)
+    {
+        byte[] out = new byte[16];
+        out[10] = (byte)0xFF;
+        out[11] = (byte)0xFF;
+        out[12] = (byte)a;
+        out[13] = (byte)b;
+        out[14] = (byte)c;
+        out[15] = (byte)d;
+        return out;
+    }
+}
@@ -0,0 +1,127 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Inactive and dead transitions driven by the timer wheel.
+ */
+public class LivenessWheelTest
+    extends TestCase
+{
+    private final Random rand = new Random(3);
+
+    private final List<Peer> inactive = new ArrayList<>();
+    private final List<Peer> dead = new ArrayList<>();
+
+    private final LivenessWheel.Listener recorder = new LivenessWheel.Listener() {
+        @Override
+        public void inactive(Peer peer) {
+            inactive.add(peer);
+        }
+
+        @Override
+        public void dead(Peer peer) {
+            dead.add(peer);
+        }
+    };
+
+    public LivenessWheelTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( LivenessWheelTest.class );
+    }
+
+    public void testTransitions()
+    {
+        long start = 1000000000L;
+        LivenessWheel wheel = new LivenessWheel(1000, 64, recorder, start);
+
+        Peer peer = newPeer();
+        peer.setLastSeen(start);
+        wheel.schedule(peer);
+
+        wheel.advance(start + Peer.INACTIVE_AFTER);
+        assertTrue(inactive.isEmpty());
+
+        wheel.advance(start + Peer.INACTIVE_AFTER + 1000);
+        assertEquals(1, inactive.size());
+
+        /* Seen again, the dead deadline moves with it */
+        long seen = start + Peer.INACTIVE_AFTER + 5000;
+        peer.setLastSeen(seen);
+
+        wheel.advance(start + Peer.DEAD_AFTER + 1000);
+        assertTrue(dead.isEmpty());
+
+        wheel.advance(seen + Peer.INACTIVE_AFTER + 1000);
+        assertEquals(2, inactive.size());
+
+        wheel.advance(seen + Peer.DEAD_AFTER + 1000);
+        assertEquals(1, dead.size());
+        assertSame(peer, dead.get(0));
+        assertEquals(0, wheel.size());
+    }
+
+    public void testCancel()
+    {
+        long start = 1000000000L;
+        LivenessWheel wheel = new LivenessWheel(1000, 64, recorder, start);
+
+        List<Peer> peers = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Peer p = newPeer();
+            p.setLastSeen(start - rand.nextInt(60 * 60 * 1000));
+            wheel.schedule(p);
+            peers.add(p);
+        }
+
+        for (int i = 0; i < 500; i++) {
+            wheel.cancel(peers.get(i));
+        }
+        assertEquals(500, wheel.size());
+
+        wheel.advance(start + Peer.DEAD_AFTER + 1000);
+        assertEquals(500, dead.size());
+        for (Peer p : dead) {
+            assertTrue(peers.indexOf(p) >= 500);
+        }
+    }
+
+    public void testStorageDropsDeadPeers()
+    {
+        PeerStorage storage = new PeerStorage(20, new byte[20]);
+        long now = System.currentTimeMillis();
+
+        Peer dying = newPeer();
+        dying.setLastSeen(now - Peer.DEAD_AFTER + 1000);
+        Peer live = newPeer();
+        live.witness();
+
+        storage.insert(dying);
+        storage.insert(live);
+        assertEquals(2, storage.size());
+
+        storage.getLiveness().advance(now + 5000);
+        assertNull(storage.get(dying.getAddress()));
+        assertSame(live, storage.get(live.getAddress()));
+        assertEquals(1, storage.size());
+    }
+
+    private Peer newPeer()
+    {
+        byte[] privkey = new byte[32];
+        rand.nextBytes(privkey);
+
+        return new Peer(new byte[2], new byte[] {127, 0, 0, 1}, new byte[2], privkey);
+    }
+}
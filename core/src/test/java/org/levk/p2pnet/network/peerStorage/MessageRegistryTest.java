@@ -0,0 +1,126 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.levk.p2pnet.network.wire.CompressionPolicy;
+import org.levk.p2pnet.network.wire.MessageCodec;
+import org.levk.p2pnet.util.BufferPool;
+
+/**
+ * Typed messages reach their handler as they are decoded, others
+ * are queued as before.
+ */
+public class MessageRegistryTest
+    extends TestCase
+{
+    private final Random rand = new Random(3);
+
+    public MessageRegistryTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( MessageRegistryTest.class );
+    }
+
+    public void testDispatchesByType() throws Exception
+    {
+        MessageRegistry registry = new MessageRegistry(16);
+        long[] sum = new long[1];
+        int[] calls = new int[1];
+
+        registry.register(7, (peer, body) -> {
+            calls[0]++;
+            while (body.remaining() >= 8) sum[0] += body.getLong();
+        });
+
+        try {
+            registry.register(7, (peer, body) -> { });
+            fail("Registered a type twice");
+        } catch (RuntimeException e) {
+            /* expected */
+        }
+
+        Peer peer = newPeer();
+        peer.setMessageRegistry(registry);
+
+        /* Raw and compressed bodies both reach the handler */
+        ByteBuffer longs = ByteBuffer.allocate(8 * 512);
+        for (int i = 0; i < 512; i++) longs.putLong(i);
+
+        assertEquals(0, peer.receive(frame(7, new byte[64], CompressionPolicy.NEVER)));
+        assertEquals(0, peer.receive(frame(7, longs.array(), CompressionPolicy.DEFAULT)));
+        assertEquals(2, calls[0]);
+        assertEquals(511L * 512 / 2, sum[0]);
+
+        /* No handler queues it without the type id */
+        byte[] other = new byte[100];
+        rand.nextBytes(other);
+        assertEquals(1, peer.receive(frame(9, other, CompressionPolicy.DEFAULT)));
+        assertTrue(Arrays.equals(other, peer.pollReceived()));
+
+        /* Untyped messages are queued even if they start like a registered type */
+        other[0] = 0;
+        other[1] = 7;
+        assertEquals(1, peer.receive(frame(MessageCodec.UNTYPED, other, CompressionPolicy.DEFAULT)));
+        assertTrue(Arrays.equals(other, peer.pollReceived()));
+        assertEquals(2, calls[0]);
+
+        registry.unregister(7);
+        assertEquals(1, peer.receive(frame(7, new byte[8], CompressionPolicy.NEVER)));
+    }
+
+    public void testBroadcastCarriesType() throws Exception
+    {
+        PeerStorage storage = new PeerStorage(20, new byte[20]);
+        Peer p = newPeer();
+        p.witness();
+        storage.insert(p);
+
+        byte[] message = new byte[300];
+        storage.broadcast(42, message);
+
+        Peer receiver = newPeer();
+        assertEquals(1, receiver.receive(ByteBuffer.wrap(p.grabForSend())));
+
+        /* Typed, so a registry sees it */
+        MessageRegistry registry = new MessageRegistry(64);
+        int[] calls = new int[1];
+        registry.register(42, (peer, body) -> calls[0]++);
+
+        Peer handled = newPeer();
+        handled.setMessageRegistry(registry);
+        storage.broadcast(42, new byte[301]);
+        assertEquals(0, handled.receive(ByteBuffer.wrap(p.grabForSend())));
+        assertEquals(1, calls[0]);
+
+        assertTrue(Arrays.equals(message, receiver.pollReceived()));
+    }
+
+    private static ByteBuffer frame(int type, byte[] message, CompressionPolicy policy) throws Exception
+    {
+        BufferPool pool = BufferPool.getDefault();
+        ByteBuffer frame = MessageCodec.encode(type, message, policy, pool, null);
+
+        ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+        copy.put(frame).flip();
+        pool.release(frame);
+        return copy;
+    }
+
+    private Peer newPeer()
+    {
+        byte[] privkey = new byte[32];
+        rand.nextBytes(privkey);
+
+        return new Peer(new byte[2], new byte[] {127, 0, 0, 1}, new byte[2], privkey);
+    }
+}
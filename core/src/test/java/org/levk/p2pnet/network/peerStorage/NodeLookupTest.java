@@ -0,0 +1,112 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Iterative lookups over a simulated network of in-process nodes,
+ * some of which never answer.
+ */
+public class NodeLookupTest
+    extends TestCase
+{
+    private final static int NODES = 300;
+    private final static int K = 8;
+
+    private final Random rand = new Random(11);
+
+    public NodeLookupTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( NodeLookupTest.class );
+    }
+
+    public void testFindsClosestResponsiveNodes() throws Exception
+    {
+        List<Peer> peers = new ArrayList<>();
+        Map<ByteBuffer, PeerStorage> tables = new HashMap<>();
+        Map<ByteBuffer, Boolean> silent = new HashMap<>();
+
+        for (int i = 0; i < NODES; i++) {
+            Peer p = newPeer();
+            p.witness();
+            peers.add(p);
+
+            ByteBuffer key = ByteBuffer.wrap(p.getAddress());
+            tables.put(key, new PeerStorage(K, p.getAddress()));
+            silent.put(key, i > 0 && rand.nextInt(10) == 0);
+        }
+
+        for (Peer p : peers) {
+            PeerStorage table = tables.get(ByteBuffer.wrap(p.getAddress()));
+            for (Peer other : peers) {
+                if (other != p) table.insert(other);
+            }
+        }
+
+        ExecutorService network = Executors.newFixedThreadPool(4);
+
+        try {
+            NodeLookup.Querier querier = (peer, target) -> {
+                ByteBuffer key = ByteBuffer.wrap(peer.getAddress());
+                if (silent.get(key)) return new CompletableFuture<>();
+
+                return CompletableFuture.supplyAsync(() -> tables.get(key).findClosest(target, K), network);
+            };
+
+            Peer self = peers.get(0);
+            NodeLookup lookup = new NodeLookup(tables.get(ByteBuffer.wrap(self.getAddress())), querier, 3, 200);
+
+            for (int round = 0; round < 5; round++) {
+                byte[] target = new byte[20];
+                rand.nextBytes(target);
+
+                List<Peer> expected = new ArrayList<>();
+                for (Peer p : peers) {
+                    if (p != self && !silent.get(ByteBuffer.wrap(p.getAddress()))) expected.add(p);
+                }
+                expected.sort((a, b) -> PeerStorage.compareDistance(a.getAddress(), b.getAddress(), target));
+
+                List<Peer> found = lookup.lookup(target).get();
+
+                /* Kademlia gives no exact guarantee, but the lookup
+                 * must reach the very closest node and land among
+                 * the closest live ones, in order */
+                assertEquals(K, found.size());
+                assertSame(expected.get(0), found.get(0));
+
+                int last = -1;
+                for (Peer p : found) {
+                    int rank = expected.indexOf(p);
+                    assertTrue(rank > last && rank < 2 * K);
+                    last = rank;
+                }
+            }
+        } finally {
+            network.shutdown();
+        }
+    }
+
+    private Peer newPeer()
+    {
+        byte[] privkey = new byte[32];
+        rand.nextBytes(privkey);
+
+        return new Peer(new byte[2], new byte[] {127, 0, 0, 1}, new byte[2], privkey);
+    }
+}
@@ -0,0 +1,161 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.levk.CrispyRotaryPhone.CRPENC;
+import org.levk.SchnorrCode.crypto.SchnorrKey;
+import org.levk.p2pnet.util.HashUtil;
+
+/**
+ * Peers survive a reopen and a compaction, an interrupted compaction
+ * is finished on open, and corrupt offsets are dropped.
+ */
+public class PeerDatabaseTest
+    extends TestCase
+{
+    private final Random rand = new Random(3);
+    private Path dir;
+
+    public PeerDatabaseTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PeerDatabaseTest.class );
+    }
+
+    protected void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory("peerdb");
+    }
+
+    protected void tearDown() throws Exception
+    {
+        Files.walk(dir).sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+    }
+
+    public void testReopenAndCompact() throws Exception
+    {
+        List<Peer> peers = new ArrayList<>();
+
+        try (PeerDatabase db = new PeerDatabase(dir)) {
+            for (int i = 0; i < 2000; i++) {
+                Peer p = newPeer();
+                p.setLastSeen(System.currentTimeMillis() - i);
+                db.put(p);
+                peers.add(p);
+            }
+
+            /* Same record again only refreshes it */
+            db.put(peers.get(0));
+            assertEquals(2000, db.size());
+
+            for (int i = 0; i < 1500; i++) {
+                assertTrue(db.remove(peers.get(i).getAddress()));
+            }
+        }
+
+        try (PeerDatabase db = new PeerDatabase(dir)) {
+            assertEquals(500, db.size());
+            assertTrue(db.compactIfNeeded());
+            assertEquals(500, db.size());
+        }
+
+        try (PeerDatabase db = new PeerDatabase(dir)) {
+            PeerStorage storage = new PeerStorage(1000, new byte[20]);
+            assertEquals(500, db.load(storage));
+
+            Peer last = peers.get(1999);
+            Peer loaded = storage.get(last.getAddress());
+            assertNotNull(loaded);
+            assertTrue(loaded.isValid());
+            assertEquals(last.getLastSeen(), loaded.getLastSeen());
+            assertNull(storage.get(peers.get(0).getAddress()));
+        }
+    }
+
+    public void testInterruptedCompaction() throws Exception
+    {
+        try (PeerDatabase db = new PeerDatabase(dir)) {
+            for (int i = 0; i < 100; i++) {
+                db.put(newPeer());
+            }
+            db.compact();
+        }
+
+        /* As if the new log replaced the old but the meta file did not */
+        Path meta = dir.resolve("peers.meta");
+        Files.copy(meta, dir.resolve("peers.meta.tmp"));
+        putInt(meta, 12, 0);
+
+        try (PeerDatabase db = new PeerDatabase(dir)) {
+            assertEquals(100, db.size());
+        }
+        assertFalse(Files.exists(dir.resolve("peers.meta.tmp")));
+
+        /* Without the new meta file the mismatch can't be repaired */
+        putInt(meta, 12, 0);
+        try {
+            new PeerDatabase(dir).close();
+            fail("Files from different compactions were opened together");
+        } catch (IOException e) {
+            /* expected */
+        }
+    }
+
+    public void testCorruptOffsetIsDropped() throws Exception
+    {
+        try (PeerDatabase db = new PeerDatabase(dir)) {
+            for (int i = 0; i < 10; i++) {
+                db.put(newPeer());
+            }
+        }
+
+        /* The first slot's log offset, past the end of the log */
+        ByteBuffer offset = ByteBuffer.allocate(Long.BYTES).putLong(0, 1L << 40);
+        try (FileChannel channel = FileChannel.open(dir.resolve("peers.meta"), StandardOpenOption.WRITE)) {
+            channel.write(offset, 16);
+        }
+
+        try (PeerDatabase db = new PeerDatabase(dir)) {
+            assertEquals(9, db.size());
+            assertEquals(9, db.load(new PeerStorage(1000, new byte[20])));
+        }
+    }
+
+    private static void putInt(Path file, long position, int value) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, value), position);
+        }
+    }
+
+    private Peer newPeer()
+    {
+        byte[] privkey = new byte[32];
+        byte[] address = new byte[Peer.ADDRESS_LENGTH];
+        byte[] sig = new byte[HashUtil.SIG_LENGTH];
+        rand.nextBytes(privkey);
+        rand.nextBytes(address);
+        rand.nextBytes(sig);
+
+        byte[] pubkey = new SchnorrKey(privkey).getPubkey();
+        Peer peer = Peer.decode(CRPENC.encode(new byte[Peer.VERSION_LENGTH], address, new byte[Peer.PORT_LENGTH], pubkey, sig));
+        peer.setValid(true);
+        return peer;
+    }
+}
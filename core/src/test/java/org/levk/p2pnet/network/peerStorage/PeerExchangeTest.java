@@ -0,0 +1,235 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.levk.CrispyRotaryPhone.CRPENC;
+import org.levk.SchnorrCode.crypto.SchnorrKey;
+import org.levk.p2pnet.network.wire.CompressionPolicy;
+import org.levk.p2pnet.network.wire.MessageCodec;
+import org.levk.p2pnet.util.BufferPool;
+import org.levk.p2pnet.util.HashUtil;
+
+/**
+ * Peer batches survive a round trip, every verifier path shares one
+ * cache, a bucket's cached batch lasts exactly as long as its
+ * membership, and malformed messages are rejected as I/O errors.
+ */
+public class PeerExchangeTest
+    extends TestCase
+{
+    private final Random rand = new Random(11);
+
+    public PeerExchangeTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PeerExchangeTest.class );
+    }
+
+    public void testRoundTrip() throws Exception
+    {
+        List<Peer> sent = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            sent.add(signedPeer(i));
+        }
+
+        /* Unsigned peers are left out */
+        List<Peer> mixed = new ArrayList<>(sent);
+        mixed.add(new Peer(new byte[2], new byte[] {127, 0, 0, 1}, new byte[2], new byte[32]));
+
+        byte[] batch = PeerExchange.encode(mixed);
+        assertEquals(PeerExchange.COUNT_LENGTH + 50 * PeerExchange.RECORD_LENGTH, batch.length);
+
+        List<Peer> received = PeerExchange.decode(ByteBuffer.wrap(batch));
+        assertEquals(50, received.size());
+
+        for (int i = 0; i < 50; i++) {
+            Peer a = sent.get(i);
+            Peer b = received.get(i);
+
+            assertTrue(Arrays.equals(a.getVersion(), b.getVersion()));
+            assertTrue(Arrays.equals(a.getNetworkAddress(), b.getNetworkAddress()));
+            assertTrue(Arrays.equals(a.getPort(), b.getPort()));
+            assertTrue(Arrays.equals(a.getPubkey(), b.getPubkey()));
+            assertTrue(Arrays.equals(a.getSig(), b.getSig()));
+            assertTrue(Arrays.equals(a.getAddress(), b.getAddress()));
+        }
+
+        PeerVerifier verifier = new PeerVerifier(2, 1024);
+        try {
+            assertEquals(50, verifier.verifyDecoded(received).join().size());
+            assertEquals(50, verifier.cachedCount());
+
+            /* A flipped bit in the third record's signature fails only it */
+            byte[] tampered = batch.clone();
+            tampered[PeerExchange.COUNT_LENGTH + 3 * PeerExchange.RECORD_LENGTH - 1] ^= 1;
+
+            List<Peer> verified = verifier.verifyDecoded(PeerExchange.decode(ByteBuffer.wrap(tampered))).join();
+            assertEquals(49, verified.size());
+            for (Peer p : verified) {
+                assertFalse(Arrays.equals(received.get(2).getAddress(), p.getAddress()));
+            }
+        } finally {
+            verifier.shutdown();
+        }
+
+        try {
+            PeerExchange.decode(ByteBuffer.wrap(batch, 0, batch.length - 1));
+            fail("A truncated batch should be rejected");
+        } catch (IOException e) {
+            /* expected */
+        }
+    }
+
+    /* A record verified on its own is a cache hit when it
+     * arrives again in a batch, and the other way round */
+    public void testVerifierPathsShareCache() throws Exception
+    {
+        List<Peer> sent = new ArrayList<>();
+        List<byte[]> records = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Peer p = signedPeer(i);
+            sent.add(p);
+            records.add(record(p));
+        }
+
+        byte[] tampered = records.get(9);
+        tampered[tampered.length - 1] ^= 1;
+
+        PeerVerifier verifier = new PeerVerifier(2, 1024);
+        try {
+            assertEquals(9, verifier.verifyAll(records).size());
+            assertEquals(10, verifier.cachedCount());
+
+            byte[] batch = PeerExchange.encode(sent.subList(0, 9));
+            assertEquals(9, verifier.verifyDecoded(PeerExchange.decode(ByteBuffer.wrap(batch))).join().size());
+            assertEquals(10, verifier.cachedCount());
+
+            /* The batch path saw the eleventh record first */
+            Peer extra = signedPeer(10);
+            assertEquals(1, verifier.verifyDecoded(PeerExchange.decode(ByteBuffer.wrap(PeerExchange.encode(Arrays.asList(extra))))).join().size());
+            assertEquals(11, verifier.cachedCount());
+            assertEquals(1, verifier.verifyAll(Arrays.asList(record(extra))).size());
+            assertEquals(11, verifier.cachedCount());
+        } finally {
+            verifier.shutdown();
+        }
+    }
+
+    public void testBucketCacheFollowsMembership() throws Exception
+    {
+        PeerStorage storage = new PeerStorage(20, new byte[PeerTable.BUCKET_WIDTH]);
+
+        /* Peers whose address starts with a set bit share bucket 0 */
+        List<Peer> peers = new ArrayList<>();
+        for (int i = 0; peers.size() < 6; i++) {
+            Peer p = signedPeer(i);
+            if (storage.bucketIndex(p.getAddress()) == 0) peers.add(p);
+        }
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(storage.insert(peers.get(i)));
+        }
+
+        byte[] batch = storage.getEncodedBucket(0);
+        assertEquals(5, PeerExchange.decode(ByteBuffer.wrap(batch)).size());
+        assertSame(batch, storage.getEncodedBucket(0));
+
+        /* Seeing a peer again only reorders the bucket */
+        assertTrue(storage.insert(peers.get(0)));
+        assertSame(batch, storage.getEncodedBucket(0));
+
+        assertTrue(storage.insert(peers.get(5)));
+        byte[] grown = storage.getEncodedBucket(0);
+        assertFalse(batch == grown);
+        assertEquals(6, PeerExchange.decode(ByteBuffer.wrap(grown)).size());
+
+        assertTrue(storage.remove(peers.get(2)));
+        assertEquals(5, PeerExchange.decode(ByteBuffer.wrap(storage.getEncodedBucket(0))).size());
+    }
+
+    /* Bad input from a peer fails its receive with an IOException,
+     * which closes that connection only */
+    public void testMalformedInputIsAnIOException() throws Exception
+    {
+        PeerStorage storage = new PeerStorage(20, new byte[PeerTable.BUCKET_WIDTH]);
+        MessageRegistry registry = new MessageRegistry(16);
+        PeerVerifier verifier = new PeerVerifier(1, 16);
+        PeerExchange.register(registry, storage, verifier, peers -> { });
+
+        try {
+            byte[][] bad = {
+                frame(PeerExchange.PEERS, new byte[] {0, 3, 1, 2, 3}),
+                frame(PeerExchange.GET_PEERS, new byte[5])
+            };
+
+            for (byte[] message : bad) {
+                Peer peer = new Peer(new byte[2], new byte[] {127, 0, 0, 1}, new byte[2], new byte[32]);
+                peer.setMessageRegistry(registry);
+
+                try {
+                    peer.receive(message);
+                    fail("Malformed peer exchange message accepted");
+                } catch (IOException e) {
+                    /* expected */
+                }
+            }
+        } finally {
+            verifier.shutdown();
+        }
+    }
+
+    private static byte[] frame(int type, byte[] message) throws Exception
+    {
+        BufferPool pool = BufferPool.getDefault();
+        ByteBuffer frame = MessageCodec.encode(type, message, CompressionPolicy.NEVER, pool, null);
+
+        byte[] out = new byte[frame.remaining()];
+        frame.get(out);
+        pool.release(frame);
+        return out;
+    }
+
+    private static byte[] record(Peer p)
+    {
+        return CRPENC.encode(p.getVersion(), p.getNetworkAddress(), p.getPort(), p.getPubkey(), p.getSig());
+    }
+
+    private Peer signedPeer(int seed)
+    {
+        Random r = new Random(seed);
+
+        byte[] privkey = new byte[HashUtil.PRIVKEY_LENGTH];
+        r.nextBytes(privkey);
+
+        byte[] address = Arrays.copyOf(Peer.IPv4inIPv6Prefix, Peer.ADDRESS_LENGTH);
+        address[12] = 10;
+        address[14] = (byte)(seed >>> 8);
+        address[15] = (byte)seed;
+
+        byte[] port = new byte[2];
+        rand.nextBytes(port);
+
+        /* Signed over the hash of every other field, as Peer checks it */
+        byte[] version = { 1, 2 };
+        SchnorrKey key = new SchnorrKey(privkey);
+        byte[] pubkey = key.getPubkey();
+
+        byte[] hash = new byte[HashUtil.HASH_LENGTH];
+        HashUtil.blake2(hash, 0, version, address, port, pubkey);
+
+        return Peer.decode(CRPENC.encode(version, address, port, pubkey, key.sign(hash)));
+    }
+}
@@ -0,0 +1,261 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.levk.p2pnet.network.wire.SeenCache;
+
+/**
+ * Routing table insertion, eviction and closest-peer queries.
+ */
+public class PeerStorageTest
+    extends TestCase
+{
+    private final Random rand = new Random(42);
+
+    public PeerStorageTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PeerStorageTest.class );
+    }
+
+    public void testFindClosestMatchesBruteForce()
+    {
+        PeerStorage storage = new PeerStorage(20, address());
+        List<Peer> all = new ArrayList<>();
+
+        for (int i = 0; i < 500; i++) {
+            Peer p = newPeer();
+            p.witness();
+            if (storage.insert(p)) all.add(p);
+        }
+
+        assertEquals(all.size(), storage.size());
+
+        byte[] target = address();
+        all.sort((a, b) -> PeerStorage.compareDistance(a.getAddress(), b.getAddress(), target));
+
+        List<Peer> closest = storage.findClosest(target, 10);
+        assertEquals(10, closest.size());
+        for (int i = 0; i < 10; i++) {
+            assertSame(all.get(i), closest.get(i));
+        }
+    }
+
+    public void testEvictsDeadBeforeActive()
+    {
+        byte[] self = new byte[20];
+        PeerStorage storage = new PeerStorage(2, self);
+
+        /* Never witnessed, so already dead */
+        Peer dead = peerInBucketZero();
+        Peer live = peerInBucketZero();
+        live.witness();
+
+        assertTrue(storage.insert(dead));
+        assertTrue(storage.insert(live));
+
+        Peer newer = peerInBucketZero();
+        newer.witness();
+        assertTrue(storage.insert(newer));
+        assertNull(storage.get(dead.getAddress()));
+        assertEquals(2, storage.getBucket(0).size());
+
+        /* Full of active peers, the candidate is held back */
+        Peer extra = peerInBucketZero();
+        extra.witness();
+        assertFalse(storage.insert(extra));
+
+        /* Only stored peers are tracked */
+        assertEquals(2, storage.getLiveness().size());
+
+        /* And promoted once a slot frees up */
+        assertTrue(storage.remove(live));
+        assertSame(extra, storage.get(extra.getAddress()));
+        assertEquals(2, storage.size());
+        assertEquals(2, storage.getLiveness().size());
+    }
+
+    /* A second Peer for a stored address neither replaces the
+     * stored one nor removes it when it goes dead itself */
+    public void testReinsertKeepsStoredPeer()
+    {
+        PeerStorage storage = new PeerStorage(20, address());
+
+        byte[] privkey = new byte[32];
+        rand.nextBytes(privkey);
+        Peer stored = new Peer(new byte[2], new byte[] {127, 0, 0, 1}, new byte[2], privkey);
+        stored.witness();
+        assertTrue(storage.insert(stored));
+
+        /* Never witnessed, so dead as soon as the wheel looks */
+        Peer copy = new Peer(new byte[2], new byte[] {127, 0, 0, 1}, new byte[2], privkey);
+        assertTrue(storage.insert(copy));
+        assertSame(stored, storage.get(stored.getAddress()));
+
+        storage.getLiveness().advance(System.currentTimeMillis() + 10 * LivenessWheel.DEFAULT_TICK);
+        assertSame(stored, storage.get(stored.getAddress()));
+        assertEquals(1, storage.size());
+    }
+
+    public void testSubnetLimit()
+    {
+        AdmissionTable subnets = new AdmissionTable();
+        PeerStorage storage = new PeerStorage(20, address(), new SeenCache(), subnets);
+
+        /* Every test peer is 127.0.0.1 */
+        List<Peer> inserted = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Peer p = newPeer();
+            p.witness();
+            if (storage.insert(p)) inserted.add(p);
+        }
+
+        assertEquals(2, inserted.size());
+        assertEquals(2, subnets.size());
+        assertEquals(2, storage.getLiveness().size());
+
+        assertTrue(storage.remove(inserted.get(0)));
+        assertEquals(1, subnets.size());
+
+        Peer p = newPeer();
+        p.witness();
+        assertTrue(storage.insert(p));
+    }
+
+    /* A candidate over its subnet's limit waits for a later vacancy */
+    public void testCandidateOverLimitIsKept()
+    {
+        PeerStorage storage = new PeerStorage(1, address(), new SeenCache(), new AdmissionTable());
+        byte[] local = {127, 0, 0, 1};
+        byte[] other = {10, 0, 0, 1};
+
+        Peer a = peerIn(storage, other, -1);
+        int bucket = storage.bucketIndex(a.getAddress());
+        assertTrue(storage.insert(a));
+
+        /* Two more from 127.0.0.1 fill its limit, in other buckets */
+        Peer c = peerIn(storage, local, -1);
+        assertTrue(storage.insert(c));
+        assertTrue(storage.insert(peerIn(storage, local, -1)));
+
+        Peer b = peerIn(storage, local, bucket);
+        assertFalse(storage.insert(b));
+
+        /* No room for b under its subnet yet */
+        assertTrue(storage.remove(a));
+        assertNull(storage.get(b.getAddress()));
+
+        assertTrue(storage.remove(c));
+        Peer f = peerIn(storage, other, bucket);
+        assertTrue(storage.insert(f));
+
+        assertTrue(storage.remove(f));
+        assertSame(b, storage.get(b.getAddress()));
+    }
+
+    public void testBroadcastSharesOneFrame() throws Exception
+    {
+        PeerStorage storage = new PeerStorage(20, address());
+        for (int i = 0; i < 50; i++) {
+            Peer p = newPeer();
+            p.witness();
+            storage.insert(p);
+        }
+
+        byte[] message = new byte[4096];
+        int sent = storage.broadcast(0, message);
+        assertEquals(storage.size(), sent);
+
+        byte[] first = null;
+        for (int i = 0; i < storage.bucketCount(); i++) {
+            for (Peer p : storage.getBucket(i)) {
+                byte[] frame = p.grabForSend();
+                if (first == null) first = frame;
+                assertTrue(java.util.Arrays.equals(first, frame));
+            }
+        }
+        assertNotNull(first);
+    }
+
+    public void testEchoedBroadcastIsDropped() throws Exception
+    {
+        PeerStorage storage = new PeerStorage(20, address());
+        Peer p = newPeer();
+        p.witness();
+        storage.insert(p);
+
+        byte[] message = new byte[4096];
+        rand.nextBytes(message);
+        storage.broadcast(0, message);
+
+        /* The neighbour relays our own frame back */
+        byte[] echoed = p.grabForSend();
+        assertEquals(0, p.receive(java.nio.ByteBuffer.wrap(echoed)));
+        assertEquals(1, p.getCounters().get(org.levk.p2pnet.metrics.PeerCounters.DUPLICATES_IN));
+
+        message[0]++;
+        assertEquals(1, storage.broadcast(0, message));
+
+        Peer other = newPeer();
+        byte[] fresh = p.grabForSend();
+        assertEquals(1, other.receive(java.nio.ByteBuffer.wrap(fresh)));
+
+        /* Direct messages are never taken for duplicates */
+        p.trySend(message);
+        byte[] direct = p.grabForSend();
+        assertEquals(1, p.receive(java.nio.ByteBuffer.wrap(direct)));
+        assertEquals(1, p.receive(java.nio.ByteBuffer.wrap(direct)));
+    }
+
+    private Peer peerInBucketZero()
+    {
+        Peer p;
+        do {
+            p = newPeer();
+        } while ((p.getAddress()[0] & 0x80) == 0);
+        return p;
+    }
+
+    private byte[] address()
+    {
+        byte[] out = new byte[20];
+        rand.nextBytes(out);
+        return out;
+    }
+
+    /* A witnessed peer from ip in the given bucket, or
+     * in any empty one if bucket is negative */
+    private Peer peerIn(PeerStorage storage, byte[] ip, int bucket)
+    {
+        while (true) {
+            byte[] privkey = new byte[32];
+            rand.nextBytes(privkey);
+
+            Peer p = new Peer(new byte[2], ip, new byte[2], privkey);
+            int i = storage.bucketIndex(p.getAddress());
+
+            if (bucket < 0 ? storage.getBucket(i).isEmpty() : i == bucket) {
+                p.witness();
+                return p;
+            }
+        }
+    }
+
+    private Peer newPeer()
+    {
+        byte[] privkey = new byte[32];
+        rand.nextBytes(privkey);
+
+        return new Peer(new byte[2], new byte[] {127, 0, 0, 1}, new byte[2], privkey);
+    }
+}
@@ -0,0 +1,129 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.levk.CrispyRotaryPhone.CRPENC;
+import org.levk.SchnorrCode.crypto.SchnorrKey;
+import org.levk.p2pnet.util.HashUtil;
+
+/**
+ * Flat peer records: index upkeep, in-place reads and materializing.
+ */
+public class PeerTableTest
+    extends TestCase
+{
+    private final Random rand = new Random(5);
+
+    public PeerTableTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PeerTableTest.class );
+    }
+
+    public void testPutRemoveKeepsIndex()
+    {
+        PeerTable table = new PeerTable();
+        List<byte[]> addresses = new ArrayList<>();
+
+        for (int i = 0; i < 10000; i++) {
+            int row = table.put(record(i), i);
+            addresses.add(bucketOf(table, row));
+        }
+        assertEquals(10000, table.size());
+
+        /* Replacing keeps the row */
+        int row = table.indexOf(addresses.get(7));
+        assertEquals(row, table.put(record(7), 99));
+        assertEquals(99, table.getLastSeen(row));
+
+        for (int i = 0; i < 10000; i += 2) {
+            assertTrue(table.remove(addresses.get(i)));
+        }
+        assertFalse(table.remove(addresses.get(0)));
+        assertEquals(5000, table.size());
+
+        for (int i = 0; i < 10000; i++) {
+            int r = table.indexOf(addresses.get(i));
+            if (i % 2 == 0) {
+                assertEquals(-1, r);
+            } else {
+                assertTrue(Arrays.equals(addresses.get(i), bucketOf(table, r)));
+            }
+        }
+    }
+
+    public void testFindClosestMatchesBruteForce()
+    {
+        PeerTable table = new PeerTable();
+        for (int i = 0; i < 3000; i++) {
+            table.put(record(i), i);
+        }
+
+        byte[] target = new byte[PeerTable.BUCKET_WIDTH];
+        rand.nextBytes(target);
+
+        List<byte[]> all = new ArrayList<>();
+        for (int i = 0; i < table.size(); i++) {
+            all.add(bucketOf(table, i));
+        }
+        all.sort((a, b) -> PeerStorage.compareDistance(a, b, target));
+
+        int[] closest = table.findClosest(target, 20);
+        assertEquals(20, closest.length);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(Arrays.equals(all.get(i), bucketOf(table, closest[i])));
+        }
+    }
+
+    public void testCursorAndMaterialize()
+    {
+        PeerTable table = new PeerTable();
+        int row = table.put(record(1), 1234);
+
+        PeerTable.Cursor cursor = table.cursor().moveTo(row);
+        assertEquals(0x0102, cursor.getVersion());
+        assertEquals(30303, cursor.getPort());
+        assertTrue(cursor.isIPv4());
+
+        Peer peer = table.materialize(row);
+        assertTrue(peer.isValid());
+        assertEquals(1234, peer.getLastSeen());
+        assertTrue(Arrays.equals(bucketOf(table, row), peer.getAddress()));
+        assertTrue(Arrays.equals(record(1), peer.toStore()));
+    }
+
+    private byte[] bucketOf(PeerTable table, int row)
+    {
+        byte[] out = new byte[PeerTable.BUCKET_WIDTH];
+        table.cursor().moveTo(row).getBucketAddress(out, 0);
+        return out;
+    }
+
+    /* Deterministic per seed, so records can be rebuilt */
+    private byte[] record(int seed)
+    {
+        Random r = new Random(seed);
+
+        byte[] privkey = new byte[32];
+        byte[] sig = new byte[HashUtil.SIG_LENGTH];
+        r.nextBytes(privkey);
+        r.nextBytes(sig);
+
+        byte[] address = Arrays.copyOf(Peer.IPv4inIPv6Prefix, Peer.ADDRESS_LENGTH);
+        address[12] = 10;
+        address[15] = (byte)seed;
+
+        return CRPENC.encode(new byte[] { 1, 2 }, address, new byte[] { 0x76, 0x5F }, new SchnorrKey(privkey).getPubkey(), sig);
+    }
+}
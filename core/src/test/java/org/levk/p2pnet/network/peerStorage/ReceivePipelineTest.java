@@ -0,0 +1,195 @@
+package org.levk.p2pnet.network.peerStorage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.levk.p2pnet.metrics.PeerCounters;
+import org.levk.p2pnet.network.wire.CompressionPolicy;
+import org.levk.p2pnet.network.wire.MessageCodec;
+import org.levk.p2pnet.network.wire.SeenCache;
+import org.levk.p2pnet.util.BufferPool;
+import org.levk.p2pnet.util.HashUtil;
+
+/**
+ * Frames fed through the staged receive path in arbitrary pieces
+ * come out whole, in order per peer, with duplicates dropped, and
+ * shutdown lets go of producers blocked on full rings.
+ */
+public class ReceivePipelineTest
+    extends TestCase
+{
+    private static final int PEERS = 16;
+    private static final int MESSAGES = 300;
+
+    private final Random rand = new Random(7);
+
+    public ReceivePipelineTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ReceivePipelineTest.class );
+    }
+
+    public void testOrderedPerPeer() throws Exception
+    {
+        ReceivePipeline pipeline = new ReceivePipeline(2, 4, 256);
+        SeenCache seen = new SeenCache();
+        BufferPool pool = BufferPool.getDefault();
+
+        CountDownLatch done = new CountDownLatch(PEERS * MESSAGES);
+        AtomicInteger misordered = new AtomicInteger();
+
+        Peer[] peers = new Peer[PEERS];
+        byte[][] wire = new byte[PEERS][];
+
+        for (int p = 0; p < PEERS; p++) {
+            Peer peer = newPeer();
+            peer.setSeenCache(seen);
+            peer.setReceivePipeline(pipeline);
+
+            int[] next = new int[1];
+            peer.setReceiveListener(() -> {
+                byte[] message;
+                while ((message = peer.pollReceived()) != null) {
+                    if (ByteBuffer.wrap(message).getInt() != next[0]++) misordered.incrementAndGet();
+                    done.countDown();
+                }
+            });
+
+            /* Every message is sent twice, the echo must be dropped */
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (int i = 0; i < MESSAGES; i++) {
+                byte[] frame = frame(message(p, i), pool);
+                out.write(frame);
+                if (i % 10 == 0) out.write(frame);
+            }
+
+            peers[p] = peer;
+            wire[p] = out.toByteArray();
+        }
+
+        try {
+            List<Thread> feeders = new ArrayList<>();
+            for (int p = 0; p < PEERS; p++) {
+                Peer peer = peers[p];
+                byte[] bytes = wire[p];
+                Random split = new Random(p);
+
+                feeders.add(new Thread(() -> {
+                    try {
+                        int pos = 0;
+                        while (pos < bytes.length) {
+                            int n = Math.min(bytes.length - pos, 1 + split.nextInt(3000));
+                            assertEquals(0, peer.receive(ByteBuffer.wrap(bytes, pos, n)));
+                            pos += n;
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }));
+            }
+
+            for (Thread t : feeders) t.start();
+            for (Thread t : feeders) t.join();
+
+            assertTrue("Timed out waiting for messages", done.await(30, TimeUnit.SECONDS));
+            assertEquals(0, misordered.get());
+
+            /* Nothing extra arrives once the duplicates settle */
+            Thread.sleep(100);
+            for (Peer peer : peers) {
+                assertEquals(0, peer.getReceiveQueueDepth());
+                assertEquals(MESSAGES / 10, peer.getCounters().get(PeerCounters.DUPLICATES_IN));
+            }
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+
+    /* Producers blocked on full rings are let go by shutdown, which
+     * returns only once every worker has exited */
+    public void testShutdownWithFramesInFlight() throws Exception
+    {
+        ReceivePipeline pipeline = new ReceivePipeline(1, 1, 2);
+        BufferPool pool = BufferPool.getDefault();
+        CountDownLatch first = new CountDownLatch(1);
+
+        Peer peer = newPeer();
+        peer.setReceivePipeline(pipeline);
+
+        /* Holds the dispatch worker so the rings back up */
+        peer.setReceiveListener(() -> {
+            first.countDown();
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        byte[] frame = frame(message(0, 0), pool);
+        Thread feeder = new Thread(() -> {
+            try {
+                for (int i = 0; i < 1000; i++) peer.receive(ByteBuffer.wrap(frame));
+            } catch (IOException e) {
+                /* expected once shut down */
+            }
+        });
+        feeder.start();
+
+        assertTrue(first.await(10, TimeUnit.SECONDS));
+        pipeline.shutdown();
+
+        feeder.join(10000);
+        assertFalse(feeder.isAlive());
+
+        try {
+            peer.receive(ByteBuffer.wrap(frame));
+            fail("A shut down pipeline accepted bytes");
+        } catch (IOException e) {
+            /* expected */
+        }
+    }
+
+    /* Numbered, with a compressible body on every other message */
+    private byte[] message(int peer, int i)
+    {
+        byte[] body = new byte[8 + rand.nextInt(2000)];
+        if (i % 2 == 0) rand.nextBytes(body);
+
+        ByteBuffer.wrap(body).putInt(i).putInt(peer);
+        return body;
+    }
+
+    private static byte[] frame(byte[] message, BufferPool pool) throws Exception
+    {
+        /* Relayed, so copies are subject to the seen cache */
+        ByteBuffer frame = MessageCodec.encode(message, CompressionPolicy.DEFAULT, pool, new byte[HashUtil.HASH_LENGTH]);
+        byte[] out = new byte[frame.remaining()];
+        frame.get(out);
+        pool.release(frame);
+        return out;
+    }
+
+    private Peer newPeer()
+    {
+        byte[] privkey = new byte[32];
+        rand.nextBytes(privkey);
+
+        return new Peer(new byte[2], new byte[] {127, 0, 0, 1}, new byte[2], privkey);
+    }
+}
@@ -0,0 +1,260 @@
+package org.levk.p2pnet.network.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.levk.p2pnet.network.peerStorage.Peer;
+import org.levk.p2pnet.network.wire.MessageClass;
+
+/**
+ * Runs many peers over loopback through two transports
+ * and checks every message is echoed back intact. The
+ * virtual thread mode falls back to platform threads
+ * before JDK 21.
+ */
+public class LoopbackTransportTest
+    extends TestCase
+{
+    private static final int CONNECTIONS = 200;
+    private static final int MESSAGES = 5;
+
+    private static final SecureRandom rand = new SecureRandom();
+
+    public LoopbackTransportTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( LoopbackTransportTest.class );
+    }
+
+    public void testEchoSelector() throws Exception
+    {
+        echo(TransportMode.SELECTOR);
+    }
+
+    public void testEchoVirtualThreads() throws Exception
+    {
+        echo(TransportMode.VIRTUAL);
+    }
+
+    /* Whatever p2pnet.transport selects, as the node would at startup */
+    public void testEchoConfiguredMode() throws Exception
+    {
+        echo(TransportMode.fromSystemProperty());
+    }
+
+    /* Bulk and control frames from two peers share one selector
+     * thread, the scheduler splits frames across turns but each
+     * peer's messages must still arrive whole and in order */
+    public void testMixedClassesKeepOrder() throws Exception
+    {
+        byte[] bulk = new byte[300 * 1024];
+        rand.nextBytes(bulk);
+        int rounds = 6;
+
+        CountDownLatch echoed = new CountDownLatch(rounds * 4);
+        List<byte[]> fromMixed = new CopyOnWriteArrayList<>();
+        AtomicInteger corrupt = new AtomicInteger();
+
+        Transport server = new Transport(1, new Listener() {
+            public Peer accepted(InetSocketAddress remote) {
+                return newPeer();
+            }
+
+            public void received(Peer peer) {
+                byte[] message;
+                while ((message = peer.pollReceived()) != null) {
+                    try {
+                        peer.send(message);
+                    } catch (IOException e) {
+                        corrupt.incrementAndGet();
+                    }
+                }
+            }
+        });
+
+        Peer bulkPeer = newPeer();
+        Peer mixedPeer = newPeer();
+
+        Transport client = new Transport(1, new Listener() {
+            public void received(Peer peer) {
+                byte[] message;
+                while ((message = peer.pollReceived()) != null) {
+                    if (peer == mixedPeer) {
+                        fromMixed.add(message);
+                    } else if (!Arrays.equals(bulk, message)) {
+                        corrupt.incrementAndGet();
+                    }
+                    echoed.countDown();
+                }
+            }
+        });
+
+        try {
+            server.start();
+            client.start();
+
+            InetSocketAddress address = server.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            client.connect(address, bulkPeer);
+            client.connect(address, mixedPeer);
+
+            for (int i = 0; i < rounds; i++) {
+                assertTrue(bulkPeer.trySend(bulk, MessageClass.BULK));
+                assertTrue(bulkPeer.trySend(bulk, MessageClass.BULK));
+                assertTrue(mixedPeer.trySend(bulk, MessageClass.BULK));
+                assertTrue(mixedPeer.trySend(new byte[] {(byte)i}, MessageClass.CONTROL));
+            }
+
+            assertTrue("Timed out waiting for echoes", echoed.await(60, TimeUnit.SECONDS));
+            assertEquals(0, corrupt.get());
+
+            for (int i = 0; i < rounds; i++) {
+                assertTrue(Arrays.equals(bulk, fromMixed.get(2 * i)));
+                assertTrue(Arrays.equals(new byte[] {(byte)i}, fromMixed.get(2 * i + 1)));
+            }
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    /* A listener blowing up on a peer's input closes that
+     * connection, with its queued frames released */
+    public void testFailingListenerClosesConnection() throws Exception
+    {
+        for (TransportMode mode : new TransportMode[] { TransportMode.SELECTOR, TransportMode.VIRTUAL }) {
+            CountDownLatch closed = new CountDownLatch(1);
+            Peer[] accepted = new Peer[1];
+
+            PeerTransport server = mode.create(1, new Listener() {
+                public Peer accepted(InetSocketAddress remote) {
+                    accepted[0] = newPeer();
+                    return accepted[0];
+                }
+
+                public void received(Peer peer) {
+                    try {
+                        peer.trySend(new byte[1024]);
+                    } catch (IOException e) {
+                        /* the failure below is the point */
+                    }
+                    throw new IllegalStateException("listener failure");
+                }
+
+                public void closed(Peer peer, IOException cause) {
+                    if (cause != null) closed.countDown();
+                }
+            });
+            PeerTransport client = mode.create(1, new Listener() {
+                public void received(Peer peer) { }
+            });
+
+            try {
+                server.start();
+                client.start();
+
+                InetSocketAddress address = server.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                Peer peer = newPeer();
+                client.connect(address, peer);
+                peer.send(new byte[] {1});
+
+                assertTrue("Connection not closed in " + mode, closed.await(10, TimeUnit.SECONDS));
+                assertEquals(0, accepted[0].getSendQueueDepth());
+            } finally {
+                client.close();
+                server.close();
+            }
+        }
+    }
+
+    private void echo(TransportMode mode) throws Exception
+    {
+        CountDownLatch echoed = new CountDownLatch(CONNECTIONS * MESSAGES);
+        AtomicInteger corrupt = new AtomicInteger();
+        byte[] payload = new byte[100 * 1024];
+        rand.nextBytes(payload);
+
+        PeerTransport server = mode.create(2, new Listener() {
+            public Peer accepted(InetSocketAddress remote) {
+                return newPeer();
+            }
+
+            public void received(Peer peer) {
+                byte[] message;
+                while ((message = peer.pollReceived()) != null) {
+                    try {
+                        peer.send(message);
+                    } catch (IOException e) {
+                        corrupt.incrementAndGet();
+                    }
+                }
+            }
+        });
+
+        PeerTransport client = mode.create(2, new Listener() {
+            public void received(Peer peer) {
+                byte[] message;
+                while ((message = peer.pollReceived()) != null) {
+                    if (!Arrays.equals(payload, message)) corrupt.incrementAndGet();
+                    echoed.countDown();
+                }
+            }
+        });
+
+        try {
+            server.start();
+            client.start();
+
+            InetSocketAddress address = server.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+            for (int i = 0; i < CONNECTIONS; i++) {
+                Peer peer = newPeer();
+                client.connect(address, peer);
+
+                for (int j = 0; j < MESSAGES; j++) {
+                    peer.send(payload);
+                }
+            }
+
+            assertTrue("Timed out waiting for echoes", echoed.await(60, TimeUnit.SECONDS));
+            assertEquals(0, corrupt.get());
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    private static Peer newPeer()
+    {
+        byte[] privkey = new byte[32];
+        rand.nextBytes(privkey);
+
+        return new Peer(new byte[2], new byte[] {127, 0, 0, 1}, new byte[2], privkey);
+    }
+
+    private static abstract class Listener implements TransportListener
+    {
+        public Peer accepted(InetSocketAddress remote) {
+            return null;
+        }
+
+        public void closed(Peer peer, IOException cause) {
+            if (cause != null) cause.printStackTrace();
+        }
+    }
+}
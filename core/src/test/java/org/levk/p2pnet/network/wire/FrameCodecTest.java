@@ -0,0 +1,169 @@
+package org.levk.p2pnet.network.wire;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.levk.p2pnet.util.BufferPool;
+import org.levk.p2pnet.util.BytesWriter;
+
+/**
+ * Round trips for the chunked frame format.
+ */
+public class FrameCodecTest
+    extends TestCase
+{
+    public FrameCodecTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( FrameCodecTest.class );
+    }
+
+    public void testChunkLayout() throws Exception
+    {
+        byte[] in = payload(300);
+        byte[] out = FrameEncoder.encode(in);
+
+        assertEquals(512, out.length);
+        assertEquals(0x00, out[0]);
+        assertEquals(45, out[256]);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(in, 0, 255), Arrays.copyOfRange(out, 1, 256)));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(in, 255, 300), Arrays.copyOfRange(out, 257, 302)));
+        assertTrue(Arrays.equals(new byte[210], Arrays.copyOfRange(out, 302, 512)));
+    }
+
+    /* Gathered slices, written a few bytes at a time, add up to the
+     * encoded frame, as does a plain copy */
+    public void testGatheredMatchesEncoded() throws Exception
+    {
+        int[] sizes = { 1, 254, 255, 256, 510, 511, 4096, 100 * 1000 };
+        BufferPool pool = new BufferPool(1 << 20);
+        BytesWriter writer = new BytesWriter(7);
+
+        for (int size : sizes) {
+            byte[] in = payload(size);
+            ByteBuffer buffer = pool.acquire(size);
+            buffer.put(in).flip();
+
+            Frame frame = Frame.ofPayload(buffer, pool, MessageClass.NORMAL);
+            assertEquals(FrameEncoder.encodedLength(size), frame.length());
+
+            TrickleChannel channel = new TrickleChannel(size % 97 + 1);
+            int piece = 0;
+
+            while (piece < frame.pieces()) {
+                writer.clear();
+                piece = frame.fill(writer, piece);
+
+                while (writer.hasRemaining()) {
+                    writer.write(channel, size % 300 + 1);
+                }
+            }
+
+            assertTrue("size " + size, Arrays.equals(FrameEncoder.encode(in), channel.out.toByteArray()));
+
+            ByteBuffer copy = ByteBuffer.allocate(frame.length());
+            frame.copyTo(copy);
+            assertTrue("size " + size, Arrays.equals(FrameEncoder.encode(in), copy.array()));
+            frame.release();
+        }
+    }
+
+    public void testRoundTrip() throws Exception
+    {
+        int[] sizes = { 1, 254, 255, 256, 510, 511, 4096, 1024 * 1024 };
+
+        for (int size : sizes) {
+            byte[] in = payload(size);
+            ByteBuffer out = new FrameDecoder().decode(ByteBuffer.wrap(FrameEncoder.encode(in)));
+
+            assertNotNull("size " + size, out);
+            assertEquals("size " + size, ByteBuffer.wrap(in), out);
+        }
+    }
+
+    public void testByteAtATime() throws Exception
+    {
+        byte[] first = payload(700);
+        byte[] second = payload(255);
+        byte[] wire = new byte[FrameEncoder.encodedLength(700) + FrameEncoder.encodedLength(255)];
+        ByteBuffer dst = ByteBuffer.wrap(wire);
+        FrameEncoder.encode(ByteBuffer.wrap(first), dst);
+        FrameEncoder.encode(ByteBuffer.wrap(second), dst);
+
+        FrameDecoder decoder = new FrameDecoder();
+        int found = 0;
+        for (int i = 0; i < wire.length; i++) {
+            ByteBuffer out = decoder.decode(ByteBuffer.wrap(wire, i, 1));
+            if (out != null) {
+                assertEquals(ByteBuffer.wrap(found == 0 ? first : second), out);
+                found++;
+            }
+        }
+
+        assertEquals(2, found);
+        assertFalse(decoder.isPartial());
+    }
+
+    public void testMaxLength() throws Exception
+    {
+        try {
+            new FrameDecoder(300).decode(ByteBuffer.wrap(FrameEncoder.encode(payload(600))));
+            fail("Oversized frame was accepted");
+        } catch (java.io.IOException expected) {
+        }
+    }
+
+    private static byte[] payload(int size)
+    {
+        byte[] out = new byte[size];
+        new Random(size).nextBytes(out);
+        return out;
+    }
+
+    /* Accepts at most a few bytes per write, like a full socket */
+    private static final class TrickleChannel implements GatheringByteChannel
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final int max;
+
+        TrickleChannel(int max) {
+            this.max = max;
+        }
+
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long n = 0;
+            for (int i = offset; i < offset + length && n < max; i++) {
+                while (srcs[i].hasRemaining() && n < max) {
+                    out.write(srcs[i].get());
+                    n++;
+                }
+            }
+            return n;
+        }
+
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        public int write(ByteBuffer src) {
+            return (int)write(new ByteBuffer[] { src });
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() { }
+    }
+}
@@ -0,0 +1,91 @@
+package org.levk.p2pnet.network.wire;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.levk.p2pnet.util.BufferPool;
+
+/**
+ * Compression mode selection and message round trips.
+ */
+public class MessageCodecTest
+    extends TestCase
+{
+    private final BufferPool pool = new BufferPool(1 << 24);
+
+    public MessageCodecTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( MessageCodecTest.class );
+    }
+
+    public void testModes() throws Exception
+    {
+        assertEquals(CompressionPolicy.RAW, roundTrip(text(16)));
+        assertEquals(CompressionPolicy.RAW, roundTrip(random(64 * 1024)));
+        assertEquals(CompressionPolicy.SNAPPY, roundTrip(text(64 * 1024)));
+        assertEquals(CompressionPolicy.SNAPPY_FRAMED, roundTrip(text(2 * 1024 * 1024)));
+    }
+
+    public void testNeverCompresses() throws Exception
+    {
+        byte[] message = text(64 * 1024);
+        assertEquals(CompressionPolicy.RAW, CompressionPolicy.NEVER.choose(message, 0, message.length));
+    }
+
+    /* A pool at its limit hands out heap buffers, which Snappy's
+     * buffer methods don't take */
+    public void testHeapBuffers() throws Exception
+    {
+        BufferPool full = new BufferPool(0);
+        byte[] message = text(64 * 1024);
+
+        ByteBuffer frame = MessageCodec.encode(message, CompressionPolicy.DEFAULT, full);
+        assertFalse(frame.isDirect());
+
+        ByteBuffer payload = new FrameDecoder(FrameDecoder.DEFAULT_MAX_LENGTH, full).decode(frame);
+        assertEquals(CompressionPolicy.SNAPPY, payload.get(payload.position()));
+        assertTrue(Arrays.equals(message, MessageCodec.decode(payload, full, FrameDecoder.DEFAULT_MAX_LENGTH)));
+        assertEquals(0, full.getAllocatedBytes());
+    }
+
+    private byte roundTrip(byte[] message) throws Exception
+    {
+        ByteBuffer frame = MessageCodec.encode(message, CompressionPolicy.DEFAULT, pool);
+        FrameDecoder decoder = new FrameDecoder(FrameDecoder.DEFAULT_MAX_LENGTH, pool);
+
+        ByteBuffer payload = decoder.decode(frame);
+        assertNotNull(payload);
+
+        byte mode = payload.get(payload.position());
+        assertTrue(Arrays.equals(message, MessageCodec.decode(payload, pool, FrameDecoder.DEFAULT_MAX_LENGTH)));
+
+        decoder.release();
+        pool.release(frame);
+        return mode;
+    }
+
+    private static byte[] text(int size)
+    {
+        byte[] out = new byte[size];
+        Random rand = new Random(size);
+        for (int i = 0; i < size; i++) out[i] = (byte)('a' + rand.nextInt(16));
+        return out;
+    }
+
+    private static byte[] random(int size)
+    {
+        byte[] out = new byte[size];
+        new Random(size).nextBytes(out);
+        return out;
+    }
+}
@@ -0,0 +1,94 @@
+package org.levk.p2pnet.network.wire;
+
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.levk.p2pnet.util.HashUtil;
+
+/**
+ * Duplicate detection and generation turn over.
+ */
+public class SeenCacheTest
+    extends TestCase
+{
+    private final Random rand = new Random(7);
+
+    public SeenCacheTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( SeenCacheTest.class );
+    }
+
+    public void testDropsDuplicates()
+    {
+        SeenCache seen = new SeenCache();
+        byte[][] hashes = new byte[10000][];
+
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = hash();
+            assertTrue(seen.add(hashes[i]));
+        }
+
+        for (byte[] h : hashes) {
+            assertFalse(seen.add(h));
+            assertTrue(seen.contains(h));
+        }
+    }
+
+    public void testRecentWindowIsExact()
+    {
+        /* The Bloom filters turn over every 8 messages, the
+         * exact tables must still catch every recent duplicate */
+        SeenCache seen = new SeenCache(60000, 1024, 8);
+        long now = System.currentTimeMillis();
+        byte[][] hashes = new byte[512][];
+
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = hash();
+            seen.add(hashes[i], now);
+        }
+
+        for (byte[] h : hashes) {
+            assertFalse(seen.add(h, now));
+        }
+    }
+
+    public void testForgetsAfterWindow()
+    {
+        SeenCache seen = new SeenCache(1000, 64, 1024);
+        long now = System.currentTimeMillis();
+
+        byte[] h = hash();
+        assertTrue(seen.add(h, now));
+        assertFalse(seen.add(h, now + 400));
+
+        /* Two half windows later both generations have turned over */
+        seen.add(hash(), now + 600);
+        seen.add(hash(), now + 1200);
+        assertTrue(seen.add(h, now + 1300));
+    }
+
+    public void testPayloadKey()
+    {
+        SeenCache seen = new SeenCache();
+        java.nio.ByteBuffer payload = java.nio.ByteBuffer.wrap(new byte[] { 0, 1, 2, 3 });
+
+        assertTrue(seen.add(payload));
+        assertEquals(0, payload.position());
+        assertFalse(seen.add(payload.duplicate()));
+    }
+
+    private byte[] hash()
+    {
+        byte[] in = new byte[16];
+        rand.nextBytes(in);
+        return HashUtil.blake2(in);
+    }
+}
@@ -0,0 +1,285 @@
+package org.levk.p2pnet.network.wire;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.levk.p2pnet.network.peerStorage.Peer;
+import org.levk.p2pnet.util.BufferPool;
+
+/**
+ * Streamed frames: bounded segments, compatibility with whole-frame
+ * decoding, routing among other messages, and a peer to peer transfer.
+ */
+public class StreamCodecTest
+    extends TestCase
+{
+    private final Random rand = new Random(19);
+    private final BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_BYTES);
+
+    public StreamCodecTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( StreamCodecTest.class );
+    }
+
+    public void testRoundTrip() throws Exception
+    {
+        for (boolean compress : new boolean[] { false, true }) {
+            byte[] message = message(3 * 1024 * 1024 + 77);
+            byte[] wire = stream(message, compress);
+
+            /* Decodes whole, like any other frame */
+            FrameDecoder decoder = new FrameDecoder(FrameDecoder.DEFAULT_MAX_LENGTH, pool);
+            ByteBuffer payload = decoder.decode(ByteBuffer.wrap(wire));
+            assertNotNull(payload);
+            assertTrue(Arrays.equals(message, MessageCodec.decode(payload, pool, FrameDecoder.DEFAULT_MAX_LENGTH)));
+
+            /* And streamed, in uneven pieces */
+            assertTrue(Arrays.equals(message, unstream(wire)));
+        }
+    }
+
+    public void testDecodesFramedMessages() throws Exception
+    {
+        byte[] message = message(200 * 1024);
+        ByteBuffer frame = MessageCodec.encode(message, new CompressionPolicy(0, 0, Integer.MAX_VALUE, 256), pool);
+
+        byte[] wire = new byte[frame.remaining()];
+        frame.get(wire);
+
+        assertEquals(CompressionPolicy.SNAPPY_FRAMED, wire[1]);
+        assertTrue(Arrays.equals(message, unstream(wire)));
+    }
+
+    public void testPeerToPeer() throws Exception
+    {
+        Peer sender = newPeer();
+        Peer receiver = newPeer();
+        byte[] message = message(6 * 1024 * 1024);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompletableFuture<Long> done = receiver.receiveStream(Channels.newChannel(out));
+
+        Thread writer = new Thread(() -> {
+            try (WritableByteChannel stream = sender.openStream(true)) {
+                for (int off = 0; off < message.length; off += 100000) {
+                    stream.write(ByteBuffer.wrap(message, off, Math.min(100000, message.length - off)));
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+
+        /* A message sent mid-stream follows it on the wire */
+        Thread.sleep(20);
+        sender.send(new byte[] { 1, 2, 3 });
+
+        long maxQueued = 0;
+        while (!done.isDone()) {
+            Frame frame = sender.pollForSend();
+            if (frame == null) {
+                Thread.sleep(1);
+                continue;
+            }
+
+            maxQueued = Math.max(maxQueued, sender.getSendQueueBytes());
+            receiver.receive(wire(frame));
+            frame.release();
+        }
+        writer.join();
+
+        assertEquals(message.length, (long)done.get());
+        assertTrue(Arrays.equals(message, out.toByteArray()));
+        assertTrue(maxQueued <= Peer.STREAM_WINDOW + StreamEncoder.SEGMENT_SIZE);
+
+        Frame last;
+        while ((last = sender.pollForSend()) != null) {
+            receiver.receive(wire(last));
+            last.release();
+        }
+        assertTrue(Arrays.equals(new byte[] { 1, 2, 3 }, receiver.grabReceived()));
+    }
+
+    /* Only streamed frames reach a waiting sink, which is
+     * written from the executor rather than the receiving thread */
+    public void testRoutesOnlyStreamedFrames() throws Exception
+    {
+        Peer sender = newPeer();
+        Peer receiver = newPeer();
+        byte[] message = message(10000);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<Thread> writers = new ArrayList<>();
+        WritableByteChannel sink = new WritableByteChannel() {
+            private final WritableByteChannel channel = Channels.newChannel(out);
+
+            public int write(ByteBuffer src) throws java.io.IOException {
+                writers.add(Thread.currentThread());
+                return channel.write(src);
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() { }
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<Long> done = receiver.receiveStream(sink, executor);
+
+            sender.send(new byte[] { 4, 5, 6 });
+            try (WritableByteChannel stream = sender.openStream(false)) {
+                stream.write(ByteBuffer.wrap(message));
+            }
+            sender.send(new byte[] { 7, 8 });
+
+            /* One byte at a time, so the mode byte arrives on its own */
+            Frame frame;
+            while ((frame = sender.pollForSend()) != null) {
+                ByteBuffer bytes = wire(frame);
+                frame.release();
+
+                while (bytes.hasRemaining()) {
+                    receiver.receive(ByteBuffer.wrap(new byte[] { bytes.get() }));
+                }
+            }
+
+            assertEquals(message.length, (long)done.get());
+            assertTrue(Arrays.equals(message, out.toByteArray()));
+            assertFalse(writers.contains(Thread.currentThread()));
+
+            assertTrue(Arrays.equals(new byte[] { 4, 5, 6 }, receiver.grabReceived()));
+            assertTrue(Arrays.equals(new byte[] { 7, 8 }, receiver.grabReceived()));
+
+            /* With no sink waiting a streamed message is queued whole */
+            try (WritableByteChannel stream = sender.openStream(true)) {
+                stream.write(ByteBuffer.wrap(message));
+            }
+            while ((frame = sender.pollForSend()) != null) {
+                receiver.receive(wire(frame));
+                frame.release();
+            }
+            assertTrue(Arrays.equals(message, receiver.grabReceived()));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /* Messages held back behind a stream are bounded by bytes
+     * as well as count, and all go out once it closes */
+    public void testHeldMessagesAreBounded() throws Exception
+    {
+        Peer sender = newPeer();
+        sender.setCompressionPolicy(CompressionPolicy.NEVER);
+
+        byte[] message = new byte[1000000];
+        rand.nextBytes(message);
+
+        WritableByteChannel stream = sender.openStream(false);
+
+        int held = 0;
+        while (sender.trySend(message)) held++;
+
+        /* Four megabyte-sized frames fill QUEUE_BYTES, far short of QUEUE_CAPACITY */
+        assertEquals(4, held);
+        assertEquals(0, sender.getSendQueueDepth());
+
+        stream.close();
+        assertEquals(held + 1, sender.getSendQueueDepth());
+        assertTrue(sender.getSendQueueBytes() <= Peer.QUEUE_BYTES);
+
+        sender.discardSendQueue();
+    }
+
+    private static ByteBuffer wire(Frame frame)
+    {
+        ByteBuffer out = ByteBuffer.allocate(frame.length());
+        frame.copyTo(out);
+        out.flip();
+        return out;
+    }
+
+    private byte[] stream(byte[] message, boolean compress) throws Exception
+    {
+        List<ByteBuffer> segments = new ArrayList<>();
+        StreamEncoder encoder = new StreamEncoder(compress, pool, segments::add);
+
+        for (int off = 0; off < message.length; ) {
+            int n = Math.min(message.length - off, 1 + rand.nextInt(70000));
+            encoder.write(ByteBuffer.wrap(message, off, n));
+            off += n;
+        }
+        encoder.close();
+
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        for (ByteBuffer segment : segments) {
+            assertTrue(segment.remaining() <= StreamEncoder.SEGMENT_SIZE);
+            assertEquals(0, segment.remaining() % FrameEncoder.CHUNK_SIZE);
+
+            byte[] b = new byte[segment.remaining()];
+            segment.get(b);
+            wire.write(b);
+            pool.release(segment);
+        }
+
+        return wire.toByteArray();
+    }
+
+    private byte[] unstream(byte[] wire) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamDecoder decoder = new StreamDecoder(Channels.newChannel(out));
+
+        ByteBuffer in = ByteBuffer.wrap(wire);
+        while (in.hasRemaining()) {
+            ByteBuffer piece = in.duplicate();
+            piece.limit(Math.min(in.limit(), in.position() + 1 + rand.nextInt(5000)));
+
+            decoder.decode(piece);
+            in.position(piece.position());
+        }
+
+        assertTrue(decoder.isDone());
+        return out.toByteArray();
+    }
+
+    /* Half random, half repeated text, so compression has work to do */
+    private byte[] message(int length)
+    {
+        byte[] out = new byte[length];
+        byte[] text = "the quick brown fox jumps over the lazy dog ".getBytes();
+
+        for (int i = 0; i < length; i++) {
+            out[i] = ((i / 4096) % 2 == 0) ? text[i % text.length] : (byte)rand.nextInt();
+        }
+        return out;
+    }
+
+    private Peer newPeer()
+    {
+        byte[] privkey = new byte[32];
+        rand.nextBytes(privkey);
+
+        return new Peer(new byte[2], new byte[] {127, 0, 0, 1}, new byte[2], privkey);
+    }
+}
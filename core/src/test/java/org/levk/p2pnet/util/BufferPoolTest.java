@@ -0,0 +1,113 @@
+package org.levk.p2pnet.util;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Size classes, reuse, the off-heap limit and draining the caches
+ * of exited threads.
+ */
+public class BufferPoolTest
+    extends TestCase
+{
+    public BufferPoolTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( BufferPoolTest.class );
+    }
+
+    public void testReuse()
+    {
+        BufferPool pool = new BufferPool(1 << 20);
+
+        ByteBuffer a = pool.acquire(1000);
+        assertTrue(a.isDirect());
+        assertEquals(1024, a.capacity());
+        assertEquals(1000, a.limit());
+        pool.release(a);
+
+        ByteBuffer b = pool.acquire(600);
+        assertSame(a, b);
+        assertEquals(600, b.limit());
+        assertEquals(1, pool.getMissCount());
+        assertEquals(1024, pool.getAllocatedBytes());
+    }
+
+    public void testLimit()
+    {
+        BufferPool pool = new BufferPool(4096);
+
+        ByteBuffer a = pool.acquire(4096);
+        ByteBuffer b = pool.acquire(4096);
+        assertTrue(a.isDirect());
+
+        /* At the limit, so served from the heap */
+        assertFalse(b.isDirect());
+        assertEquals(4096, b.limit());
+        assertEquals(4096, pool.getAllocatedBytes());
+        assertEquals(1, pool.getOverflowCount());
+
+        pool.release(b);
+        pool.release(a);
+        assertEquals(4096, pool.getAllocatedBytes());
+
+        /* Oversized requests count against the limit too */
+        BufferPool small = new BufferPool(BufferPool.MAX_CLASS);
+        assertFalse(small.acquire(BufferPool.MAX_CLASS + 1).isDirect());
+
+        BufferPool large = new BufferPool(4L * BufferPool.MAX_CLASS);
+        ByteBuffer big = large.acquire(BufferPool.MAX_CLASS + 1);
+        assertTrue(big.isDirect());
+        assertEquals(BufferPool.MAX_CLASS + 1, large.getAllocatedBytes());
+        large.release(big);
+        assertEquals(0, large.getAllocatedBytes());
+    }
+
+    public void testIdleBuffersMakeRoom() throws Exception
+    {
+        BufferPool pool = new BufferPool(4096);
+
+        /* Released on an exited thread, so drained to the shared lists */
+        Thread t = new Thread(() -> pool.release(pool.acquire(4096)));
+        t.start();
+        t.join();
+
+        ByteBuffer a = pool.acquire(1024);
+        assertTrue(a.isDirect());
+        assertEquals(1024, pool.getAllocatedBytes());
+        assertEquals(0, pool.getOverflowCount());
+    }
+
+    /* Buffers cached by a thread that exits go back to the pool */
+    public void testExitedThreadCacheIsDrained() throws Exception
+    {
+        BufferPool pool = new BufferPool(1 << 20);
+        ByteBuffer[] held = new ByteBuffer[1];
+
+        Thread t = new Thread(() -> {
+            held[0] = pool.acquire(1000);
+            pool.release(held[0]);
+        });
+        t.start();
+        t.join();
+
+        assertEquals(1024, pool.getAllocatedBytes());
+        assertSame(held[0], pool.acquire(1000));
+        assertEquals(1, pool.getMissCount());
+    }
+
+    public void testSizeClass()
+    {
+        assertEquals(0, BufferPool.sizeClass(1));
+        assertEquals(0, BufferPool.sizeClass(512));
+        assertEquals(1, BufferPool.sizeClass(513));
+        assertEquals(15, BufferPool.sizeClass(BufferPool.MAX_CLASS));
+    }
+}
@@ -0,0 +1,96 @@
+package org.levk.p2pnet.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.bouncycastle.jcajce.provider.digest.Blake2b;
+
+import static org.levk.p2pnet.util.ByteUtils.merge;
+
+/**
+ * The incremental and batch helpers agree with a plain Blake2b-256 digest.
+ */
+public class HashUtilTest
+    extends TestCase
+{
+    private final Random rand = new Random(7);
+
+    public HashUtilTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( HashUtilTest.class );
+    }
+
+    public void testSegments()
+    {
+        byte[] a = bytes(2), b = bytes(16), c = bytes(300);
+        byte[] expected = reference(merge(a, b, c));
+
+        assertTrue(Arrays.equals(expected, HashUtil.blake2(merge(a, b, c))));
+
+        byte[] out = new byte[HashUtil.HASH_LENGTH + 4];
+        HashUtil.blake2(out, 4, a, b, c);
+        assertTrue(Arrays.equals(expected, Arrays.copyOfRange(out, 4, out.length)));
+
+        byte[] omit = new byte[20];
+        HashUtil.blake2omit12(omit, 0, a, b, c);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(expected, 12, 32), omit));
+    }
+
+    public void testBuffers()
+    {
+        byte[] data = bytes(1000);
+        ByteBuffer direct = ByteBuffer.allocateDirect(1000);
+        direct.put(data).flip();
+
+        ByteBuffer out = ByteBuffer.allocateDirect(HashUtil.HASH_LENGTH);
+        HashUtil.blake2(out, direct);
+        assertEquals(0, direct.position());
+
+        out.flip();
+        assertEquals(ByteBuffer.wrap(reference(data)), out);
+
+        byte[] incremental = new byte[HashUtil.HASH_LENGTH];
+        HashUtil.hasher().update(data, 0, 10).update(ByteBuffer.wrap(data, 10, 990)).doFinal(incremental, 0);
+        assertTrue(Arrays.equals(reference(data), incremental));
+    }
+
+    public void testBatch()
+    {
+        List<byte[]> inputs = new ArrayList<>();
+        for (int i = 0; i < 100; i++) inputs.add(bytes(i * 3));
+
+        byte[] flat = new byte[100 * HashUtil.HASH_LENGTH];
+        HashUtil.blake2Batch(inputs, flat);
+        byte[][] each = HashUtil.blake2Batch(inputs);
+
+        for (int i = 0; i < 100; i++) {
+            byte[] expected = reference(inputs.get(i));
+            assertTrue(Arrays.equals(expected, each[i]));
+            assertTrue(Arrays.equals(expected, Arrays.copyOfRange(flat, i * 32, i * 32 + 32)));
+        }
+    }
+
+    private static byte[] reference(byte[] in)
+    {
+        return new Blake2b.Blake2b256().digest(in);
+    }
+
+    private byte[] bytes(int n)
+    {
+        byte[] out = new byte[n];
+        rand.nextBytes(out);
+        return out;
+    }
+}
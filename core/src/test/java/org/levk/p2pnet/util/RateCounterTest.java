@@ -0,0 +1,56 @@
+package org.levk.p2pnet.util;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Sliding-window counts and slot rotation.
+ */
+public class RateCounterTest
+    extends TestCase
+{
+    public RateCounterTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( RateCounterTest.class );
+    }
+
+    public void testWindowSlides()
+    {
+        RateCounter counter = new RateCounter(60000, 60);
+        long start = 1000000000L;
+
+        for (int i = 0; i < 60; i++) {
+            counter.increment(start + i * 1000);
+            counter.increment(start + i * 1000 + 500);
+        }
+
+        assertEquals(120, counter.count(start + 59999));
+
+        /* Ten slots age out, two events each */
+        assertEquals(100, counter.count(start + 69999));
+        assertEquals(0, counter.count(start + 200000));
+    }
+
+    public void testConcurrentIncrements() throws Exception
+    {
+        RateCounter counter = new RateCounter(60000, 60);
+        long now = System.currentTimeMillis();
+        Thread[] threads = new Thread[4];
+
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100000; i++) counter.increment(now);
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+
+        assertEquals(400000, counter.count(now));
+    }
+}
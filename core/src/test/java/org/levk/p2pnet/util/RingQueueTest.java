@@ -0,0 +1,70 @@
+package org.levk.p2pnet.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Bounds and ordering of the ring queue under concurrent producers.
+ */
+public class RingQueueTest
+    extends TestCase
+{
+    public RingQueueTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( RingQueueTest.class );
+    }
+
+    public void testBounded()
+    {
+        RingQueue<Integer> queue = new RingQueue<>(3);
+        assertEquals(4, queue.capacity());
+
+        for (int i = 0; i < 4; i++) assertTrue(queue.offer(i));
+        assertFalse(queue.offer(4));
+
+        for (int i = 0; i < 4; i++) assertEquals(Integer.valueOf(i), queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    public void testManyProducersOneConsumer() throws Exception
+    {
+        RingQueue<Long> queue = new RingQueue<>(64);
+        int producers = 4;
+        int each = 50000;
+        Thread[] threads = new Thread[producers];
+
+        for (int t = 0; t < producers; t++) {
+            long base = (long)t << 32;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < each; i++) {
+                    while (!queue.offer(base | i)) Thread.yield();
+                }
+            });
+            threads[t].start();
+        }
+
+        /* Each producer's elements arrive in order */
+        long[] next = new long[producers];
+        AtomicLong received = new AtomicLong();
+        while (received.get() < (long)producers * each) {
+            Long e = queue.poll();
+            if (e == null) continue;
+
+            int producer = (int)(e >>> 32);
+            assertEquals(next[producer]++, e & 0xFFFFFFFFL);
+            received.incrementAndGet();
+        }
+
+        for (Thread t : threads) t.join();
+        assertNull(queue.poll());
+    }
+}